@@ -2,6 +2,7 @@ package io.github.cmuphil.tetradfx;
 
 
 import io.github.cmuphil.tetradfx.ui.TetradFxMain;
+import io.github.cmuphil.tetradfx.utils.PersistenceService;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.scene.Scene;
@@ -81,4 +82,11 @@ public class App extends Application {
 //        primaryStage.setTitle("Tetrad-FX");
 //        primaryStage.show();
     }
+
+    @Override
+    public void stop() {
+
+        // Writes the notes and tab orders that are still waiting to be written.
+        PersistenceService.getInstance().flush();
+    }
 }
@@ -2,41 +2,54 @@ package io.github.cmuphil.tetradfx.ui;
 
 import edu.cmu.tetrad.algcomparison.independence.ChiSquare;
 import edu.cmu.tetrad.algcomparison.independence.ConditionalGaussianLRT;
-import edu.cmu.tetrad.algcomparison.independence.FisherZ;
 import edu.cmu.tetrad.algcomparison.independence.IndependenceWrapper;
 import edu.cmu.tetrad.algcomparison.score.BdeuScore;
 import edu.cmu.tetrad.algcomparison.score.ConditionalGaussianBicScore;
 import edu.cmu.tetrad.algcomparison.score.ScoreWrapper;
-import edu.cmu.tetrad.algcomparison.score.SemBicScore;
 import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.DiscreteVariable;
-import javafx.beans.property.SimpleStringProperty;
+import io.github.cmuphil.tetradfx.utils.StatisticsCache;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.input.MouseButton;
 
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Objects;
+
 /**
  * <p>Returns a TableView for a DataSet that can be displayed in a ScrollPane</p>
  *
+ * <p>The table doesn't copy the data. Its rows are just the row indices of the dataset, served up
+ * lazily by an index list, and each cell reads and formats its value from the dataset when it is
+ * shown, reusing one number format for the whole table, so only the visible cells cost anything.
+ * This keeps opening and scrolling very large datasets fast.</p>
+ *
  * @author josephramsey
  */
 public class DataView {
 
-    public static TableView<DataRow> getTableView(DataSet dataSet) {
-        TableView<DataRow> table = new TableView<>();
+    public static TableView<Integer> getTableView(DataSet dataSet) {
+        TableView<Integer> table = new TableView<>(new RowIndexList(dataSet.getNumRows()));
+
+        // Shared by all of the cells in this table; cells are only updated on the FX thread.
+        NumberFormat nf = new DecimalFormat("0.00");
+        nf.setRoundingMode(RoundingMode.HALF_UP);
 
         int numberOfColumns = dataSet.getNumColumns();
 
         for (int j = 0; j < numberOfColumns; j++) {
             final int colIndex = j;
-            TableColumn<DataRow, String> column = new TableColumn<>(dataSet.getVariable(colIndex).getName());
-            column.setCellValueFactory(cellData -> cellData.getValue().getValue(colIndex));
+            TableColumn<Integer, Void> column = new TableColumn<>(dataSet.getVariable(colIndex).getName());
+            column.setCellFactory(param -> new DataCell(dataSet, colIndex, nf));
             column.setStyle("-fx-alignment: CENTER-RIGHT;");
-            table.getColumns().add(column);
-        }
 
-        for (int i = 0; i < dataSet.getNumRows(); i++) {
-            table.getItems().add(new DataRow(dataSet, i));
+            // Sorting would need every row's value to be materialized.
+            column.setSortable(false);
+            table.getColumns().add(column);
         }
 
         var contextMenu = MenuItems.getDataContextMenu(table, dataSet);
@@ -49,6 +62,8 @@ public class DataView {
             }
         });
 
+        // With a fixed cell size the table doesn't need to measure rows to lay them out.
+        table.setFixedCellSize(24);
         table.setPrefHeight(300);
         table.setPrefWidth(400);
         table.setSelectionModel(null);
@@ -56,32 +71,72 @@ public class DataView {
     }
 
     /**
-     * <p>A row in the table. This is a wrapper around the Tetrad DataSet that allows us to
-     * display the data in a TableView without having to copy the data into a new data structure.</p>
+     * <p>The rows of the table: the list 0, 1, ..., numRows - 1, computed on demand rather than stored.</p>
      */
-    public static class DataRow {
-        private final int row;
+    private static class RowIndexList extends ObservableListBase<Integer> {
+        private final int numRows;
+
+        public RowIndexList(int numRows) {
+            this.numRows = numRows;
+        }
+
+        @Override
+        public Integer get(int index) {
+            Objects.checkIndex(index, numRows);
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return numRows;
+        }
+    }
+
+    /**
+     * <p>A cell that shows the value in one column of the dataset for the row it is currently showing. The cell reads
+     * the value straight from the dataset whenever it is moved to a different row.</p>
+     */
+    private static class DataCell extends TableCell<Integer, Void> {
         private final DataSet dataSet;
+        private final int col;
+        private final DiscreteVariable discreteVariable;
+        private final NumberFormat nf;
 
-        public DataRow(DataSet dataSet, int row) {
+        public DataCell(DataSet dataSet, int col, NumberFormat nf) {
             this.dataSet = dataSet;
-            this.row = row;
+            this.col = col;
+            this.discreteVariable = dataSet.getVariable(col) instanceof DiscreteVariable
+                    ? (DiscreteVariable) dataSet.getVariable(col) : null;
+            this.nf = nf;
         }
 
-        public SimpleStringProperty getValue(int col) {
-            if (dataSet.getVariable(col) instanceof edu.cmu.tetrad.data.ContinuousVariable) {
+        @Override
+        public void updateIndex(int row) {
+            super.updateIndex(row);
+
+            if (isEmpty() || row < 0 || row >= dataSet.getNumRows()) {
+                setText(null);
+            } else if (discreteVariable == null) {
                 double value = dataSet.getDouble(row, col);
-                return new SimpleStringProperty(String.format("%.2f", value));
+                setText(Double.isNaN(value) ? "*" : nf.format(value));
             } else {
-                DiscreteVariable variable = (DiscreteVariable) dataSet.getVariable(col);
-                return new SimpleStringProperty(variable.getCategory(dataSet.getInt(row, col)));
+                int value = dataSet.getInt(row, col);
+                setText(value == DiscreteVariable.MISSING_VALUE ? "*" : discreteVariable.getCategory(value));
             }
         }
     }
 
-    public static ScoreWrapper getScore(DataSet dataSet) {
+    /**
+     * Returns a score for the dataset, depending on its type. For continuous data, the score uses the covariance
+     * matrix kept in the project's statistics cache, so that it isn't recomputed for every search.
+     *
+     * @param dataSet    The dataset.
+     * @param statistics The project's statistics cache.
+     * @return The score wrapper.
+     */
+    public static ScoreWrapper getScore(DataSet dataSet, StatisticsCache statistics) {
         if (dataSet.isContinuous()) {
-            return new SemBicScore();
+            return new StatisticsCache.CachedSemBicScore(statistics);
         } else if (dataSet.isDiscrete()) {
             return new BdeuScore();
         } else {
@@ -89,9 +144,17 @@ public class DataView {
         }
     }
 
-    public static IndependenceWrapper getTest(DataSet dataSet) {
+    /**
+     * Returns a test for the dataset, depending on its type. For continuous data, the test uses the covariance matrix
+     * kept in the project's statistics cache, so that it isn't recomputed for every search.
+     *
+     * @param dataSet    The dataset.
+     * @param statistics The project's statistics cache.
+     * @return The test wrapper.
+     */
+    public static IndependenceWrapper getTest(DataSet dataSet, StatisticsCache statistics) {
         if (dataSet.isContinuous()) {
-            return new FisherZ();
+            return new StatisticsCache.CachedFisherZ(statistics);
         } else if (dataSet.isDiscrete()) {
             return new ChiSquare();
         } else {
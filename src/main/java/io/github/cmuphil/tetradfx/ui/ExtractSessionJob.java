@@ -0,0 +1,62 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import io.github.cmuphil.tetradfx.utils.PendingArchive;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+
+import java.util.List;
+
+/**
+ * <p>Extracts, in the background, the parts of a session file that haven't been extracted yet, so
+ * that after a session is loaded its projects are ready by the time they are opened. Projects that
+ * are opened first are extracted by their loaders; this job skips them.</p>
+ *
+ * @author josephramsey
+ */
+public class ExtractSessionJob extends Task<Void> {
+    private final PendingArchive archive;
+
+    /**
+     * Creates a job to extract the rest of a session file.
+     *
+     * @param archive The session file.
+     */
+    public ExtractSessionJob(PendingArchive archive) {
+        this.archive = archive;
+
+        updateTitle("Extracting session");
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    @Override
+    protected Void call() throws Exception {
+        List<String> pending = archive.getPending();
+
+        for (int i = 0; i < pending.size(); i++) {
+            if (isCancelled()) {
+                return null;
+            }
+
+            updateMessage(pending.get(i).replace('_', ' '));
+            updateProgress(i, pending.size());
+            archive.materialize(pending.get(i));
+        }
+
+        updateMessage("Done");
+        updateProgress(1, 1);
+        return null;
+    }
+
+    @Override
+    protected void failed() {
+        Throwable e = getException();
+        e.printStackTrace();
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error Dialog");
+        alert.setHeaderText(null);
+        alert.setContentText("The session file could not be extracted: " + e.getMessage());
+        alert.showAndWait();
+    }
+}
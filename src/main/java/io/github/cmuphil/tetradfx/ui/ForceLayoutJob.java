@@ -0,0 +1,422 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import edu.cmu.tetrad.graph.Edge;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.Node;
+import javafx.animation.AnimationTimer;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * <p>Lays out a graph with a force-directed (Fruchterman-Reingold) layout in the background, showing
+ * the layout as it goes. Nodes push each other apart and edges pull their nodes together, and the
+ * nodes are moved a little less each iteration until they settle. The pushing apart is worked out
+ * with the Barnes-Hut approximation: the nodes are put in a quadtree, and a group of nodes far
+ * enough from a node pushes it as one, from its center, so that an iteration takes about n log n
+ * steps rather than n squared.</p>
+ *
+ * <p>The layout starts from where the nodes are. As it goes, the positions are published, and
+ * picked up on the FX thread at most about 30 times a second: they are copied to the nodes of the
+ * graph and the view is told to move them. The job can be cancelled from the status bar, in which
+ * case the nodes stay where they got to.</p>
+ *
+ * @author josephramsey
+ */
+public class ForceLayoutJob extends Task<Void> {
+
+    // The ideal length of an edge, in pixels.
+    private static final double EDGE_LENGTH = 120;
+
+    // How much bigger than its distance from a node a quadtree cell can be and still push the node as one.
+    private static final double THETA = 0.9;
+
+    private static final int MAX_ITERATIONS = 300;
+    private static final long FRAME_NANOS = 1_000_000_000L / 30;
+    private static final double MARGIN = 50;
+
+    private final List<Node> nodes;
+    private final int[] from;
+    private final int[] to;
+    private final double[] x;
+    private final double[] y;
+    private final Runnable onLayout;
+    private final Runnable onDone;
+
+    // The most recent positions not yet shown, as {x0, y0, x1, y1, ...}.
+    private final AtomicReference<double[]> published = new AtomicReference<>();
+    private final AnimationTimer timer;
+
+    /**
+     * Creates a job to lay out a graph. This should be called on the FX thread.
+     *
+     * @param graph    The graph. Its nodes' centers are updated as the layout goes.
+     * @param onLayout Called on the FX thread each time the nodes' centers are updated, to move them on the screen.
+     * @param onDone   Called on the FX thread when the layout is finished or stopped, to save it.
+     */
+    public ForceLayoutJob(Graph graph, Runnable onLayout, Runnable onDone) {
+        this.nodes = graph.getNodes();
+        this.onLayout = onLayout;
+        this.onDone = onDone;
+
+        int n = nodes.size();
+        Map<Node, Integer> indices = new HashMap<>();
+        x = new double[n];
+        y = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            indices.put(nodes.get(i), i);
+            x[i] = nodes.get(i).getCenterX();
+            y[i] = nodes.get(i).getCenterY();
+        }
+
+        List<Edge> edges = List.copyOf(graph.getEdges());
+        from = new int[edges.size()];
+        to = new int[edges.size()];
+
+        for (int e = 0; e < edges.size(); e++) {
+            from[e] = indices.get(edges.get(e).getNode1());
+            to[e] = indices.get(edges.get(e).getNode2());
+        }
+
+        timer = new AnimationTimer() {
+            private long last = 0;
+
+            @Override
+            public void handle(long now) {
+                if (now - last >= FRAME_NANOS) {
+                    last = now;
+                    show();
+                }
+            }
+        };
+
+        updateTitle("Force layout");
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    @Override
+    protected Void call() {
+        int n = x.length;
+        double[] dispX = new double[n];
+        double[] dispY = new double[n];
+        QuadTree tree = new QuadTree(n);
+
+        // Start hot enough that nodes can cross the graph, and cool down to nearly nothing.
+        double temperature = Math.max(EDGE_LENGTH, Math.sqrt(n) * EDGE_LENGTH / 2);
+        double cooling = Math.pow(1.0 / temperature, 1.0 / MAX_ITERATIONS);
+        long lastPublished = 0;
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            if (isCancelled()) {
+                return null;
+            }
+
+            // Repulsion, approximated with the quadtree. Each node's push is worked out separately, so this is done
+            // in parallel.
+            tree.build(x, y);
+            IntStream.range(0, n).parallel().forEach(i -> {
+                double[] force = tree.repulsion(i, x, y, EDGE_LENGTH * EDGE_LENGTH, THETA * THETA);
+                dispX[i] = force[0];
+                dispY[i] = force[1];
+            });
+
+            // Attraction along the edges.
+            for (int e = 0; e < from.length; e++) {
+                int i = from[e], j = to[e];
+                double dx = x[i] - x[j];
+                double dy = y[i] - y[j];
+                double d = Math.max(0.01, Math.sqrt(dx * dx + dy * dy));
+                double f = d / EDGE_LENGTH;
+                dispX[i] -= dx * f;
+                dispY[i] -= dy * f;
+                dispX[j] += dx * f;
+                dispY[j] += dy * f;
+            }
+
+            // Move each node along its displacement, but no farther than the temperature.
+            for (int i = 0; i < n; i++) {
+                double d = Math.sqrt(dispX[i] * dispX[i] + dispY[i] * dispY[i]);
+
+                if (d > 0) {
+                    double step = Math.min(d, temperature);
+                    x[i] += dispX[i] / d * step;
+                    y[i] += dispY[i] / d * step;
+                }
+            }
+
+            temperature *= cooling;
+
+            if (System.nanoTime() - lastPublished >= FRAME_NANOS) {
+                publish();
+                lastPublished = System.nanoTime();
+            }
+
+            updateMessage("Iteration " + (iteration + 1) + " of " + MAX_ITERATIONS);
+            updateProgress(iteration + 1, MAX_ITERATIONS);
+        }
+
+        publish();
+        return null;
+    }
+
+    @Override
+    protected void running() {
+        timer.start();
+    }
+
+    @Override
+    protected void succeeded() {
+        finish();
+    }
+
+    @Override
+    protected void cancelled() {
+        finish();
+    }
+
+    @Override
+    protected void failed() {
+        finish();
+
+        Throwable e = getException();
+        e.printStackTrace();
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error Dialog");
+        alert.setHeaderText(null);
+        alert.setContentText("The layout could not be finished: " + e.getMessage());
+        alert.showAndWait();
+    }
+
+    private void finish() {
+        timer.stop();
+        show();
+        onDone.run();
+    }
+
+    // Publishes a copy of the positions, moved so that the top left node is just inside the view.
+    private void publish() {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < x.length; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+        }
+
+        double[] positions = new double[2 * x.length];
+
+        for (int i = 0; i < x.length; i++) {
+            positions[2 * i] = x[i] - minX + MARGIN;
+            positions[2 * i + 1] = y[i] - minY + MARGIN;
+        }
+
+        published.set(positions);
+    }
+
+    // Shows the latest published positions, if they haven't been shown yet.
+    private void show() {
+        double[] positions = published.getAndSet(null);
+
+        if (positions == null) {
+            return;
+        }
+
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).setCenter((int) Math.round(positions[2 * i]), (int) Math.round(positions[2 * i + 1]));
+        }
+
+        onLayout.run();
+    }
+
+    /**
+     * A quadtree over the node positions, rebuilt each iteration, holding the number of nodes in each cell and the sum
+     * of their positions, for working out how hard the other nodes push a node away.
+     */
+    private static class QuadTree {
+
+        // Below this size cells aren't split further; nodes that close together are pushed as one.
+        private static final double MIN_WIDTH = 1e-3;
+
+        private final int n;
+
+        // The cells, by index, with the root at 0. A cell's children are at child[4 * cell + quadrant], or -1; a
+        // leaf's node is in point[cell], or -1 if it's empty or holds several nodes too close to split.
+        private int size;
+        private double[] left;
+        private double[] top;
+        private double[] width;
+        private int[] count;
+        private double[] sumX;
+        private double[] sumY;
+        private int[] point;
+        private int[] child;
+
+        QuadTree(int n) {
+            this.n = n;
+            allocate(Math.max(16, 4 * n));
+        }
+
+        void build(double[] x, double[] y) {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+            for (int i = 0; i < n; i++) {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+
+            size = 0;
+            newCell(minX, minY, Math.max(maxX - minX, maxY - minY) + 1);
+
+            for (int i = 0; i < n; i++) {
+                insert(i, x, y);
+            }
+        }
+
+        // Works out how hard the other nodes push node i away, given the square of the ideal edge length and of theta.
+        double[] repulsion(int i, double[] x, double[] y, double k2, double theta2) {
+            double fx = 0, fy = 0;
+            int[] stack = new int[64];
+            int depth = 0;
+            stack[depth++] = 0;
+
+            while (depth > 0) {
+                int cell = stack[--depth];
+                boolean leaf = child[4 * cell] == -1;
+                boolean containsI = point[cell] == i || (x[i] >= left[cell] && x[i] < left[cell] + width[cell]
+                        && y[i] >= top[cell] && y[i] < top[cell] + width[cell]);
+                int m = count[cell];
+                double cx = sumX[cell], cy = sumY[cell];
+
+                if (leaf && containsI) {
+
+                    // Leave node i itself out.
+                    if (point[cell] == i) continue;
+                    m--;
+                    cx -= x[i];
+                    cy -= y[i];
+                }
+
+                if (m == 0) continue;
+
+                double dx = x[i] - cx / m;
+                double dy = y[i] - cy / m;
+                double d2 = dx * dx + dy * dy;
+
+                if (leaf || (!containsI && width[cell] * width[cell] < theta2 * d2)) {
+
+                    // Nodes on top of each other are pushed apart in some direction or other.
+                    if (d2 < 1e-4) {
+                        dx = 0.01 * Math.cos(i);
+                        dy = 0.01 * Math.sin(i);
+                        d2 = dx * dx + dy * dy;
+                    }
+
+                    // Each node pushes with a force of k^2 / d.
+                    double f = m * k2 / d2;
+                    fx += dx * f;
+                    fy += dy * f;
+                } else {
+                    if (depth + 4 > stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * stack.length);
+                    }
+
+                    for (int q = 0; q < 4; q++) {
+                        if (count[child[4 * cell + q]] > 0) {
+                            stack[depth++] = child[4 * cell + q];
+                        }
+                    }
+                }
+            }
+
+            return new double[]{fx, fy};
+        }
+
+        private void insert(int i, double[] x, double[] y) {
+            int cell = 0;
+
+            while (true) {
+                count[cell]++;
+                sumX[cell] += x[i];
+                sumY[cell] += y[i];
+
+                if (child[4 * cell] == -1) {
+                    if (count[cell] == 1) {
+                        point[cell] = i;
+                        return;
+                    }
+
+                    // Nodes this close together are left in the one cell.
+                    if (width[cell] < MIN_WIDTH) {
+                        point[cell] = -1;
+                        return;
+                    }
+
+                    // Split the cell, moving its node down into a child, and go on down with node i.
+                    int other = point[cell];
+                    point[cell] = -1;
+                    split(cell);
+                    int c = child[4 * cell + quadrant(cell, x[other], y[other])];
+                    count[c] = 1;
+                    sumX[c] = x[other];
+                    sumY[c] = y[other];
+                    point[c] = other;
+                }
+
+                cell = child[4 * cell + quadrant(cell, x[i], y[i])];
+            }
+        }
+
+        private int quadrant(int cell, double px, double py) {
+            double half = width[cell] / 2;
+            return (px >= left[cell] + half ? 1 : 0) + (py >= top[cell] + half ? 2 : 0);
+        }
+
+        private void split(int cell) {
+            double half = width[cell] / 2;
+
+            for (int q = 0; q < 4; q++) {
+                int c = newCell(left[cell] + (q % 2) * half, top[cell] + (q / 2) * half, half);
+                child[4 * cell + q] = c;
+            }
+        }
+
+        private int newCell(double cellLeft, double cellTop, double cellWidth) {
+            if (size == left.length) {
+                allocate(2 * size);
+            }
+
+            int cell = size++;
+            left[cell] = cellLeft;
+            top[cell] = cellTop;
+            width[cell] = cellWidth;
+            count[cell] = 0;
+            sumX[cell] = 0;
+            sumY[cell] = 0;
+            point[cell] = -1;
+            Arrays.fill(child, 4 * cell, 4 * cell + 4, -1);
+            return cell;
+        }
+
+        private void allocate(int capacity) {
+            left = left == null ? new double[capacity] : Arrays.copyOf(left, capacity);
+            top = top == null ? new double[capacity] : Arrays.copyOf(top, capacity);
+            width = width == null ? new double[capacity] : Arrays.copyOf(width, capacity);
+            count = count == null ? new int[capacity] : Arrays.copyOf(count, capacity);
+            sumX = sumX == null ? new double[capacity] : Arrays.copyOf(sumX, capacity);
+            sumY = sumY == null ? new double[capacity] : Arrays.copyOf(sumY, capacity);
+            point = point == null ? new int[capacity] : Arrays.copyOf(point, capacity);
+            child = child == null ? new int[4 * capacity] : Arrays.copyOf(child, 4 * capacity);
+        }
+    }
+}
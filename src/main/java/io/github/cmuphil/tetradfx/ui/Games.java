@@ -11,13 +11,13 @@ import javafx.animation.Timeline;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Label;
-import javafx.scene.control.ScrollPane;
 import javafx.scene.effect.InnerShadow;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.TilePane;
 import javafx.util.Duration;
 
@@ -90,7 +90,7 @@ public class Games {
         tilePane.setStyle("-fx-padding: 5px;");
         tilePane.setPadding(new Insets(10, 0, 0, 0));
 
-        ScrollPane graphDisplay = GraphView.getGraphDisplay(__graph);
+        Region graphDisplay = GraphView.getGraphDisplay(__graph);
         graphDisplay.setPadding(new Insets(1, 40, 40, 1));
         main.setCenter(graphDisplay);
 
@@ -189,7 +189,7 @@ public class Games {
 
                     scorer.score(newOrder);
                     Graph _graph1 = scorer.getGraph(false);
-                    ScrollPane graphDisplay1 = GraphView.getGraphDisplay(_graph1);
+                    Region graphDisplay1 = GraphView.getGraphDisplay(_graph1);
                     graphDisplay1.setPadding(new Insets(0, 40, 40, 0));
                     main.setCenter(graphDisplay1);
                     success = true;
@@ -0,0 +1,592 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import edu.cmu.tetrad.graph.Edge;
+import edu.cmu.tetrad.graph.Endpoint;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.graph.NodeType;
+import io.github.cmuphil.tetradfx.utils.EdgeClipper;
+import io.github.cmuphil.tetradfx.utils.SpatialGrid;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextAlignment;
+
+import java.util.*;
+
+import static io.github.cmuphil.tetradfx.ui.GraphView.LINE_COLOR;
+import static io.github.cmuphil.tetradfx.ui.GraphView.NODE_EDGE_COLOR;
+import static io.github.cmuphil.tetradfx.ui.GraphView.NODE_FILL_COLOR;
+
+/**
+ * <p>Displays a large Tetrad graph by drawing it onto a Canvas the size of the viewport. GraphView
+ * makes a scene graph node for every node, label, edge and edge mark, which for a search result
+ * with thousands of nodes and tens of thousands of edges is too many for JavaFX to keep up with;
+ * GraphView.getGraphDisplay switches to this view for graphs with more than
+ * GraphView.CANVAS_THRESHOLD nodes. The nodes and edges look the same as in GraphView.</p>
+ *
+ * <p>The graph is panned by dragging the background and zoomed with the scroll wheel or a zoom
+ * gesture. Nodes are selected by clicking them, shift-clicking them or dragging a rectangle around
+ * them with the shift key down, and the selected nodes can be dragged around. When nodes are
+ * dragged, only the region covered by them and their edges, before and after the move, is drawn
+ * again. When the graph is zoomed out far enough that the labels and then the edge marks would be
+ * too small to read, they are left out.</p>
+ *
+ * <p>The nodes and edges are kept in spatial grids, so that finding the node under the mouse, the
+ * nodes in a selection rectangle, or what needs to be drawn in a region, only looks at what's near
+ * there.</p>
+ *
+ * @author josephramsey
+ */
+public class GraphCanvasView extends Pane {
+
+    // Below these scales, labels and then edge marks are not drawn.
+    private static final double LABEL_MIN_SCALE = 0.5;
+    private static final double EDGEMARK_MIN_SCALE = 0.3;
+
+    private static final double MIN_SCALE = 0.01;
+    private static final double MAX_SCALE = 10;
+    private static final double ARROW_SIZE = 10;
+    private static final double CIRCLE_RADIUS = 5;
+    private static final double STROKE_WIDTH = 2;
+    private static final Font LABEL_FONT = new Font("Arial", 16);
+    private static final Color SELECTED_FILL_COLOR = Color.rgb(244, 230, 110);
+
+    private final Canvas canvas = new Canvas();
+
+    // The nodes, by index, with their centers and the half widths and heights of their shapes, in graph coordinates.
+    private final List<Node> nodes;
+    private final double[] x;
+    private final double[] y;
+    private final double[] halfWidth;
+    private final double[] halfHeight;
+    private final boolean[] ellipse;
+
+    // The edges, by index, with the indices of their nodes, and the indices of the edges at each node.
+    private final List<Edge> edges;
+    private final int[] from;
+    private final int[] to;
+    private final int[][] incident;
+
+    // Where the nodes and edges are, for finding what's near a point or in a region.
+    private final SpatialGrid nodeGrid;
+    private final SpatialGrid edgeGrid;
+
+    private final BitSet selected = new BitSet();
+    private final Rectangle selectionRectangle = new Rectangle();
+
+    // Screen coordinates are graph coordinates times the scale, plus the translation.
+    private double scale = 1;
+    private double translateX, translateY;
+    private boolean fitted = false;
+
+    private boolean draggingNodes = false;
+    private boolean selecting = false;
+    private boolean panned = false;
+    private double pressX, pressY;
+    private double lastX, lastY;
+
+    // Saves the layout when the nodes have been moved.
+    private final Runnable saveLayout;
+
+    /**
+     * Creates a view of a graph, which should already be laid out.
+     *
+     * @param graph      The graph. The centers of its nodes are updated as they are moved.
+     * @param saveLayout Called when the nodes have been moved or laid out again, to save the layout.
+     */
+    public GraphCanvasView(Graph graph, Runnable saveLayout) {
+        this.nodes = graph.getNodes();
+        this.saveLayout = saveLayout;
+        this.edges = List.copyOf(graph.getEdges());
+
+        int n = nodes.size();
+        Map<Node, Integer> nodeIndices = new HashMap<>();
+        x = new double[n];
+        y = new double[n];
+        halfWidth = new double[n];
+        halfHeight = new double[n];
+        ellipse = new boolean[n];
+
+        // The shapes are sized as in GraphView, from the size of the label at 20 points.
+        Text text = new Text();
+        text.setFont(Font.font(20));
+
+        for (int i = 0; i < n; i++) {
+            Node node = nodes.get(i);
+            nodeIndices.put(node, i);
+            text.setText(node.getName());
+            double width = text.getLayoutBounds().getWidth();
+            double height = text.getLayoutBounds().getHeight();
+
+            if (node.getNodeType() == NodeType.MEASURED) {
+                halfWidth[i] = (width + 12) / 2;
+                halfHeight[i] = (height + 2) / 2;
+            } else if (node.getNodeType() == NodeType.LATENT || node.getNodeType() == NodeType.ERROR) {
+                halfWidth[i] = width / 2 + 12;
+                halfHeight[i] = height / 2 + 2;
+                ellipse[i] = true;
+            } else {
+                throw new IllegalArgumentException("That node type is not configured: " + node.getNodeType());
+            }
+        }
+
+        from = new int[edges.size()];
+        to = new int[edges.size()];
+        int[] degrees = new int[n];
+
+        for (int e = 0; e < edges.size(); e++) {
+            from[e] = nodeIndices.get(edges.get(e).getNode1());
+            to[e] = nodeIndices.get(edges.get(e).getNode2());
+            degrees[from[e]]++;
+            degrees[to[e]]++;
+        }
+
+        incident = new int[n][];
+
+        for (int i = 0; i < n; i++) {
+            incident[i] = new int[degrees[i]];
+            degrees[i] = 0;
+        }
+
+        for (int e = 0; e < edges.size(); e++) {
+            incident[from[e]][degrees[from[e]]++] = e;
+            incident[to[e]][degrees[to[e]]++] = e;
+        }
+
+        // Cells about two nodes wide.
+        double cellSize = Math.max(1, 4 * Arrays.stream(halfWidth).average().orElse(1));
+        nodeGrid = new SpatialGrid(n, cellSize);
+        edgeGrid = new SpatialGrid(edges.size(), cellSize);
+
+        readPositions();
+
+        selectionRectangle.setFill(Color.TRANSPARENT);
+        selectionRectangle.setStroke(Color.GRAY);
+        selectionRectangle.getStrokeDashArray().addAll(4.0, 4.0);
+        selectionRectangle.setManaged(false);
+        selectionRectangle.setVisible(false);
+
+        getChildren().addAll(canvas, selectionRectangle);
+        setMinSize(0, 0);
+        setPrefSize(800, 600);
+
+        ContextMenu contextMenu = GraphView.getContextMenu(graph, () -> {
+            readPositions();
+            fit();
+            repaint();
+        }, saveLayout);
+
+        setOnMousePressed(event -> {
+            contextMenu.hide();
+
+            if (event.getButton() == MouseButton.SECONDARY ||
+                    (event.getButton() == MouseButton.PRIMARY && event.isControlDown())) {
+                contextMenu.show(this, event.getScreenX(), event.getScreenY());
+                return;
+            }
+
+            if (event.getButton() != MouseButton.PRIMARY) {
+                return;
+            }
+
+            int node = nodeAt(toGraphX(event.getX()), toGraphY(event.getY()));
+            draggingNodes = node != -1;
+            selecting = node == -1 && event.isShiftDown();
+            panned = false;
+
+            // Clicking a node selects it; shift-clicking adds it to the selection or takes it out.
+            if (node != -1 && event.isShiftDown()) {
+                selected.flip(node);
+                draggingNodes = selected.get(node);
+                repaint();
+            } else if (node != -1 && !selected.get(node)) {
+                selected.clear();
+                selected.set(node);
+                repaint();
+            }
+
+            pressX = lastX = event.getX();
+            pressY = lastY = event.getY();
+        });
+
+        setOnMouseDragged(event -> {
+            if (event.getButton() != MouseButton.PRIMARY || event.isControlDown()) {
+                return;
+            }
+
+            if (draggingNodes) {
+                moveSelected((event.getX() - lastX) / scale, (event.getY() - lastY) / scale);
+            } else if (selecting) {
+                selectionRectangle.setX(Math.min(pressX, event.getX()));
+                selectionRectangle.setY(Math.min(pressY, event.getY()));
+                selectionRectangle.setWidth(Math.abs(event.getX() - pressX));
+                selectionRectangle.setHeight(Math.abs(event.getY() - pressY));
+                selectionRectangle.setVisible(true);
+            } else {
+                translateX += event.getX() - lastX;
+                translateY += event.getY() - lastY;
+                panned = true;
+                repaint();
+            }
+
+            lastX = event.getX();
+            lastY = event.getY();
+        });
+
+        setOnMouseReleased(event -> {
+            if (event.getButton() != MouseButton.PRIMARY) {
+                return;
+            }
+
+            if (selecting) {
+                selectNodesIn(toGraphX(Math.min(pressX, event.getX())), toGraphY(Math.min(pressY, event.getY())),
+                        toGraphX(Math.max(pressX, event.getX())), toGraphY(Math.max(pressY, event.getY())));
+                selectionRectangle.setVisible(false);
+            } else if (!draggingNodes && !panned && !event.isControlDown() && !selected.isEmpty()) {
+
+                // Clicking the background clears the selection.
+                selected.clear();
+                repaint();
+            }
+
+            if (draggingNodes && (event.getX() != pressX || event.getY() != pressY)) {
+                saveLayout.run();
+            }
+
+            draggingNodes = false;
+            selecting = false;
+        });
+
+        setOnScroll(event -> {
+            if (event.getDeltaY() != 0) {
+                zoom(Math.pow(1.1, event.getDeltaY() / 40), event.getX(), event.getY());
+            }
+
+            event.consume();
+        });
+
+        setOnZoom(event -> {
+            zoom(event.getZoomFactor(), event.getX(), event.getY());
+            event.consume();
+        });
+    }
+
+    @Override
+    protected void layoutChildren() {
+        if (canvas.getWidth() != getWidth() || canvas.getHeight() != getHeight()) {
+            canvas.setWidth(getWidth());
+            canvas.setHeight(getHeight());
+
+            if (!fitted && getWidth() > 0 && getHeight() > 0) {
+                fit();
+                fitted = true;
+            }
+
+            repaint();
+        }
+    }
+
+    // Reads the node centers from the graph's layout.
+    private void readPositions() {
+        for (int i = 0; i < nodes.size(); i++) {
+            x[i] = nodes.get(i).getCenterX();
+            y[i] = nodes.get(i).getCenterY();
+            indexNode(i);
+        }
+
+        for (int e = 0; e < edges.size(); e++) {
+            indexEdge(e);
+        }
+    }
+
+    private void indexNode(int i) {
+        nodeGrid.putRectangle(i, x[i] - halfWidth[i] - STROKE_WIDTH, y[i] - halfHeight[i] - STROKE_WIDTH,
+                x[i] + halfWidth[i] + STROKE_WIDTH, y[i] + halfHeight[i] + STROKE_WIDTH);
+    }
+
+    private void indexEdge(int e) {
+        edgeGrid.putSegment(e, x[from[e]], y[from[e]], x[to[e]], y[to[e]], ARROW_SIZE + STROKE_WIDTH);
+    }
+
+    // Scales and centers the graph to fit the view, without zooming in past the actual size.
+    private void fit() {
+        if (nodes.isEmpty() || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < nodes.size(); i++) {
+            minX = Math.min(minX, x[i] - halfWidth[i]);
+            minY = Math.min(minY, y[i] - halfHeight[i]);
+            maxX = Math.max(maxX, x[i] + halfWidth[i]);
+            maxY = Math.max(maxY, y[i] + halfHeight[i]);
+        }
+
+        double margin = 20;
+        scale = Math.min((getWidth() - 2 * margin) / (maxX - minX), (getHeight() - 2 * margin) / (maxY - minY));
+        scale = Math.max(MIN_SCALE, Math.min(1, scale));
+        translateX = getWidth() / 2 - scale * (minX + maxX) / 2;
+        translateY = getHeight() / 2 - scale * (minY + maxY) / 2;
+    }
+
+    // Zooms by a factor, keeping the given point on the screen where it is.
+    private void zoom(double factor, double screenX, double screenY) {
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        factor = newScale / scale;
+        translateX = screenX - (screenX - translateX) * factor;
+        translateY = screenY - (screenY - translateY) * factor;
+        scale = newScale;
+        repaint();
+    }
+
+    private double toGraphX(double screenX) {
+        return (screenX - translateX) / scale;
+    }
+
+    private double toGraphY(double screenY) {
+        return (screenY - translateY) / scale;
+    }
+
+    // Returns the topmost node at a point, or -1 if there is none.
+    private int nodeAt(double graphX, double graphY) {
+        int[] topmost = {-1};
+
+        nodeGrid.query(graphX, graphY, graphX, graphY, i -> {
+            if (i > topmost[0] && contains(i, graphX, graphY)) {
+                topmost[0] = i;
+            }
+        });
+
+        return topmost[0];
+    }
+
+    // Adds the nodes whose centers are in a rectangle to the selection.
+    private void selectNodesIn(double minX, double minY, double maxX, double maxY) {
+        nodeGrid.query(minX, minY, maxX, maxY, i -> {
+            if (x[i] >= minX && x[i] <= maxX && y[i] >= minY && y[i] <= maxY) {
+                selected.set(i);
+            }
+        });
+
+        repaint();
+    }
+
+    private boolean contains(int i, double graphX, double graphY) {
+        double dx = graphX - x[i];
+        double dy = graphY - y[i];
+
+        if (ellipse[i]) {
+            return (dx / halfWidth[i]) * (dx / halfWidth[i]) + (dy / halfHeight[i]) * (dy / halfHeight[i]) <= 1;
+        } else {
+            return Math.abs(dx) <= halfWidth[i] && Math.abs(dy) <= halfHeight[i];
+        }
+    }
+
+    // Moves the selected nodes, drawing again only the region covered by them and their edges before and after the
+    // move.
+    private void moveSelected(double dx, double dy) {
+        double[] region = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            addNodeAndEdges(i, region);
+        }
+
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            x[i] += dx;
+            y[i] += dy;
+            nodes.get(i).setCenter((int) Math.round(x[i]), (int) Math.round(y[i]));
+            indexNode(i);
+
+            for (int e : incident[i]) {
+                indexEdge(e);
+            }
+        }
+
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            addNodeAndEdges(i, region);
+        }
+
+        repaint(region[0], region[1], region[2], region[3]);
+    }
+
+    // Adds the bounds of a node and its edges, in graph coordinates, to a region {minX, minY, maxX, maxY}.
+    private void addNodeAndEdges(int i, double[] region) {
+        double pad = pad();
+        add(region, x[i] - halfWidth[i] - pad, y[i] - halfHeight[i] - pad,
+                x[i] + halfWidth[i] + pad, y[i] + halfHeight[i] + pad);
+
+        for (int e : incident[i]) {
+            int j = from[e] == i ? to[e] : from[e];
+            add(region, Math.min(x[i], x[j]) - pad, Math.min(y[i], y[j]) - pad,
+                    Math.max(x[i], x[j]) + pad, Math.max(y[i], y[j]) + pad);
+        }
+    }
+
+    private static void add(double[] region, double minX, double minY, double maxX, double maxY) {
+        region[0] = Math.min(region[0], minX);
+        region[1] = Math.min(region[1], minY);
+        region[2] = Math.max(region[2], maxX);
+        region[3] = Math.max(region[3], maxY);
+    }
+
+    // How far edge marks and strokes can reach past the line or shape they're on, in graph coordinates, with a pixel
+    // to spare for antialiasing.
+    private double pad() {
+        return ARROW_SIZE + STROKE_WIDTH + 1 / scale;
+    }
+
+    // Draws everything in view.
+    private void repaint() {
+        repaint(toGraphX(0), toGraphY(0), toGraphX(canvas.getWidth()), toGraphY(canvas.getHeight()));
+    }
+
+    // Draws again whatever lies in a region, given in graph coordinates, leaving the rest of the canvas as it is.
+    private void repaint(double minX, double minY, double maxX, double maxY) {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+
+        // The region is rounded out to whole pixels on the screen so that no partly drawn pixels are left at its edge.
+        double left = Math.max(0, Math.floor(minX * scale + translateX));
+        double top = Math.max(0, Math.floor(minY * scale + translateY));
+        double right = Math.min(canvas.getWidth(), Math.ceil(maxX * scale + translateX));
+        double bottom = Math.min(canvas.getHeight(), Math.ceil(maxY * scale + translateY));
+
+        if (right <= left || bottom <= top) {
+            return;
+        }
+
+        minX = toGraphX(left);
+        minY = toGraphY(top);
+        maxX = toGraphX(right);
+        maxY = toGraphY(bottom);
+
+        g.save();
+        g.beginPath();
+        g.rect(left, top, right - left, bottom - top);
+        g.clip();
+        g.clearRect(left, top, right - left, bottom - top);
+        g.setTransform(scale, 0, 0, scale, translateX, translateY);
+
+        boolean edgemarks = scale >= EDGEMARK_MIN_SCALE;
+
+        // Anything within a pixel of the region may have been drawn into it.
+        double pixel = 1 / scale;
+
+        // Lines are kept at least a pixel wide however far the graph is zoomed out.
+        g.setLineWidth(Math.max(1, pixel));
+
+        edgeGrid.query(minX - pixel, minY - pixel, maxX + pixel, maxY + pixel,
+                e -> drawEdge(g, edges.get(e), from[e], to[e], edgemarks));
+
+        // The nodes are drawn in order, so that the ones on top stay on top.
+        List<Integer> inRegion = new ArrayList<>();
+        nodeGrid.query(minX - pixel, minY - pixel, maxX + pixel, maxY + pixel, inRegion::add);
+        Collections.sort(inRegion);
+
+        boolean labels = scale >= LABEL_MIN_SCALE;
+        g.setFont(LABEL_FONT);
+        g.setTextAlign(TextAlignment.CENTER);
+        g.setTextBaseline(VPos.CENTER);
+
+        for (int i : inRegion) {
+            drawNode(g, i, labels);
+        }
+
+        g.restore();
+    }
+
+    private void drawNode(GraphicsContext g, int i, boolean label) {
+        double left = x[i] - halfWidth[i];
+        double top = y[i] - halfHeight[i];
+        double width = 2 * halfWidth[i];
+        double height = 2 * halfHeight[i];
+
+        g.setFill(selected.get(i) ? SELECTED_FILL_COLOR : NODE_FILL_COLOR);
+        g.setStroke(LINE_COLOR);
+        g.setLineWidth(Math.max(STROKE_WIDTH, 1 / scale));
+
+        if (ellipse[i]) {
+            g.fillOval(left, top, width, height);
+            g.strokeOval(left, top, width, height);
+        } else {
+            g.fillRect(left, top, width, height);
+            g.strokeRect(left, top, width, height);
+        }
+
+        if (label) {
+            g.setFill(Color.BLACK);
+            g.fillText(nodes.get(i).getName(), x[i], y[i]);
+        }
+    }
+
+    private void drawEdge(GraphicsContext g, Edge edge, int i, int j, boolean edgemarks) {
+        g.setStroke(LINE_COLOR);
+
+        // When the edge marks aren't drawn, the line can just go from center to center, since the nodes are drawn
+        // over it.
+        if (!edgemarks) {
+            g.strokeLine(x[i], y[i], x[j], y[j]);
+            return;
+        }
+
+        double[] start = findShapeIntersection(i, x[j], y[j]);
+        double[] end = findShapeIntersection(j, x[i], y[i]);
+        g.strokeLine(start[0], start[1], end[0], end[1]);
+
+        if (edge.getEndpoint1() == Endpoint.ARROW) {
+            drawArrowhead(g, end[0], end[1], start[0], start[1]);
+        } else if (edge.getEndpoint1() == Endpoint.CIRCLE) {
+            drawCircle(g, start[0], start[1], end[0], end[1]);
+        }
+
+        if (edge.getEndpoint2() == Endpoint.ARROW) {
+            drawArrowhead(g, start[0], start[1], end[0], end[1]);
+        } else if (edge.getEndpoint2() == Endpoint.CIRCLE) {
+            drawCircle(g, end[0], end[1], start[0], start[1]);
+        }
+    }
+
+    // Draws an arrowhead at the end of the line, as GraphView does.
+    private static void drawArrowhead(GraphicsContext g, double lineStartX, double lineStartY, double lineEndX,
+                                      double lineEndY) {
+        var angle = Math.atan2(lineStartY - lineEndY, lineStartX - lineEndX);
+
+        g.setFill(LINE_COLOR);
+        g.fillPolygon(
+                new double[]{lineEndX + ARROW_SIZE * Math.cos(angle - Math.PI / 6.), lineEndX,
+                        lineEndX + ARROW_SIZE * Math.cos(angle + Math.PI / 6.)},
+                new double[]{lineEndY + ARROW_SIZE * Math.sin(angle - Math.PI / 6.), lineEndY,
+                        lineEndY + ARROW_SIZE * Math.sin(angle + Math.PI / 6.)},
+                3);
+    }
+
+    // Draws a circle just inside the start of the line, as GraphView does.
+    private void drawCircle(GraphicsContext g, double startX, double startY, double endX, double endY) {
+        var length = Math.sqrt(Math.pow(endX - startX, 2) + Math.pow(endY - startY, 2));
+        var centerX = startX + CIRCLE_RADIUS * (endX - startX) / length;
+        var centerY = startY + CIRCLE_RADIUS * (endY - startY) / length;
+
+        g.setFill(Color.WHITE);
+        g.fillOval(centerX - CIRCLE_RADIUS, centerY - CIRCLE_RADIUS, 2 * CIRCLE_RADIUS, 2 * CIRCLE_RADIUS);
+        g.setStroke(NODE_EDGE_COLOR);
+        g.strokeOval(centerX - CIRCLE_RADIUS, centerY - CIRCLE_RADIUS, 2 * CIRCLE_RADIUS, 2 * CIRCLE_RADIUS);
+        g.setStroke(LINE_COLOR);
+    }
+
+    // Finds where a line from the center of a node toward a point leaves the node's shape.
+    private double[] findShapeIntersection(int i, double towardX, double towardY) {
+        return ellipse[i]
+                ? EdgeClipper.clipToEllipse(x[i], y[i], halfWidth[i], halfHeight[i], towardX, towardY)
+                : EdgeClipper.clipToRectangle(x[i], y[i], halfWidth[i], halfHeight[i], towardX, towardY);
+    }
+}
@@ -2,6 +2,9 @@ package io.github.cmuphil.tetradfx.ui;
 
 import edu.cmu.tetrad.graph.*;
 import io.github.cmuphil.tetradfx.utils.CenteredShape;
+import io.github.cmuphil.tetradfx.utils.EdgeClipper;
+import io.github.cmuphil.tetradfx.utils.GraphLayouts;
+import io.github.cmuphil.tetradfx.utils.PersistenceService;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
@@ -10,6 +13,7 @@ import javafx.scene.input.ZoomEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Line;
@@ -18,7 +22,10 @@ import javafx.scene.shape.Shape;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * <p>Displays a Tetrad graph in a ScrollPane with a Pane. The graph is laid out using a layout
@@ -32,21 +39,40 @@ import java.util.HashMap;
 public class GraphView extends Pane {
     private final HashMap<Node, DisplayNode> displayNodes;
     private final HashMap<Edge, DisplayEdge> displayEdges;
+
+    // The edges at each node, so that dragging a node only has to look at those.
+    private final HashMap<Node, List<Edge>> incidentEdges;
     private double offsetX1, offsetY1;
 
+    // Saves the layout when the nodes have been moved.
+    private final Runnable saveLayout;
+
     // These are some colors from the Swing Tetrad app, just pulled them over.
-    private static final Color NODE_FILL_COLOR = Color.rgb(148, 198, 226);
-    private static final Color NODE_EDGE_COLOR = Color.rgb(146, 154, 166);
-    private static final Color LINE_COLOR = Color.rgb(26, 113, 169);
+    static final Color NODE_FILL_COLOR = Color.rgb(148, 198, 226);
+    static final Color NODE_EDGE_COLOR = Color.rgb(146, 154, 166);
+    static final Color LINE_COLOR = Color.rgb(26, 113, 169);
+
+    /**
+     * Graphs with more than this many nodes are drawn on a canvas rather than with a scene graph node for each node
+     * and edge.
+     */
+    public static final int CANVAS_THRESHOLD = 500;
 
-    private GraphView(Graph graph) {
+    private GraphView(Graph graph, Runnable saveLayout) {
+        this.saveLayout = saveLayout;
         var content = new Pane();
 
         displayNodes = new HashMap<>();
         displayEdges = new HashMap<>();
+        incidentEdges = new HashMap<>();
+
+        for (Edge edge : graph.getEdges()) {
+            incidentEdges.computeIfAbsent(edge.getNode1(), k -> new ArrayList<>()).add(edge);
+            incidentEdges.computeIfAbsent(edge.getNode2(), k -> new ArrayList<>()).add(edge);
+        }
 
         for (Node node : graph.getNodes()) {
-            displayNodes.put(node, makeDisplayNode(node, graph));
+            displayNodes.put(node, makeDisplayNode(node));
         }
 
         for (Edge edge : graph.getEdges()) {
@@ -68,7 +94,15 @@ public class GraphView extends Pane {
 
         getChildren().add(content);
 
-        ContextMenu contextMenu = getContextMenu(content, graph);
+        ContextMenu contextMenu = getContextMenu(graph, () -> updatePositions(graph), saveLayout);
+
+        // Show context menu on right-click on the pane
+        content.setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.SECONDARY ||
+                    (event.getButton() == MouseButton.PRIMARY && event.isControlDown())) {
+                contextMenu.show(content, event.getScreenX(), event.getScreenY());
+            }
+        });
 
         // Show context menu on right-click on the label
         content.setOnMousePressed(event -> {
@@ -80,11 +114,72 @@ public class GraphView extends Pane {
     }
 
     /**
-     * Static method to get a ScrollPane with a graph display.
+     * Saves the layout of a graph shown in a project to its layout file, through the PersistenceService, until the
+     * graph's tab is closed or its project is deleted. A layout finished after that--by a force layout that was still
+     * running, say--isn't saved, so that the layout file isn't brought back once it has been deleted. This is only
+     * used on the FX thread.
+     */
+    public static final class LayoutSaver implements Runnable {
+        private final Graph graph;
+        private final File file;
+        private boolean stopped;
+
+        /**
+         * Creates a saver for the layout of a graph.
+         *
+         * @param graph The graph.
+         * @param file  The layout file (see GraphLayouts).
+         */
+        public LayoutSaver(Graph graph, File file) {
+            this.graph = graph;
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            if (!stopped && file.getParentFile().isDirectory()) {
+                PersistenceService.getInstance().write(file, GraphLayouts.format(graph));
+            }
+        }
+
+        /**
+         * Stops saving the layout, for good. This is called when the graph is removed.
+         */
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Static method to get a graph display. Graphs with more than CANVAS_THRESHOLD nodes are drawn on a canvas
+     * (see GraphCanvasView); smaller graphs are shown in a ScrollPane.
      * @param graph The graph to display.
-     * @return A ScrollPane with the graph display.
+     * @return The graph display.
      */
-    public static ScrollPane getGraphDisplay(Graph graph) {
+    public static Region getGraphDisplay(Graph graph) {
+        return getGraphDisplay(graph, null);
+    }
+
+    /**
+     * Static method to get a graph display for a graph whose layout is kept in a file. If the file has a layout for
+     * the graph, the graph is shown with it; if not, the graph is laid out in a circle and the layout is saved.
+     * Whenever the graph is laid out again or its nodes are moved, the layout is saved again.
+     * @param graph       The graph to display.
+     * @param layoutSaver Saves the layout to its file, or null if the layout isn't kept.
+     * @return The graph display.
+     */
+    public static Region getGraphDisplay(Graph graph, LayoutSaver layoutSaver) {
+        Runnable saveLayout = layoutSaver == null ? () -> {} : layoutSaver;
+
+        if (layoutSaver == null || !GraphLayouts.read(graph, layoutSaver.file)) {
+            LayoutUtil.circleLayout(graph);
+            saveLayout.run();
+        }
+
+        if (graph.getNumNodes() > CANVAS_THRESHOLD) {
+            return new GraphCanvasView(graph, saveLayout);
+        }
+
         var markdownArea = new TextArea();
         markdownArea.setPromptText("Notes:");
 
@@ -95,8 +190,7 @@ public class GraphView extends Pane {
 
         var pane = new SplitPane();
 
-        LayoutUtil.circleLayout(graph);
-        Pane graphView = new GraphView(graph);
+        Pane graphView = new GraphView(graph, saveLayout);
 
         var scrollPane = new ScrollPane();
         scrollPane.setContent(graphView);
@@ -143,22 +237,55 @@ public class GraphView extends Pane {
         Session.getInstance().getSelectedProject().addGame(name, vBox, true);
     }
 
-    private ContextMenu getContextMenu(Pane pane, Graph graph) {
+    /**
+     * Makes the context menu for a graph display, with the layouts, the transforms of the graph and the games. This
+     * is shared by GraphView and GraphCanvasView.
+     *
+     * @param graph        The graph.
+     * @param onLayout     Called after the graph has been laid out again, to move the nodes on the screen. (The force
+     *                     layout calls this as it goes.)
+     * @param onLayoutDone Called when a layout is finished, to save it.
+     * @return The context menu.
+     */
+    static ContextMenu getContextMenu(Graph graph, Runnable onLayout, Runnable onLayoutDone) {
         var contextMenu = new ContextMenu();
 
         var layout = new Menu("Layout");
 
         var item1 = new MenuItem("Circle");
-        item1.setOnAction(e -> layout(graph, 1));
+        item1.setOnAction(e -> {
+            layout(graph, 1);
+            onLayout.run();
+            onLayoutDone.run();
+        });
 
         var item2 = new MenuItem("Square");
-        item2.setOnAction(e -> layout(graph, 2));
+        item2.setOnAction(e -> {
+            layout(graph, 2);
+            onLayout.run();
+            onLayoutDone.run();
+        });
+
+        // The force layout can take a while on large graphs, so it runs in the background, showing the layout as it
+        // goes. Starting it again stops the one that's running.
+        ForceLayoutJob[] forceLayout = new ForceLayoutJob[1];
 
         var item3 = new MenuItem("Force");
-        item3.setOnAction(e -> layout(graph, 3));
+        item3.setOnAction(e -> {
+            if (forceLayout[0] != null) {
+                forceLayout[0].cancel(true);
+            }
+
+            forceLayout[0] = new ForceLayoutJob(graph, onLayout, onLayoutDone);
+            JobManager.getInstance().submit(forceLayout[0]);
+        });
 
         var item4 = new MenuItem("Causal Order");
-        item4.setOnAction(e -> layout(graph, 4));
+        item4.setOnAction(e -> {
+            layout(graph, 4);
+            onLayout.run();
+            onLayoutDone.run();
+        });
 
         layout.getItems().addAll(item1, item2, item3, item4);
         contextMenu.getItems().addAll(layout);
@@ -200,26 +327,20 @@ public class GraphView extends Pane {
         games.setOnAction(e -> Games.baseGamesOnGraph(graph));
         contextMenu.getItems().add(games);
 
-        // Show context menu on right-click on the pane
-        pane.setOnMouseClicked(event -> {
-            if (event.getButton() == MouseButton.SECONDARY ||
-                    (event.getButton() == MouseButton.PRIMARY && event.isControlDown())) {
-                contextMenu.show(pane, event.getScreenX(), event.getScreenY());
-            }
-        });
-
         return contextMenu;
     }
 
-    private void layout(Graph graph, int layoutType) {
+    private static void layout(Graph graph, int layoutType) {
         switch (layoutType) {
             case 1 -> LayoutUtil.circleLayout(graph);
             case 2 -> LayoutUtil.squareLayout(graph);
-            case 3 -> LayoutUtil.fruchtermanReingoldLayout(graph);
             case 4 -> LayoutUtil.layoutByCausalOrder(graph);
             default -> throw new IllegalArgumentException("That layout type is not configured: " + layoutType);
         }
+    }
 
+    // Moves the nodes and edges to where the graph's layout puts them.
+    private void updatePositions(Graph graph) {
         for (var node : graph.getNodes()) {
             double newX = node.getCenterX();
             double newY = node.getCenterY();
@@ -231,19 +352,19 @@ public class GraphView extends Pane {
             ((CenteredShape) shape).setCenterY(newY);
             text.setX(newX - text.getLayoutBounds().getWidth() / 2);
             text.setY(newY + text.getLayoutBounds().getHeight() / 4);
+        }
 
-            for (var edge : graph.getEdges(node)) {
-                var n1 = edge.getNode1();
-                var n2 = edge.getNode2();
+        // The edges are updated once each, after all the nodes have moved.
+        for (var entry : displayEdges.entrySet()) {
+            var edge = entry.getKey();
+            var displayEdge = entry.getValue();
 
-                updateLineAndArrow(edge, displayEdges.get(edge).getLine(),
-                        displayEdges.get(edge).getEdgemark1(), displayEdges.get(edge).getEdgemark2(),
-                        displayNodes.get(n1).getShape(), displayNodes.get(n2).getShape());
-            }
+            updateLineAndArrow(edge, displayEdge.getLine(), displayEdge.getEdgemark1(), displayEdge.getEdgemark2(),
+                    displayNodes.get(edge.getNode1()).getShape(), displayNodes.get(edge.getNode2()).getShape());
         }
     }
 
-    private DisplayNode makeDisplayNode(Node node, Graph graph) {
+    private DisplayNode makeDisplayNode(Node node) {
         var name = node.getName();
         var text = new Text(name);
         text.setFont(Font.font(20));
@@ -269,7 +390,7 @@ public class GraphView extends Pane {
             text.setX(newX - text.getLayoutBounds().getWidth() / 2);
             text.setY(newY + text.getLayoutBounds().getHeight() / 4);
 
-            for (Edge edge : graph.getEdges(node)) {
+            for (Edge edge : incidentEdges.getOrDefault(node, List.of())) {
                 Node n1 = edge.getNode1();
                 Node n2 = edge.getNode2();
 
@@ -279,6 +400,20 @@ public class GraphView extends Pane {
             }
         });
 
+        // When a node has been dragged, its new center is put in the graph, and the layout is saved. A click that
+        // didn't move it saves nothing.
+        shape.setOnMouseReleased(event -> {
+            int centerX = (int) Math.round(((CenteredShape) shape).getCenterX());
+            int centerY = (int) Math.round(((CenteredShape) shape).getCenterY());
+
+            if (centerX != node.getCenterX() || centerY != node.getCenterY()) {
+                node.setCenter(centerX, centerY);
+                saveLayout.run();
+            }
+        });
+
+        text.setOnMouseReleased(shape.getOnMouseReleased());
+
         text.setOnMousePressed(event -> {
             offsetX1 = event.getSceneX() - ((CenteredShape) shape).getCenterX();
             offsetY1 = event.getSceneY() - ((CenteredShape) shape).getCenterY();
@@ -292,7 +427,7 @@ public class GraphView extends Pane {
             text.setX(newX - text.getLayoutBounds().getWidth() / 2);
             text.setY(newY + text.getLayoutBounds().getHeight() / 4);
 
-            for (Edge edge : graph.getEdges(node)) {
+            for (Edge edge : incidentEdges.getOrDefault(node, List.of())) {
                 Node n1 = edge.getNode1();
                 Node n2 = edge.getNode2();
 
@@ -336,9 +471,6 @@ public class GraphView extends Pane {
         line.setEndX(endIntersection[0]);
         line.setEndY(endIntersection[1]);
 
-        edgemark1.getPoints().clear();
-        edgemark2.getPoints().clear();
-
         double lineStartX = line.getStartX();
         double lineStartY = line.getStartY();
         double lineEndX = line.getEndX();
@@ -348,12 +480,16 @@ public class GraphView extends Pane {
             createArrowhead(edgemark1, lineEndX, lineEndY, lineStartX, lineStartY);
         } else if (edge.getEndpoint1() == Endpoint.CIRCLE) {
             createCircle(edgemark1, lineStartX, lineStartY, lineEndX, lineEndY);
+        } else {
+            edgemark1.getPoints().clear();
         }
 
         if (edge.getEndpoint2() == Endpoint.ARROW) {
             createArrowhead(edgemark2, lineStartX, lineStartY, lineEndX, lineEndY);
         } else if (edge.getEndpoint2() == Endpoint.CIRCLE) {
             createCircle(edgemark2, lineEndX, lineEndY, lineStartX, lineStartY);
+        } else {
+            edgemark2.getPoints().clear();
         }
     }
 
@@ -364,7 +500,7 @@ public class GraphView extends Pane {
         var angle = Math.atan2(lineStartY - lineEndY, lineStartX - lineEndX);
         var arrowSize = 10;
 
-        edgemark.getPoints().addAll(
+        edgemark.getPoints().setAll(
                 lineEndX + arrowSize * Math.cos(angle - Math.PI / 6.),
                 lineEndY + arrowSize * Math.sin(angle - Math.PI / 6.),
                 lineEndX,
@@ -391,42 +527,33 @@ public class GraphView extends Pane {
         var centerY = starty + radius * (endY - starty) / sqrt;
 
         final var ANGLE_STEP = 360.0 / sides;
+        var points = new Double[2 * sides];
 
         for (int i = 0; i < sides; i++) {
             var angle = i * ANGLE_STEP;
-            var x = centerX + radius * Math.cos(Math.toRadians(angle));
-            var y = centerY + radius * Math.sin(Math.toRadians(angle));
-            edgemark.getPoints().addAll(x, y);
+            points[2 * i] = centerX + radius * Math.cos(Math.toRadians(angle));
+            points[2 * i + 1] = centerY + radius * Math.sin(Math.toRadians(angle));
         }
 
+        // The points are set all at once, so the polygon is only updated once.
+        edgemark.getPoints().setAll(points);
+
         edgemark.setFill(Color.WHITE);
         edgemark.setStroke(NODE_EDGE_COLOR);
         edgemark.setStrokeWidth(2);
     }
 
-    // Use binary search to find the intersection of a line with a Shape to a center point.
-    // Works for arbitrary Shapes.
-    private double[] findShapeIntersection(Shape Shape, double startX, double startY, double endX,
-                                           double endY) {
-        double[] intersection = new double[2];
-
-        int iterations = 15;
-        for (int i = 0; i < iterations; i++) {
-            var midX = (startX + endX) / 2;
-            var midY = (startY + endY) / 2;
-
-            if (Shape.contains(midX, midY)) {
-                startX = midX;
-                startY = midY;
-            } else {
-                intersection[0] = midX;
-                intersection[1] = midY;
-                endX = midX;
-                endY = midY;
-            }
+    // Finds where a line from the center of a node's shape toward a point leaves the shape.
+    private static double[] findShapeIntersection(Shape shape, double startX, double startY, double endX,
+                                                  double endY) {
+        if (shape instanceof Ellipse ellipse) {
+            return EdgeClipper.clipToEllipse(startX, startY, ellipse.getRadiusX(), ellipse.getRadiusY(), endX, endY);
+        } else if (shape instanceof Rectangle rectangle) {
+            return EdgeClipper.clipToRectangle(startX, startY, rectangle.getWidth() / 2, rectangle.getHeight() / 2,
+                    endX, endY);
+        } else {
+            throw new IllegalArgumentException("That shape is not configured: " + shape.getClass());
         }
-
-        return intersection;
     }
 
     // Represents a node in the graph display.
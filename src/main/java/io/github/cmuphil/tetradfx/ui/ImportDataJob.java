@@ -0,0 +1,170 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import edu.cmu.tetrad.data.DataSet;
+import edu.pitt.dbmi.data.reader.Delimiter;
+import io.github.cmuphil.tetradfx.utils.ColumnarData;
+import io.github.cmuphil.tetradfx.utils.ParallelDataLoader;
+import io.github.cmuphil.tetradfx.utils.Utils;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CancellationException;
+
+/**
+ * <p>Loads a data file in the background and, when it has been read, adds it to the session as a
+ * new project, on the FX thread. Until then the user can go on working, and can cancel the load
+ * from the status bar, in which case nothing is added.</p>
+ *
+ * <p>The file is read by ParallelDataLoader, which parses it in parallel and reports how many bytes
+ * and rows it has parsed so far. The data are then written in the columnar format here, in the
+ * background, to a temporary file in the session directory, which is moved into the new project's
+ * data directory when the project is added, so the project doesn't write them again on the FX
+ * thread. If the job is cancelled or fails, the temporary file is deleted.</p>
+ *
+ * @author josephramsey
+ */
+public class ImportDataJob extends Task<DataSet> {
+    private final File file;
+    private final ParallelDataLoader.DataType dataType;
+    private final int maxNumCategories;
+    private final boolean hasHeader;
+    private final Delimiter delimiter;
+    private final File sessionDir;
+
+    // The data written in the columnar format, to be moved into the project's data directory.
+    private volatile File staged;
+
+    // Set once call() has finished with the data written. If the job is cancelled after that, the file is deleted in
+    // cancelled(); before that, call() deletes it itself, once it is no longer being written.
+    private final Object finishLock = new Object();
+    private boolean finished;
+
+    /**
+     * Creates a job to load a data file.
+     *
+     * @param file             The file.
+     * @param dataType         Whether to read the data as continuous, discrete or mixed.
+     * @param maxNumCategories For mixed data, the most distinct values a column can have and still be read as
+     *                         discrete.
+     * @param hasHeader        Whether the first row contains the variable names.
+     * @param delimiter        The delimiter between values.
+     */
+    public ImportDataJob(File file, ParallelDataLoader.DataType dataType, int maxNumCategories, boolean hasHeader,
+                         Delimiter delimiter) {
+        this.file = file;
+        this.dataType = dataType;
+        this.maxNumCategories = maxNumCategories;
+        this.hasHeader = hasHeader;
+        this.delimiter = delimiter;
+        this.sessionDir = Session.getInstance().getSessionDir();
+
+        updateTitle("Loading " + file.getName());
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    @Override
+    protected DataSet call() throws IOException {
+        DataSet dataSet = ParallelDataLoader.load(file, "//", '\"', "*", hasHeader, delimiter, dataType,
+                maxNumCategories, new ParallelDataLoader.Progress() {
+                    @Override
+                    public void update(String message, long done, long total) {
+                        updateMessage(message);
+                        updateProgress(done, total);
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return ImportDataJob.this.isCancelled();
+                    }
+                });
+
+        if (dataSet == null) {
+            throw new IOException("No data were read from " + file.getName() + ".");
+        }
+
+        updateMessage(String.format("Parsed %,d rows; writing them", dataSet.getNumRows()));
+        updateProgress(-1, 1);
+
+        // The name ends in .tmp, so the file isn't saved with the session while it is here.
+        staged = File.createTempFile("import-", ".tmp", sessionDir);
+
+        try {
+            ColumnarData.write(dataSet, staged);
+
+            synchronized (finishLock) {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                finished = true;
+            }
+        } catch (IOException | RuntimeException e) {
+            discard();
+            throw e;
+        }
+
+        updateMessage(String.format("Parsed %,d rows", dataSet.getNumRows()));
+        updateProgress(1, 1);
+        return dataSet;
+    }
+
+    @Override
+    protected void succeeded() {
+        DataSet dataSet = getValue();
+        Project project = Session.getInstance().add(null, null, Utils.nextName(file.getName(),
+                Session.getInstance().getProjectNames()), null, null);
+        File dataFile = new File(project.getDataDir(), "Data" + ColumnarData.EXTENSION);
+
+        // Moving the file is a rename, since it is on the same disk. Should it fail, the project writes the data itself.
+        boolean moved;
+
+        try {
+            Files.move(staged.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } catch (IOException e) {
+            System.out.println("Could not move the imported data into place: " + e.getMessage());
+            discard();
+            moved = false;
+        }
+
+        project.addDataSet("Data", dataSet, false, !moved);
+    }
+
+    @Override
+    protected void cancelled() {
+        synchronized (finishLock) {
+            if (!finished) {
+                return;
+            }
+        }
+
+        discard();
+    }
+
+    @Override
+    protected void failed() {
+        Throwable e = getException();
+        e.printStackTrace();
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("Error loading " + dataType.name().toLowerCase() + " data.");
+        alert.setContentText(e.getMessage());
+        alert.showAndWait();
+    }
+
+    // Deletes the data written in the columnar format, if there are any.
+    private void discard() {
+        File staged = this.staged;
+
+        if (staged != null && staged.exists() && !staged.delete()) {
+            System.out.println("Could not delete " + staged);
+        }
+    }
+}
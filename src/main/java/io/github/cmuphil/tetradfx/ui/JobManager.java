@@ -0,0 +1,216 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * <p>Runs long-running jobs, like searches, off the JavaFX application thread. Jobs are queued and
+ * run on a bounded pool of worker threads, so that several can run at once without swamping the
+ * machine or freezing the window.</p>
+ *
+ * <p>Jobs that mostly read and write files, like loading projects, go through submitIO() instead,
+ * which runs them on a separate small pool so that they don't wait behind long searches.</p>
+ *
+ * <p>Each job is a JavaFX Task, so progress, messages and cancellation are available for every job,
+ * and the task's succeeded() and failed() methods are called back on the FX thread. The status bar
+ * returned by getStatusBar() shows each running or queued job with a cancel button.</p>
+ *
+ * <p>A cancelled job may go on running until it next checks whether it has been cancelled, so
+ * anything that must not overlap with the jobs--like deleting the session directory to load
+ * another session--cancels them with cancelAll() and then waits for them with awaitStopped().</p>
+ *
+ * @author josephramsey
+ */
+public class JobManager {
+    private static final JobManager INSTANCE = new JobManager();
+
+    // The number of jobs that may wait in the queue before we refuse new ones.
+    private static final int MAX_QUEUED_JOBS = 32;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor ioExecutor;
+    private final ObservableList<Task<?>> jobs = FXCollections.observableArrayList();
+
+    // The jobs being run by a worker thread right now, whether or not they have been cancelled. Waited on by
+    // awaitStopped().
+    private final Set<Runnable> running = new HashSet<>();
+    private final HBox statusBar = new HBox(10);
+
+    private JobManager() {
+        int numThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        this.executor = newExecutor(numThreads, "tetrad-fx-job-");
+        this.ioExecutor = newExecutor(2, "tetrad-fx-io-");
+
+        statusBar.setPadding(new Insets(2, 5, 2, 5));
+        statusBar.setAlignment(Pos.CENTER_LEFT);
+        statusBar.managedProperty().bind(statusBar.visibleProperty());
+        statusBar.setVisible(false);
+
+        jobs.addListener((ListChangeListener<Task<?>>) change -> updateStatusBar());
+    }
+
+    /**
+     * @return The singleton instance of this class.
+     */
+    public static JobManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Submits a job to be run in the background. This should be called from the FX thread. If the queue is full, the
+     * user is told so and the job is not run.
+     *
+     * @param task The job to run.
+     */
+    public void submit(Task<?> task) {
+        submit(task, executor);
+    }
+
+    /**
+     * Submits a job that mostly reads or writes files to be run in the background. These run on their own pool, so
+     * they don't wait behind searches. This should be called from the FX thread.
+     *
+     * @param task The job to run.
+     */
+    public void submitIO(Task<?> task) {
+        submit(task, ioExecutor);
+    }
+
+    private void submit(Task<?> task, ThreadPoolExecutor executor) {
+        task.stateProperty().addListener((observable, oldState, newState) -> {
+            if (newState == Worker.State.SUCCEEDED || newState == Worker.State.FAILED
+                    || newState == Worker.State.CANCELLED) {
+                jobs.remove(task);
+                executor.remove(task);
+            }
+        });
+
+        try {
+            executor.execute(task);
+            jobs.add(task);
+        } catch (RejectedExecutionException e) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error Dialog");
+            alert.setHeaderText(null);
+            alert.setContentText("There are too many jobs waiting to run; please wait for some to finish or "
+                    + "cancel some.");
+            alert.showAndWait();
+        }
+    }
+
+    private ThreadPoolExecutor newExecutor(int numThreads, String namePrefix) {
+        AtomicInteger count = new AtomicInteger();
+
+        return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED_JOBS), r -> {
+            Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                synchronized (running) {
+                    running.add(task);
+                }
+            }
+
+            @Override
+            protected void afterExecute(Runnable task, Throwable throwable) {
+                synchronized (running) {
+                    running.remove(task);
+                    running.notifyAll();
+                }
+            }
+        };
+    }
+
+    /**
+     * Cancels every job that is running or waiting to run, except those that should be let finish, and returns all
+     * of them, so that awaitStopped() can wait for them. This should be called from the FX thread.
+     *
+     * @param letFinish Whether a job should be let finish rather than be cancelled.
+     * @return The jobs, cancelled or not.
+     */
+    public List<Task<?>> cancelAll(Predicate<Task<?>> letFinish) {
+        List<Task<?>> stopping = new ArrayList<>(jobs);
+
+        for (Task<?> job : stopping) {
+            if (!letFinish.test(job)) {
+                job.cancel(true);
+            }
+        }
+
+        return stopping;
+    }
+
+    /**
+     * Waits until none of the given jobs is running or waiting to run, including jobs that have been cancelled but
+     * haven't noticed yet. This should not be called from the FX thread, since a job may need the FX thread to finish.
+     *
+     * @param tasks The jobs.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public void awaitStopped(Collection<Task<?>> tasks) throws InterruptedException {
+        synchronized (running) {
+            while (tasks.stream().anyMatch(task -> !task.isDone() || running.contains(task))) {
+                running.wait();
+            }
+        }
+    }
+
+    /**
+     * Returns the jobs that are currently running or waiting to run.
+     *
+     * @return The jobs.
+     */
+    public ObservableList<Task<?>> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Returns a status bar showing the running and queued jobs, with a progress bar and cancel button for each. The
+     * status bar is hidden when there are no jobs.
+     *
+     * @return The status bar.
+     */
+    public HBox getStatusBar() {
+        return statusBar;
+    }
+
+    private void updateStatusBar() {
+        statusBar.getChildren().clear();
+
+        for (Task<?> job : jobs) {
+            Label title = new Label();
+            title.textProperty().bind(job.titleProperty().concat(": ").concat(job.messageProperty()));
+
+            ProgressBar progressBar = new ProgressBar();
+            progressBar.setPrefWidth(100);
+            progressBar.progressProperty().bind(job.progressProperty());
+
+            Button cancel = new Button("Cancel");
+            cancel.setOnAction(e -> job.cancel(true));
+
+            HBox box = new HBox(5, title, progressBar, cancel);
+            box.setAlignment(Pos.CENTER_LEFT);
+            statusBar.getChildren().add(box);
+        }
+
+        statusBar.setVisible(!jobs.isEmpty());
+    }
+}
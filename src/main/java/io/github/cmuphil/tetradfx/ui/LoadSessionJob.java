@@ -0,0 +1,143 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import io.github.cmuphil.tetradfx.utils.PendingArchive;
+import io.github.cmuphil.tetradfx.utils.PersistenceService;
+import io.github.cmuphil.tetradfx.utils.SessionArchive;
+import io.github.cmuphil.tetradfx.utils.Utils;
+import javafx.concurrent.Task;
+import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.stage.Stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Loads a session (.tfx) file in place of the session being worked on. The old session's jobs
+ * have been cancelled by the time this runs--apart from saves, which are let finish--and the
+ * session directory is only deleted once every one of them has stopped, so that none of them
+ * writes into the new session's directories or fails halfway through. Then the file is recovered,
+ * if a save to it was cut short, and what is needed to show the session is extracted; the rest is
+ * extracted as the projects are opened, or in the background.</p>
+ *
+ * <p>The window is disabled while this runs, so that nothing more is started in the old session.
+ * If loading fails before the old session directory is deleted, the old session is given back; if
+ * it fails after, a new session is started.</p>
+ *
+ * @author josephramsey
+ */
+public class LoadSessionJob extends Task<Void> {
+    private final File archive;
+    private final File sessionDir;
+    private final List<Task<?>> stopping;
+    private final PendingArchive pendingArchive;
+    private final Stage primaryStage;
+
+    // Set once the old session directory starts to be deleted, after which the old session can't be given back.
+    private volatile boolean deleting;
+
+    /**
+     * Creates a job to load a session.
+     *
+     * @param archive        The session file.
+     * @param sessionDir     The session directory, which is replaced.
+     * @param stopping       The old session's jobs, which have been cancelled or are being let finish.
+     * @param pendingArchive The session file the old session was loaded from, if some of it has yet to be
+     *                       extracted, or null.
+     * @param primaryStage   The primary stage, which shows the new session when it is loaded.
+     */
+    public LoadSessionJob(File archive, File sessionDir, List<Task<?>> stopping, PendingArchive pendingArchive,
+                          Stage primaryStage) {
+        this.archive = archive;
+        this.sessionDir = sessionDir;
+        this.stopping = new ArrayList<>(stopping);
+        this.pendingArchive = pendingArchive;
+        this.primaryStage = primaryStage;
+
+        updateTitle("Loading " + archive.getName());
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    @Override
+    protected Void call() throws IOException, InterruptedException {
+        updateMessage("Waiting for the jobs of the old session to stop");
+        updateProgress(-1, 1);
+        JobManager.getInstance().awaitStopped(stopping);
+
+        // Stop extracting the old session before its directory is deleted. (A save let finish needed it extracted.)
+        if (pendingArchive != null) {
+            for (String name : pendingArchive.getPending()) {
+                pendingArchive.discard(name);
+            }
+
+            pendingArchive.close();
+        }
+
+        updateMessage("Deleting the old session");
+        deleting = true;
+        PersistenceService.getInstance().discard(sessionDir, "");
+        Utils.deleteDirectory(sessionDir.toPath());
+
+        if (!sessionDir.mkdir()) {
+            throw new IOException("Could not create directory: " + sessionDir.getAbsolutePath());
+        }
+
+        // A save that was cut short is undone, so that the file holds the last complete save. If the file is being
+        // saved to now, this waits for that save to finish rather than cutting it off.
+        updateMessage("Reading " + archive.getName());
+
+        if (SessionArchive.recover(archive)) {
+            System.out.println("Recovered the last complete save of " + archive);
+        }
+
+        // Only what's needed to show the session is extracted now; the projects are extracted as they are opened,
+        // and the rest in the background.
+        PendingArchive.start(archive, sessionDir);
+
+        updateMessage("Done");
+        updateProgress(1, 1);
+        return null;
+    }
+
+    @Override
+    protected void succeeded() {
+        showNewSession();
+    }
+
+    @Override
+    protected void cancelled() {
+        giveBack();
+    }
+
+    @Override
+    protected void failed() {
+        Throwable e = getException();
+        e.printStackTrace();
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error Dialog");
+        alert.setHeaderText(null);
+        alert.setContentText("The session could not be loaded from " + archive.getName() + ": " + e.getMessage());
+        alert.showAndWait();
+
+        giveBack();
+    }
+
+    // Gives back the old session if it is still there, and starts a new one if not.
+    private void giveBack() {
+        if (deleting) {
+            showNewSession();
+        } else {
+            primaryStage.getScene().getRoot().setDisable(false);
+        }
+    }
+
+    private void showNewSession() {
+        Session.newInstance();
+        Scene scene = new Scene(TetradFxMain.getInstance().getRoot(primaryStage));
+        primaryStage.setScene(scene);
+    }
+}
@@ -10,17 +10,23 @@ import edu.cmu.tetrad.algcomparison.utils.TakesIndependenceWrapper;
 import edu.cmu.tetrad.algcomparison.utils.UsesScoreWrapper;
 import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.DataTransforms;
+import edu.cmu.tetrad.data.DataWriter;
 import edu.cmu.tetrad.data.Knowledge;
-import edu.cmu.tetrad.graph.Graph;
-import edu.cmu.tetrad.util.Parameters;
 import edu.cmu.tetrad.util.RandomUtil;
+import io.github.cmuphil.tetradfx.utils.ColumnStatistics;
+import io.github.cmuphil.tetradfx.utils.ParameterStore;
+import io.github.cmuphil.tetradfx.utils.StatisticsCache;
 import io.github.cmuphil.tetradfx.utils.Utils;
 import javafx.scene.control.*;
 import javafx.scene.input.MouseButton;
+import javafx.stage.FileChooser;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
  * Some menu item builders.
@@ -33,10 +39,11 @@ public class MenuItems {
      * Creates a list of menu items for the algorithms, searching from the data in the currently
      * selected dataset. Note that is important here that the dataset be found on the fly, since
      * the user may have changed the selected dataset since the last time the menu was opened.
+     * @param parameterStore The store of the session's parameters, which are edited before each search.
      * @return a list of menu items for the algorithms, searching from the data in the currently
      * selected dataset.
      */
-    public static List<MenuItem> searchFromDataMenuItems(Parameters parameters, File sessionDir) {
+    public static List<MenuItem> searchFromDataMenuItems(ParameterStore parameterStore) {
         List<Class> algorithms = new ArrayList<>();
 
         // TODO: Add more algorithms here.
@@ -66,19 +73,20 @@ public class MenuItems {
                 // This is currently guaranteed ot be non-null; if at some point is it not, best to display
                 // an Alert and return.
                 DataSet dataSet = Selected.getSelectedData();
+                StatisticsCache statistics = Session.getInstance().getSelectedProject().getStatisticsCache();
 
                 Algorithm algorithm;
 
                 try {
                     if (UsesScoreWrapper.class.isAssignableFrom(algorithmClass) && (TakesIndependenceWrapper.class.isAssignableFrom(algorithmClass))) {
-                        IndependenceWrapper test = DataView.getTest(dataSet);
-                        ScoreWrapper score = DataView.getScore(dataSet);
+                        IndependenceWrapper test = DataView.getTest(dataSet, statistics);
+                        ScoreWrapper score = DataView.getScore(dataSet, statistics);
                         algorithm = (Algorithm) algorithmClass.getConstructor(IndependenceWrapper.class, ScoreWrapper.class).newInstance(test, score);
                     } else if (UsesScoreWrapper.class.isAssignableFrom(algorithmClass)) {
-                        ScoreWrapper score = DataView.getScore(dataSet);
+                        ScoreWrapper score = DataView.getScore(dataSet, statistics);
                         algorithm = (Algorithm) algorithmClass.getConstructor(ScoreWrapper.class).newInstance(score);
                     } else if (TakesIndependenceWrapper.class.isAssignableFrom(algorithmClass)) {
-                        IndependenceWrapper test = DataView.getTest(dataSet);
+                        IndependenceWrapper test = DataView.getTest(dataSet, statistics);
                         algorithm = (Algorithm) algorithmClass.getConstructor(IndependenceWrapper.class).newInstance(test);
                     } else {
                         algorithm = (Algorithm) algorithmClass.getConstructor().newInstance();
@@ -102,20 +110,29 @@ public class MenuItems {
                     myParams.addAll(((UsesScoreWrapper) algorithm).getScoreWrapper().getParameters());
                 }
 
-                new ParameterDialog(parameters, myParams, sessionDir).showDialog();
+                new ParameterDialog(parameterStore, myParams).showDialog();
 
-                if (algorithm instanceof HasKnowledge && parameters.getBoolean("useKnowledge", false)) {
-                    Knowledge knowledge = Session.getInstance().getSelectedProject().getSelectedKnowledge();
+                // The search runs with the parameters as they are now, whatever edits are made while it runs.
+                ParameterStore.Snapshot parameters = parameterStore.snapshot();
+
+                Knowledge knowledge = null;
+
+                if (algorithm instanceof HasKnowledge && parameters.parameters().getBoolean("useKnowledge", false)) {
+                    knowledge = Session.getInstance().getSelectedProject().getSelectedKnowledge();
 
                     if (knowledge != null) {
+
+                        // The knowledge editor may change this while the search runs, so take a copy.
+                        knowledge = knowledge.copy();
                         ((HasKnowledge) algorithm).setKnowledge(knowledge);
                     }
                 }
 
-                Graph graph = algorithm.search(dataSet, parameters);
+                // Run the search in the background so the window stays responsive; the result is added to
+                // the project the search was started from when it's done.
                 Project selected = Session.getInstance().getSelectedProject();
-                selected.addSearchResult(algorithm.getClass().getSimpleName(),
-                        graph, true, parameters, myParams);
+                JobManager.getInstance().submit(new SearchJob(algorithm, dataSet, parameters, myParams, knowledge,
+                        selected, Session.getInstance().getSearchCache()));
             });
 
             items.add(item);
@@ -124,7 +141,7 @@ public class MenuItems {
         return items;
     }
 
-    public static ContextMenu getDataContextMenu(TableView<DataView.DataRow> dataTable, DataSet dataSet) {
+    public static ContextMenu getDataContextMenu(TableView<Integer> dataTable, DataSet dataSet) {
         var contextMenu = new ContextMenu();
 
         if (dataSet == null) {
@@ -141,18 +158,26 @@ public class MenuItems {
         var transformData = new Menu("Transform Data");
         contextMenu.getItems().add(transformData);
 
+        var exportAsText = new MenuItem("Export as Text...");
+        exportAsText.setOnAction(e -> exportAsText(dataTable, dataSet));
+        contextMenu.getItems().add(exportAsText);
+
         if (dataSet.isContinuous()) {
             var center = new MenuItem("Center");
             center.setOnAction(e -> {
                 DataSet filtered = DataTransforms.center(dataSet);
-                Session.getInstance().getSelectedProject().addDataSet("Center", filtered, true);
+                Project project = Session.getInstance().getSelectedProject();
+                project.addDataSet("Center", filtered, true);
+                deriveSummaries(project.getStatisticsCache(), dataSet, filtered, ColumnStatistics::centered);
             });
             transformData.getItems().add(center);
 
             var standardize = new MenuItem("Standardize");
             standardize.setOnAction(e -> {
                 DataSet filtered = DataTransforms.standardizeData(dataSet);
-                Session.getInstance().getSelectedProject().addDataSet("Standardize", filtered, true);
+                Project project = Session.getInstance().getSelectedProject();
+                project.addDataSet("Standardize", filtered, true);
+                deriveSummaries(project.getStatisticsCache(), dataSet, filtered, ColumnStatistics::standardized);
             });
             transformData.getItems().add(standardize);
 
@@ -224,6 +249,57 @@ public class MenuItems {
         return contextMenu;
     }
 
+    /**
+     * Lets the user save a dataset as a tab-delimited text file. (Projects store their datasets in a binary format.)
+     *
+     * @param owner   The node the file chooser is shown over.
+     * @param dataSet The dataset.
+     */
+    private static void exportAsText(javafx.scene.Node owner, DataSet dataSet) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Export Data as Text");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text Files", "*.txt"));
+        File file = fileChooser.showSaveDialog(owner.getScene().getWindow());
+
+        if (file == null) {
+            return;
+        }
+
+        try (PrintWriter writer = new PrintWriter(file)) {
+            DataWriter.writeRectangularData(dataSet, writer, '\t');
+        } catch (IOException ex) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error Dialog");
+            alert.setHeaderText(null);
+            alert.setContentText("Could not export the data: " + ex.getMessage());
+            alert.showAndWait();
+        }
+    }
+
+    /**
+     * Gives a transformed dataset the column summaries worked out from those of the original, if the original's are
+     * known, so that the transformed data needn't be read again to summarize it.
+     *
+     * @param statistics  The statistics cache of the project.
+     * @param original    The original dataset.
+     * @param transformed The transformed dataset.
+     * @param transform   What the transform does to the summaries; this may return null if it can't say.
+     */
+    private static void deriveSummaries(StatisticsCache statistics, DataSet original, DataSet transformed,
+                                        UnaryOperator<ColumnStatistics.Summary[]> transform) {
+        ColumnStatistics.Summary[] summaries = statistics.getSummaries(original);
+
+        if (summaries == null) {
+            return;
+        }
+
+        ColumnStatistics.Summary[] derived = transform.apply(summaries);
+
+        if (derived != null) {
+            statistics.putSummaries(transformed, derived);
+        }
+    }
+
     public static Menu getGameMenu() {
         Menu games = new Menu("Games");
         games.getItems().addAll(getGameMenuItems());
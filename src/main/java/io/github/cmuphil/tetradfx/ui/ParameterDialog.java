@@ -2,14 +2,12 @@ package io.github.cmuphil.tetradfx.ui;
 
 import edu.cmu.tetrad.data.Knowledge;
 import edu.cmu.tetrad.util.ParamDescriptions;
-import edu.cmu.tetrad.util.Parameters;
-import io.github.cmuphil.tetradfx.utils.Utils;
+import io.github.cmuphil.tetradfx.utils.ParameterStore;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -20,21 +18,19 @@ import java.util.regex.Pattern;
  * @author josephramsey
  */
 public class ParameterDialog {
-    private final Parameters parameters;
+    private final ParameterStore store;
     private final List<String> myParams;
-    private final File sessionDir;
 
     /**
      * Constructs a new parameter dialog.
      *
-     * @param parameters The Parameters object to edit.
-     * @param params     The list of parameters to edit. These are keys in the Parameters object and must be defined in
-     *                   the ParamDescriptions class.
+     * @param store  The store of the parameters to edit.
+     * @param params The list of parameters to edit. These are keys in the Parameters object and must be defined in the
+     *               ParamDescriptions class.
      */
-    public ParameterDialog(Parameters parameters, List<String> params, File sessionDir) {
-        this.parameters = parameters;
+    public ParameterDialog(ParameterStore store, List<String> params) {
+        this.store = store;
         this.myParams = new ArrayList<>(params);
-        this.sessionDir = sessionDir;
     }
 
     /**
@@ -89,9 +85,9 @@ public class ParameterDialog {
 
             comboBox.getItems().addAll("No knowledge", "Selected Knowledge");
             comboBox.setOnAction(event -> {
-                parameters.set("useKnowledge", "Selected Knowledge".equals(comboBox.getValue()));
+                store.set("useKnowledge", "Selected Knowledge".equals(comboBox.getValue()));
             });
-            comboBox.getSelectionModel().select(parameters.getBoolean("useKnowledge", false)
+            comboBox.getSelectionModel().select(store.getParameters().getBoolean("useKnowledge", false)
                     ? "Selected Knowledge" : "No Knowledge");
 
             ++row;
@@ -125,7 +121,7 @@ public class ParameterDialog {
                 throw new IllegalArgumentException("Unsupported parameter type: " + o.getClass());
             }
 
-            System.out.println(myParam + " " + o + " " + parameters.get(myParam) + " " + editables.get(row));
+            System.out.println(myParam + " " + o + " " + store.getParameters().get(myParam) + " " + editables.get(row));
         }
 
         dialog.setResizable(true);
@@ -165,28 +161,31 @@ public class ParameterDialog {
         });
 
         dialog.showAndWait().ifPresent(result -> {
-            for (int i = 0; i < myParams.size(); i++) {
-                String param = myParams.get(i);
-                Object o = paramDescs.get(param).getDefaultValue();
-
-                if (o instanceof String) {
-                    parameters.set(param, (String) result[i]);
-                } else if (o instanceof Integer) {
-                    parameters.set(param, result[i]);
-                } else if (o instanceof Long) {
-                    parameters.set(param, result[i]);
-                } else if (o instanceof Double) {
-                    parameters.set(param, result[i]);
-                } else if (o instanceof Boolean) {
-                    parameters.set(param, result[i]);
-                } else {
-                    throw new IllegalArgumentException("Unsupported parameter type: " + o.getClass());
-                }
+            if (myParams.isEmpty()) {
+                return;
             }
 
-            if (!myParams.isEmpty()) {
-                Utils.saveParameters(new File(sessionDir, "parameters.json"), parameters);
-            }
+            // All the edits make one new version of the parameters.
+            store.update(parameters -> {
+                for (int i = 0; i < myParams.size(); i++) {
+                    String param = myParams.get(i);
+                    Object o = paramDescs.get(param).getDefaultValue();
+
+                    if (o instanceof String) {
+                        parameters.set(param, (String) result[i]);
+                    } else if (o instanceof Integer) {
+                        parameters.set(param, result[i]);
+                    } else if (o instanceof Long) {
+                        parameters.set(param, result[i]);
+                    } else if (o instanceof Double) {
+                        parameters.set(param, result[i]);
+                    } else if (o instanceof Boolean) {
+                        parameters.set(param, result[i]);
+                    } else {
+                        throw new IllegalArgumentException("Unsupported parameter type: " + o.getClass());
+                    }
+                }
+            });
         });
     }
 
@@ -204,7 +203,7 @@ public class ParameterDialog {
      * @param editables   The list of editable fields.
      */
     private void addIntegerField(String param, String description, int min, int max, GridPane grid, int row, List<Object> editables) {
-        TextField tf = new TextField(String.valueOf(parameters.getInt(param)));
+        TextField tf = new TextField(String.valueOf(store.getParameters().getInt(param)));
 
         tf.textProperty().addListener((observable, oldValue, newValue) -> {
             if (!newValue.matches("-?\\d*")) {
@@ -214,11 +213,11 @@ public class ParameterDialog {
 
         tf.focusedProperty().addListener((observable, hadFocus, hasFocus) -> {
             if (hadFocus && !hasFocus) {
-                validateIntegerInput(tf, min, max, parameters.getInt(param));
+                validateIntegerInput(tf, min, max, store.getParameters().getInt(param));
             }
         });
 
-        tf.setOnAction(e -> validateIntegerInput(tf, min, max, parameters.getInt(param)));
+        tf.setOnAction(e -> validateIntegerInput(tf, min, max, store.getParameters().getInt(param)));
 
         String minString = Integer.MIN_VALUE == min ? "-∞" : String.valueOf(min);
         String maxString = Integer.MAX_VALUE == max ? "∞" : String.valueOf(max);
@@ -243,7 +242,7 @@ public class ParameterDialog {
      * @param editables   The list of editable fields.
      */
     private void addLongField(String param, String description, long min, long max, GridPane grid, int row, List<Object> editables) {
-        TextField tf = new TextField(String.valueOf(parameters.getInt(param)));
+        TextField tf = new TextField(String.valueOf(store.getParameters().getInt(param)));
 
         tf.textProperty().addListener((observable, oldValue, newValue) -> {
             if (!newValue.matches("-?\\d*")) {
@@ -253,11 +252,11 @@ public class ParameterDialog {
 
         tf.focusedProperty().addListener((observable, hadFocus, hasFocus) -> {
             if (hadFocus && !hasFocus) {
-                validateLongInput(tf, min, max, parameters.getInt(param));
+                validateLongInput(tf, min, max, store.getParameters().getInt(param));
             }
         });
 
-        tf.setOnAction(e -> validateLongInput(tf, min, max, parameters.getInt(param)));
+        tf.setOnAction(e -> validateLongInput(tf, min, max, store.getParameters().getInt(param)));
 
         String minString = Integer.MIN_VALUE == min ? "-∞" : String.valueOf(min);
         String maxString = Integer.MAX_VALUE == max ? "∞" : String.valueOf(max);
@@ -281,7 +280,7 @@ public class ParameterDialog {
      * @param editables   The list of editable fields.
      */
     private void addRealField(String param, String description, double min, double max, GridPane grid, int row, List<Object> editables) {
-        TextField tf = new TextField(String.valueOf(parameters.getDouble(param)));
+        TextField tf = new TextField(String.valueOf(store.getParameters().getDouble(param)));
 
         Pattern realPattern = Pattern.compile("-?\\d*(\\.\\d*)?");
 
@@ -293,11 +292,11 @@ public class ParameterDialog {
 
         tf.focusedProperty().addListener((observable, hadFocus, hasFocus) -> {
             if (hadFocus && !hasFocus) {
-                validateRealInput(tf, min, max, parameters.getDouble(param));
+                validateRealInput(tf, min, max, store.getParameters().getDouble(param));
             }
         });
 
-        tf.setOnAction(e -> validateRealInput(tf, min, max, parameters.getDouble(param)));
+        tf.setOnAction(e -> validateRealInput(tf, min, max, store.getParameters().getDouble(param)));
 
         String minString = min < -1e307 ? "-∞" : String.valueOf(min);
         String maxString = max > 1e-307 ? "∞" : String.valueOf(max);
@@ -323,7 +322,7 @@ public class ParameterDialog {
         yesButton.setToggleGroup(group);
         noButton.setToggleGroup(group);
 
-        if (parameters.getBoolean(param)) {
+        if (store.getParameters().getBoolean(param)) {
             yesButton.setSelected(true);
         } else {
             noButton.setSelected(true);
@@ -2,8 +2,7 @@ package io.github.cmuphil.tetradfx.ui;
 
 import edu.cmu.tetrad.data.Knowledge;
 import edu.cmu.tetrad.util.ParamDescriptions;
-import edu.cmu.tetrad.util.Parameters;
-import io.github.cmuphil.tetradfx.utils.Utils;
+import io.github.cmuphil.tetradfx.utils.ParameterStore;
 import javafx.scene.control.*;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
@@ -11,7 +10,6 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -22,21 +20,19 @@ import java.util.regex.Pattern;
  * @author josephramsey
  */
 public class ParameterPanel {
-    private final Parameters parameters;
+    private final ParameterStore store;
     private final List<String> myParams;
-    private final File sessionDir;
 
     /**
      * Constructs a new parameter dialog.
      *
-     * @param parameters The Parameters object to edit.
-     * @param params     The list of parameters to edit. These are keys in the Parameters object and must be defined in
-     *                   the ParamDescriptions class.
+     * @param store  The store of the parameters to edit; each edit is made there as soon as it is valid.
+     * @param params The list of parameters to edit. These are keys in the Parameters object and must be defined in the
+     *               ParamDescriptions class.
      */
-    public ParameterPanel(Parameters parameters, List<String> params, File sessionDir) {
-        this.parameters = parameters;
+    public ParameterPanel(ParameterStore store, List<String> params) {
+        this.store = store;
         this.myParams = params;
-        this.sessionDir = sessionDir;
     }
 
     /**
@@ -59,8 +55,8 @@ public class ParameterPanel {
             ComboBox<Object> comboBox = new ComboBox<>();
 
             comboBox.getItems().addAll("No knowledge", "Selected Knowledge");
-            comboBox.setOnAction(event -> parameters.set("useKnowledge", "Selected Knowledge".equals(comboBox.getValue())));
-            comboBox.getSelectionModel().select(parameters.getBoolean("useKnowledge", false)
+            comboBox.setOnAction(event -> store.set("useKnowledge", "Selected Knowledge".equals(comboBox.getValue())));
+            comboBox.getSelectionModel().select(store.getParameters().getBoolean("useKnowledge", false)
                     ? "Selected Knowledge" : "No Knowledge");
 
             ++row;
@@ -110,8 +106,7 @@ public class ParameterPanel {
             if (!newValue.matches("[a-zA-Z0-9]*")) {
                 tf.setText(newValue.replaceAll("[^a-zA-Z0-9]", ""));
             } else {
-                parameters.set(param, newValue);
-                Utils.saveParameters(new File(sessionDir, "parameters.json"), parameters);
+                store.set(param, newValue);
             }
         });
 
@@ -134,7 +129,7 @@ public class ParameterPanel {
      * @param editables   The list of editable fields.
      */
     private void addIntegerField(String param, String description, int min, int max, GridPane grid, int row, List<Object> editables) {
-        TextField tf = new TextField(String.valueOf(parameters.getInt(param)));
+        TextField tf = new TextField(String.valueOf(store.getParameters().getInt(param)));
 
         tf.textProperty().addListener((observable, oldValue, newValue) -> {
             if (!newValue.matches("-?\\d*")) {
@@ -144,11 +139,11 @@ public class ParameterPanel {
 
         tf.focusedProperty().addListener((observable, hadFocus, hasFocus) -> {
             if (hadFocus && !hasFocus) {
-                validateIntegerInput(param, tf, min, max, parameters.getInt(param));
+                validateIntegerInput(param, tf, min, max, store.getParameters().getInt(param));
             }
         });
 
-        tf.setOnAction(e -> validateIntegerInput(param, tf, min, max, parameters.getInt(param)));
+        tf.setOnAction(e -> validateIntegerInput(param, tf, min, max, store.getParameters().getInt(param)));
 
         String minString = Integer.MIN_VALUE == min ? "-∞" : String.valueOf(min);
         String maxString = Integer.MAX_VALUE == max ? "∞" : String.valueOf(max);
@@ -172,7 +167,7 @@ public class ParameterPanel {
      * @param editables   The list of editable fields.
      */
     private void addRealField(String param, String description, double min, double max, GridPane grid, int row, List<Object> editables) {
-        TextField tf = new TextField(String.valueOf(parameters.getDouble(param)));
+        TextField tf = new TextField(String.valueOf(store.getParameters().getDouble(param)));
 
         Pattern realPattern = Pattern.compile("-?\\d*(\\.\\d*)?");
 
@@ -184,11 +179,11 @@ public class ParameterPanel {
 
         tf.focusedProperty().addListener((observable, hadFocus, hasFocus) -> {
             if (hadFocus && !hasFocus) {
-                validateRealInput(param, tf, min, max, parameters.getDouble(param));
+                validateRealInput(param, tf, min, max, store.getParameters().getDouble(param));
             }
         });
 
-        tf.setOnAction(e -> validateRealInput(param, tf, min, max, parameters.getDouble(param)));
+        tf.setOnAction(e -> validateRealInput(param, tf, min, max, store.getParameters().getDouble(param)));
 
         String minString = min < -1e307 ? "-∞" : String.valueOf(min);
         String maxString = max > 1e-307 ? "∞" : String.valueOf(max);
@@ -214,7 +209,7 @@ public class ParameterPanel {
         yesButton.setToggleGroup(group);
         noButton.setToggleGroup(group);
 
-        if (parameters.getBoolean(param)) {
+        if (store.getParameters().getBoolean(param)) {
             yesButton.setSelected(true);
         } else {
             noButton.setSelected(true);
@@ -225,9 +220,8 @@ public class ParameterPanel {
         grid.add(radioGroup, 1, row);
         editables.add(group);
 
-        yesButton.setOnAction(e -> parameters.set(param, true));
-        noButton.setOnAction(e -> parameters.set(param, false));
-        Utils.saveParameters(new File(sessionDir, "parameters.json"), parameters);
+        yesButton.setOnAction(e -> store.set(param, true));
+        noButton.setOnAction(e -> store.set(param, false));
     }
 
     /**
@@ -246,8 +240,7 @@ public class ParameterPanel {
             if (value < min || value > max) {
                 tf.setText(String.valueOf(defaultValue));
             } else {
-                parameters.set(param, value);
-                Utils.saveParameters(new File(sessionDir, "parameters.json"), parameters);
+                store.set(param, value);
             }
         } catch (NumberFormatException e) {
             tf.setText(String.valueOf(defaultValue));
@@ -270,8 +263,7 @@ public class ParameterPanel {
             if (value < min || value > max) {
                 tf.setText(String.valueOf(defaultValue));
             } else {
-                parameters.set(param, value);
-                Utils.saveParameters(new File(sessionDir, "parameters.json"), parameters);
+                store.set(param, value);
             }
         } catch (NumberFormatException e) {
             tf.setText(String.valueOf(defaultValue));
@@ -6,6 +6,11 @@ import edu.cmu.tetrad.data.Knowledge;
 import edu.cmu.tetrad.graph.Graph;
 import edu.cmu.tetrad.graph.GraphSaveLoadUtils;
 import edu.cmu.tetrad.util.Parameters;
+import io.github.cmuphil.tetradfx.utils.ColumnStatistics;
+import io.github.cmuphil.tetradfx.utils.ColumnarData;
+import io.github.cmuphil.tetradfx.utils.GraphLayouts;
+import io.github.cmuphil.tetradfx.utils.PersistenceService;
+import io.github.cmuphil.tetradfx.utils.StatisticsCache;
 import io.github.cmuphil.tetradfx.utils.Utils;
 import javafx.collections.ObservableList;
 import javafx.geometry.Side;
@@ -18,7 +23,6 @@ import javafx.scene.layout.VBox;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.*;
 
 /**
@@ -59,8 +63,15 @@ public class Project {
     private final Map<Tab, String> tabsToParametersPrompts = new HashMap<>();
     private final Map<Tab, String> tabsToNotesPrompts = new HashMap<>();
 
+    private final Map<Tab, File> tabsToParametersFiles = new HashMap<>();
+    private final Map<Tab, File> tabsToNotesFiles = new HashMap<>();
+
+    // Save the layouts of the graphs and search results shown in tabs, until the tabs are closed.
+    private final Map<Tab, GraphView.LayoutSaver> tabsToLayoutSavers = new HashMap<>();
+
     private final Map<Tab, Object> dataSetMap = new HashMap<>();
     private final Map<Tab, Object> knowledgeMap = new HashMap<>();
+    private final StatisticsCache statisticsCache = new StatisticsCache();
     private boolean valenceAdded = false;
 
     /**
@@ -133,7 +144,7 @@ public class Project {
 
         buttonSearch.setOnMousePressed(event -> {
             ContextMenu contextMenu = new ContextMenu();
-            List<MenuItem> c = MenuItems.searchFromDataMenuItems(Session.getInstance().getParameters(), Session.getInstance().getSessionDir());
+            List<MenuItem> c = MenuItems.searchFromDataMenuItems(Session.getInstance().getParameterStore());
             contextMenu.getItems().addAll(c);
             contextMenu.show(buttonSearch, event.getScreenX(), event.getScreenY());
         });
@@ -279,6 +290,19 @@ public class Project {
      * @param nextName Whether to append a number to the name if it already exists.
      */
     public void addDataSet(String name, DataSet dataSet, boolean nextName) {
+        addDataSet(name, dataSet, nextName, true);
+    }
+
+    /**
+     * Adds a dataset to the data tab.
+     *
+     * @param name     The name of the dataset.
+     * @param dataSet  The dataset.
+     * @param nextName Whether to append a number to the name if it already exists.
+     * @param save     Whether to save the dataset to the project directory. This is false when the dataset was just
+     *                 read from there.
+     */
+    public void addDataSet(String name, DataSet dataSet, boolean nextName, boolean save) {
         if (name == null) {
             throw new NullPointerException("Name cannot be null");
         }
@@ -289,25 +313,37 @@ public class Project {
 
         String prefix = name.replace(' ', '_');
 
-        TableView<DataView.DataRow> editor = DataView.getTableView(dataSet);
+        TableView<Integer> editor = DataView.getTableView(dataSet);
         Tab tab = new Tab(name, editor);
         dataSetMap.put(tab, dataSet);
 
+        // A new dataset's statistics are worked out afresh; one read from the project directory keeps those saved
+        // with it.
+        File statsFile = new File(dataDir, prefix + ColumnStatistics.EXTENSION);
+
+        if (save && statsFile.exists() && !statsFile.delete()) {
+            System.out.println("Failed to delete the old statistics " + statsFile);
+        }
+
+        statisticsCache.track(dataSet, statsFile);
+
         if (!valenceAdded) {
-            Tab valence = new Tab("Variables", new VariablesView(dataSet).getTableView());
+            Tab valence = new Tab("Variables", new VariablesView(dataSet, statisticsCache).getTableView());
             valence.setClosable(false);
             this.insights.getTabs().add(valence);
             valenceAdded = true;
         }
 
-        File file = new File(dataDir, prefix + ".txt");
+        // Datasets are stored in the binary columnar format, so that they can be read back without parsing; they can
+        // be exported as text from the data context menu.
+        if (save) {
+            File file = new File(dataDir, prefix + ColumnarData.EXTENSION);
 
-        try {
-            try (PrintWriter writer = new PrintWriter(file)) {
-                DataWriter.writeRectangularData(dataSet, writer, '\t');
+            try {
+                ColumnarData.write(dataSet, file);
+            } catch (IOException e) {
+                System.out.println("Could not write data set to file");
             }
-        } catch (IOException e) {
-            System.out.println("Could not write data set to file");
         }
 
         addTab(this.data, tab, dataDir, false);
@@ -322,6 +358,19 @@ public class Project {
      * @param nextName Whether to append a number to the name if it already exists.
      */
     public void addGraph(String name, Graph graph, boolean nextName) {
+        addGraph(name, graph, nextName, true);
+    }
+
+    /**
+     * Adds a graph to the graph tab.
+     *
+     * @param name     The name of the graph.
+     * @param graph    The graph.
+     * @param nextName Whether to append a number to the name if it already exists.
+     * @param save     Whether to save the graph to the project directory. This is false when the graph was just read
+     *                 from there.
+     */
+    public void addGraph(String name, Graph graph, boolean nextName, boolean save) {
         if (name == null) {
             throw new NullPointerException("Name cannot be null");
         }
@@ -332,7 +381,16 @@ public class Project {
 
         String prefix = name.replace(' ', '_');
 
-        Tab tab = new Tab(name, GraphView.getGraphDisplay(graph));
+        // A new graph is laid out afresh; a graph read from the project directory keeps the layout saved with it.
+        File layoutFile = new File(graphDir, prefix + GraphLayouts.EXTENSION);
+
+        if (save && layoutFile.exists() && !layoutFile.delete()) {
+            System.out.println("Failed to delete the old layout " + layoutFile);
+        }
+
+        GraphView.LayoutSaver layoutSaver = new GraphView.LayoutSaver(graph, layoutFile);
+        Tab tab = new Tab(name, GraphView.getGraphDisplay(graph, layoutSaver));
+        tabsToLayoutSavers.put(tab, layoutSaver);
 
         tab.setOnClosed(event -> {
             selectIfNonempty(graphTab);
@@ -351,7 +409,10 @@ public class Project {
         addTab(this.graphs, tab,graphDir, false);
 //        graphs.getTabs().add(tab);
         addHandling(name, graphs, graphTab, null, graphDir, tab, prefix, !"True Graph".equals(name));
-        GraphSaveLoadUtils.saveGraph(graph, new File(graphDir, prefix + ".txt"), false);
+
+        if (save) {
+            GraphSaveLoadUtils.saveGraph(graph, new File(graphDir, prefix + ".txt"), false);
+        }
     }
 
     /**
@@ -364,6 +425,22 @@ public class Project {
      * @param usedParameters The parameters that were actually used to generate the search result.
      */
     public void addSearchResult(String name, Graph graph, boolean nextName, Parameters parameters, List<String> usedParameters) {
+        addSearchResult(name, graph, nextName, parameters, usedParameters, true);
+    }
+
+    /**
+     * Adds a search result to the search tab.
+     *
+     * @param name           The name of the tab.
+     * @param graph          The graph.
+     * @param nextName       Whether to append a number to the name if it already exists.
+     * @param parameters     The parameters used to generate the search result.
+     * @param usedParameters The parameters that were actually used to generate the search result.
+     * @param save           Whether to save the graph to the project directory. This is false when the graph was just
+     *                       read from there.
+     */
+    public void addSearchResult(String name, Graph graph, boolean nextName, Parameters parameters,
+                                List<String> usedParameters, boolean save) {
         if (name == null) {
             throw new NullPointerException("Name cannot be null");
         }
@@ -376,20 +453,32 @@ public class Project {
 
         this.sessionTabPane.getSelectionModel().select(dataTab);
 
-        GraphSaveLoadUtils.saveGraph(graph, new File(this.searchDir, prefix + ".txt"),
-                false);
+        if (save) {
+            GraphSaveLoadUtils.saveGraph(graph, new File(this.searchDir, prefix + ".txt"),
+                    false);
+        }
+
+        // A new search result is laid out afresh; one read from the project directory keeps the layout saved with it.
+        File layoutFile = new File(this.searchDir, prefix + GraphLayouts.EXTENSION);
 
+        if (save && layoutFile.exists() && !layoutFile.delete()) {
+            System.out.println("Failed to delete the old layout " + layoutFile);
+        }
+
+        GraphView.LayoutSaver layoutSaver = new GraphView.LayoutSaver(graph, layoutFile);
         Tab tab = Utils.getTabByName(search, "New Tab");
 
         if (tab == null) {
-            tab = new Tab(name, GraphView.getGraphDisplay(graph));
+            tab = new Tab(name, GraphView.getGraphDisplay(graph, layoutSaver));
             search.getTabs().add(search.getTabs().size() - 1, tab);
         } else {
             tab.setText(name);
-            tab.setContent(GraphView.getGraphDisplay(graph));
+            tab.setContent(GraphView.getGraphDisplay(graph, layoutSaver));
             writeTabOrder(search, searchDir);
         }
 
+        tabsToLayoutSavers.put(tab, layoutSaver);
+
         addHandling(name, search, searchTab, null, searchDir, tab, prefix, true);
         setParametersText(tab, parameters, usedParameters);
         managePlusTab2(this.sessionTabPane, this.search, this.searchTab, new File(this.searchDir,
@@ -397,6 +486,19 @@ public class Project {
     }
 
     public void addKnowledge(String name, Knowledge knowledge, boolean nextName) {
+        addKnowledge(name, knowledge, nextName, true);
+    }
+
+    /**
+     * Adds knowledge to the knowledge tab.
+     *
+     * @param name      The name of the knowledge.
+     * @param knowledge The knowledge.
+     * @param nextName  Whether to append a number to the name if it already exists.
+     * @param save      Whether to save the knowledge to the project directory. This is false when the knowledge was
+     *                  just read from there.
+     */
+    public void addKnowledge(String name, Knowledge knowledge, boolean nextName, boolean save) {
         if (name == null) {
             throw new NullPointerException("Name cannot be null");
         }
@@ -410,14 +512,16 @@ public class Project {
 
         Node editor = new RegexFilter(knowledge, file).getEditor();
 
-        try {
-            DataWriter.saveKnowledge(knowledge, new FileWriter(file));
-        } catch (IOException e) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Error Dialog");
-            alert.setHeaderText(null); // You can set a header text or keep it null
-            alert.setContentText("Could not save knowledge: " + e.getMessage());
-            alert.showAndWait();
+        if (save) {
+            try {
+                DataWriter.saveKnowledge(knowledge, new FileWriter(file));
+            } catch (IOException e) {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Error Dialog");
+                alert.setHeaderText(null); // You can set a header text or keep it null
+                alert.setContentText("Could not save knowledge: " + e.getMessage());
+                alert.showAndWait();
+            }
         }
 
         Tab tab = Utils.getTabByName(this.knowledge, "New Tab");
@@ -489,20 +593,15 @@ public class Project {
     }
 
     private static void writeTabOrder(TabPane typeTabPane, File typeDir) {
-        try {
-            File file = new File(typeDir, "taborder.txt");
-            FileWriter fileWriter = new FileWriter(file);
+        StringBuilder order = new StringBuilder();
 
-            for (Tab tab1 : typeTabPane.getTabs()) {
-                if (!tab1.getText().equals(" + ")) {
-                    fileWriter.write(tab1.getText() + "\n");
-                }
+        for (Tab tab1 : typeTabPane.getTabs()) {
+            if (!tab1.getText().equals(" + ")) {
+                order.append(tab1.getText()).append("\n");
             }
-
-            fileWriter.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+
+        PersistenceService.getInstance().write(new File(typeDir, "taborder.txt"), order.toString());
     }
 
     private void addHandling(String name, TabPane typeTabPane, Tab typeTab, Map<Tab, Object> typeTabMap,
@@ -511,26 +610,38 @@ public class Project {
         typeTabPane.getSelectionModel().select(tab);
         tabClosedAction(typeTabPane, typeTab, typeTabMap, typeDir, tab, prefix);
         selectIfNonempty(typeTab);
-        persistNotes(tab, typeDir, name);
-        readNotes(tab, typeDir, name);
         tab.setClosable(closable);
         tabsToParameters.put(tab, "");
         tabsToNotes.put(tab, "");
         this.search.getSelectionModel().select(tab);
         tab.setOnSelectionChanged(event -> setParametersAndNotesText());
         readNotes(tab, typeDir, name);
-        persistNotes(tab, typeDir, name);
     }
 
     private void tabClosedAction(TabPane typeTabPane, Tab typeTab, Map<Tab, Object> typeTabMap, File typeDir, Tab thisTab,
                                  String prefix) {
         thisTab.setOnClosed(event -> {
             if (typeTabMap != null) {
-                typeTabMap.remove(thisTab);
+                Object removed = typeTabMap.remove(thisTab);
+
+                if (removed instanceof DataSet) {
+                    statisticsCache.invalidate((DataSet) removed);
+                }
             }
 
             tabsToNotes.remove(thisTab);
             tabsToParameters.remove(thisTab);
+            tabsToNotesFiles.remove(thisTab);
+            tabsToParametersFiles.remove(thisTab);
+
+            // A layout finished after this mustn't bring back the layout file deleted below.
+            GraphView.LayoutSaver layoutSaver = tabsToLayoutSavers.remove(thisTab);
+
+            if (layoutSaver != null) {
+                layoutSaver.stop();
+            }
+
+            PersistenceService.getInstance().discard(typeDir, prefix);
             Utils.removeAllFilesWithPrefix(typeDir, prefix);
             selectIfNonempty(typeTab);
 
@@ -594,49 +705,53 @@ public class Project {
         });
     }
 
+    // Reads the notes and parameter notes for a tab, if it has any yet, and remembers where they are kept.
     private void readNotes(Tab tab, File dir, String name) {
-        String _filename1 = dir + File.separator + name.replace(' ', '_') + ".notes" + ".txt";
+        File notesFile = new File(dir, name.replace(' ', '_') + ".notes" + ".txt");
+        File parametersFile = new File(dir, name.replace(' ', '_') + ".paramsNote" + ".txt");
 
-        tabsToNotes.putIfAbsent(tab, "");
-        tabsToParameters.putIfAbsent(tab, "");
+        tabsToNotesFiles.put(tab, notesFile);
+        tabsToParametersFiles.put(tab, parametersFile);
         tabsToNotesPrompts.put(tab, "Notes for " + name + ":");
         tabsToParametersPrompts.put(tab, "Parameters for " + name + ":");
 
-        if (new File(_filename1).exists()) {
-            tabsToNotes.put(tab, Utils.loadTextFromFile(new File(_filename1)));
-            notesArea.setText(tabsToNotes.get(tab));
+        if (notesFile.exists()) {
+            tabsToNotes.put(tab, Utils.loadTextFromFile(notesFile));
         } else {
-            tabsToNotes.put(tab, "");//""Notes for " + name + ":");
-            notesArea.setText(tabsToNotes.get(tab));
-            notesArea.setPromptText(tabsToNotesPrompts.get(tab));
-            Utils.saveTextToFile(new File(_filename1), tabsToNotes.get(tab));
+            tabsToNotes.put(tab, "");
         }
 
-        String _filename2 = dir + File.separator + name.replace(' ', '_') + ".paramsNote" + ".txt";
+        notesArea.setText(tabsToNotes.get(tab));
+        notesArea.setPromptText(tabsToNotesPrompts.get(tab));
 
-        if (new File(_filename2).exists()) {
-            tabsToParameters.put(tab, Utils.loadTextFromFile(new File(_filename2)));
+        if (parametersFile.exists()) {
+            tabsToParameters.put(tab, Utils.loadTextFromFile(parametersFile));
             parametersArea.setText(tabsToParameters.get(tab));
         } else {
-            if (tabsToParameters.get(tab).isEmpty()) {
-                tabsToParameters.put(tab, "");//""Parameters for " + name + ":");
-            }
-            parametersArea.setPromptText(tabsToParametersPrompts.get(tab));
-            Utils.saveTextToFile(new File(_filename2), tabsToParameters.get(tab));
+            tabsToParameters.putIfAbsent(tab, "");
         }
+
+        parametersArea.setPromptText(tabsToParametersPrompts.get(tab));
     }
 
-    private void persistNotes(Tab tab, File dir, String _name) {
-        notesArea.addEventHandler(javafx.scene.input.MouseEvent.MOUSE_EXITED, event -> {
-            String filename = dir + File.separator + _name.replace(' ', '_') + ".notes" + ".txt";
-            Utils.saveTextToFile(new File(filename), tabsToNotes.get(tab));
-        });
+    // Records the new notes for a tab and has them written in the background.
+    private void persistNotes(Tab tab, String notes) {
+        tabsToNotes.put(tab, notes);
+        File file = tabsToNotesFiles.get(tab);
 
-        parametersArea.addEventHandler(javafx.scene.input.MouseEvent.MOUSE_EXITED, event -> {
-            String filename = dir + File.separator + _name.replace(' ', '_') + ".paramsNote" + ".txt";
-            Utils.saveTextToFile(new File(filename), tabsToParameters.get(tab));
-        });
+        if (file != null) {
+            PersistenceService.getInstance().write(file, notes);
+        }
+    }
 
+    // Records the new parameter notes for a tab and has them written in the background.
+    private void persistParameters(Tab tab, String parameters) {
+        tabsToParameters.put(tab, parameters);
+        File file = tabsToParametersFiles.get(tab);
+
+        if (file != null) {
+            PersistenceService.getInstance().write(file, parameters);
+        }
     }
 
     /**
@@ -741,6 +856,25 @@ public class Project {
         return null;
     }
 
+    /**
+     * Returns the directory the datasets of this project are saved in.
+     *
+     * @return The data directory.
+     */
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * Returns the cache of sufficient statistics (covariance matrices) for the datasets in this project, shared by the
+     * searches on them.
+     *
+     * @return The statistics cache.
+     */
+    public StatisticsCache getStatisticsCache() {
+        return statisticsCache;
+    }
+
     /**
      * Returns the selected knowledge for this project.
      *
@@ -780,7 +914,7 @@ public class Project {
             this.parametersArea.appendText(s);
         }
 
-        tabsToParameters.put(tab, parametersArea.getText());
+        persistParameters(tab, parametersArea.getText());
     }
 
     /**
@@ -797,9 +931,9 @@ public class Project {
         parametersArea.setPromptText(getParameterPromptString(selected));
         notesArea.setPromptText(getNotePromptString(selected));
 
-        parametersArea.setOnKeyTyped(event -> tabsToParameters.put(selected, parametersArea.getText()));
+        parametersArea.setOnKeyTyped(event -> persistParameters(selected, parametersArea.getText()));
 
-        notesArea.setOnKeyTyped(event -> tabsToNotes.put(selected, notesArea.getText()));
+        notesArea.setOnKeyTyped(event -> persistNotes(selected, notesArea.getText()));
     }
 
     private String getParameterString(Tab tab) {
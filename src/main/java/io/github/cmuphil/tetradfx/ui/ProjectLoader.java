@@ -0,0 +1,296 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.DelimiterType;
+import edu.cmu.tetrad.data.Knowledge;
+import edu.cmu.tetrad.data.SimpleDataLoader;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphSaveLoadUtils;
+import edu.cmu.tetrad.util.Parameters;
+import edu.pitt.dbmi.data.reader.Delimiter;
+import io.github.cmuphil.tetradfx.utils.ColumnarData;
+import io.github.cmuphil.tetradfx.utils.ParallelDataLoader;
+import io.github.cmuphil.tetradfx.utils.PendingArchive;
+import io.github.cmuphil.tetradfx.utils.Utils;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * <p>Loads the contents of a project that was saved in the session directory--its datasets, search
+ * results, knowledge and graphs--when the project is first selected. The files are read and parsed
+ * in the background, all at once, on a pool of loader threads with one thread per core; then the
+ * tabs are added to the project on the FX thread, in the order given by the tab order file of each
+ * directory. Nothing is written back to the files that were just read.</p>
+ *
+ * <p>If the session was just loaded from a session file, the project's files may not have been
+ * extracted from it yet, in which case they are extracted first.</p>
+ *
+ * <p>The tabs are added to the project the loader was made for, which need not be the selected
+ * project by the time loading is done. Then the loader reports back, so the session knows whether
+ * the project was loaded. If it wasn't--loading was cancelled or failed--the session tries again the
+ * next time the project is selected.</p>
+ *
+ * @author josephramsey
+ */
+public class ProjectLoader extends Task<List<ProjectLoader.Artifact>> {
+    private final Project project;
+    private final File dir;
+    private final PendingArchive archive;
+    private final Consumer<Boolean> onDone;
+    private final String name;
+    private final List<String> errors = new ArrayList<>();
+
+    // Set when the loader is interrupted, so that files not yet parsed are left alone.
+    private volatile boolean stopped;
+
+    // Parses files for all loaders; shared so that loading several projects at once doesn't oversubscribe the cores.
+    private static final ExecutorService LOADER_POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "tetrad-fx-loader-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Creates a loader for a project.
+     *
+     * @param name    The name of the project.
+     * @param project The project, which the loaded tabs are added to.
+     * @param dir     The directory the project is saved in.
+     * @param archive The session file the project's files are still to be extracted from, or null if they have
+     *                been.
+     * @param onDone  Called on the FX thread when the loader is done, once the tabs have been added, with true if
+     *                the project was loaded and false if loading was cancelled or failed.
+     */
+    public ProjectLoader(String name, Project project, File dir, PendingArchive archive, Consumer<Boolean> onDone) {
+        this.project = project;
+        this.dir = dir;
+        this.archive = archive;
+        this.onDone = onDone;
+        this.name = name;
+
+        updateTitle("Loading " + name);
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    @Override
+    protected List<Artifact> call() throws InterruptedException, IOException {
+        if (archive != null && archive.isPending(dir.getName())) {
+            updateMessage("Extracting files");
+            updateProgress(-1, 1);
+            archive.materialize(dir.getName());
+        }
+
+        updateMessage("Reading files");
+
+        // Every file is parsed on the loader pool at once; the results are collected in tab order.
+        List<Future<Artifact>> futures = new ArrayList<>();
+
+        for (Kind kind : Kind.values()) {
+            File typeDir = new File(dir, kind.dirName);
+
+            for (String name : Utils.readTabOrder(new File(typeDir, "taborder.txt"))) {
+                File file = findFile(typeDir, name, kind.extensions);
+
+                if (file != null) {
+                    futures.add(LOADER_POOL.submit(() -> {
+                        if (stopped) {
+                            throw new CancellationException();
+                        }
+
+                        return new Artifact(kind, name, parse(kind, file));
+                    }));
+                }
+            }
+        }
+
+        List<Artifact> artifacts = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                updateProgress(i, futures.size());
+
+                try {
+                    artifacts.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    errors.add(e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+
+            // Files being parsed are finished, since a dataset from an older session may be being converted; the
+            // rest are skipped. Once this returns, nothing is reading or writing the project's files.
+            stopped = true;
+            awaitAll(futures);
+            throw e;
+        }
+
+        updateMessage("Done");
+        updateProgress(1, 1);
+        return artifacts;
+    }
+
+    @Override
+    protected void succeeded() {
+        Parameters parameters = Session.getInstance().getParameters();
+
+        for (Artifact artifact : getValue()) {
+            switch (artifact.kind) {
+                case DATA -> project.addDataSet(artifact.name, (DataSet) artifact.content, false, false);
+                case SEARCH -> project.addSearchResult(artifact.name, (Graph) artifact.content, false,
+                        parameters, new ArrayList<>(), false);
+                case KNOWLEDGE -> project.addKnowledge(artifact.name, (Knowledge) artifact.content, false, false);
+                case GRAPH -> project.addGraph(artifact.name, (Graph) artifact.content, false, false);
+            }
+        }
+
+        project.setParametersAndNotesText();
+        onDone.accept(true);
+
+        if (!errors.isEmpty()) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error Dialog");
+            alert.setHeaderText(null);
+            alert.setContentText("Some files could not be loaded:\n" + String.join("\n", errors));
+            alert.showAndWait();
+        }
+    }
+
+    @Override
+    protected void cancelled() {
+        onDone.accept(false);
+    }
+
+    @Override
+    protected void failed() {
+        Throwable e = getException();
+        e.printStackTrace();
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error Dialog");
+        alert.setHeaderText(null);
+        alert.setContentText("Project " + name + " could not be loaded: " + e.getMessage()
+                + ". It will be loaded again the next time it is selected.");
+        alert.showAndWait();
+
+        onDone.accept(false);
+    }
+
+    // Waits for every file to be parsed or skipped.
+    private static void awaitAll(List<Future<Artifact>> futures) {
+        boolean interrupted = false;
+
+        for (Future<Artifact> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns the file for a tab, trying the extensions in order, or null if there is none.
+    private static File findFile(File typeDir, String name, List<String> extensions) {
+        String prefix = name.replace(" ", "_");
+
+        for (String extension : extensions) {
+            File file = new File(typeDir, prefix + extension);
+
+            if (file.isFile()) {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+    private static Object parse(Kind kind, File file) throws IOException {
+        String filename = file.getName();
+
+        try {
+            return switch (kind) {
+                case DATA -> {
+                    DataSet dataSet;
+
+                    if (filename.endsWith(ColumnarData.EXTENSION)) {
+                        dataSet = ColumnarData.read(file);
+                        dataSet.setName(filename.substring(0, filename.length() - ColumnarData.EXTENSION.length()));
+                    } else {
+                        int maxNumCategories = 5;
+                        dataSet = ParallelDataLoader.load(file, "//", '\"', "*", true, Delimiter.TAB,
+                                ParallelDataLoader.DataType.MIXED, maxNumCategories, ParallelDataLoader.Progress.NONE);
+                        String name = filename.substring(0, filename.length() - ".txt".length());
+                        dataSet.setName(name);
+
+                        // Datasets from older sessions are converted to the binary format here, off the FX thread,
+                        // since the project won't save them again. The binary file is moved into place whole, and
+                        // only then is the text file deleted, so one or the other is always there.
+                        ColumnarData.write(dataSet, new File(file.getParentFile(), name + ColumnarData.EXTENSION));
+                        Files.delete(file.toPath());
+                    }
+
+                    yield dataSet;
+                }
+                case SEARCH, GRAPH -> filename.endsWith(".json") ? GraphSaveLoadUtils.loadGraphJson(file)
+                        : GraphSaveLoadUtils.loadGraphTxt(file);
+                case KNOWLEDGE -> SimpleDataLoader.loadKnowledge(file, DelimiterType.WHITESPACE, "//");
+            };
+        } catch (IOException | RuntimeException e) {
+            throw new IOException(filename + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The kinds of things a project holds, in the order they are loaded, with the directory each is kept in and the
+     * file extensions it may have, preferred first. (Sessions saved by older versions have their datasets as text.)
+     */
+    enum Kind {
+        DATA("data", List.of(ColumnarData.EXTENSION, ".txt")),
+        SEARCH("search", List.of(".txt", ".json")),
+        KNOWLEDGE("knowledge", List.of(".txt")),
+        GRAPH("other_graphs", List.of(".txt", ".json"));
+
+        private final String dirName;
+        private final List<String> extensions;
+
+        Kind(String dirName, List<String> extensions) {
+            this.dirName = dirName;
+            this.extensions = extensions;
+        }
+    }
+
+    /**
+     * A loaded dataset, graph or knowledge, waiting to be added to the project as a tab.
+     *
+     * @param kind    What it is.
+     * @param name    The name of its tab.
+     * @param content The dataset, graph or knowledge.
+     */
+    record Artifact(Kind kind, String name, Object content) {
+    }
+}
@@ -1,21 +1,28 @@
 package io.github.cmuphil.tetradfx.ui;
 
+import com.google.gson.Gson;
 import edu.cmu.tetrad.data.DataWriter;
 import edu.cmu.tetrad.data.Knowledge;
+import io.github.cmuphil.tetradfx.utils.PersistenceService;
+import io.github.cmuphil.tetradfx.utils.TierMatcher;
 import io.github.cmuphil.tetradfx.utils.Utils;
+import javafx.application.Platform;
 import javafx.scene.Node;
-import javafx.scene.control.Alert;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * <p>Provides a Editor node that allows the user to filter variable names into knowledge tiers based
@@ -24,6 +31,11 @@ import java.util.regex.Pattern;
  *
  * <p>The Knowledge object provided in the constructor is edited by this class.</p>
  *
+ * <p>The sorting is done by a TierMatcher, which matches again only the tier whose regexes were
+ * edited. For long lists of variables it is done off the FX thread, and only the latest edit's
+ * result is shown. The knowledge and the regexes are saved in the background once the editing
+ * pauses.</p>
+ *
  * @author josephramsey
  */
 public class RegexFilter {
@@ -34,6 +46,22 @@ public class RegexFilter {
     private final Knowledge knowledge;
     private final File path;
     private final SavedRegexesInfo savedRegexesInfo;
+    private final TierMatcher matcher = new TierMatcher();
+
+    // With at least this many variables, tiers are matched off the FX thread.
+    private static final int BACKGROUND_THRESHOLD = 5000;
+
+    private static final ExecutorService MATCHING = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tetrad-fx-tiers");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Counts the updates asked for, so that a result that was overtaken by a later edit isn't shown.
+    private volatile long generation;
+    private String variablesText;
+    private List<String> variableNames = new ArrayList<>();
+    private List<List<String>> shownTiers;
 
     /**
      * Creates a new KnowledgeEditor for the given Knowledge object.
@@ -104,6 +132,11 @@ public class RegexFilter {
         tierCountField.setPromptText("Enter number of tiers");
         tierCountPanel.getChildren().addAll(tierCountLabel, tierCountField);
 
+        // Matching all the tiers at once is faster for very many variables.
+        CheckBox combinedBox = new CheckBox("Match all tiers at once");
+        combinedBox.setTooltip(new Tooltip("Faster for very many variables; the tiers come out the same."));
+        tierCountPanel.getChildren().add(combinedBox);
+
         root.getChildren().addAll(titleLabel, tierCountPanel);
 
         TextArea inputArea = new TextArea();
@@ -139,7 +172,6 @@ public class RegexFilter {
             try {
                 int count = Integer.parseInt(newValue);
                 createTierPanels(count, inputArea, savedRegexesInfo.getRememberedRegexes());
-                updateDisplays(inputArea);
             } catch (NumberFormatException e) {
                 tierPanelContainer.getChildren().clear();
             }
@@ -147,6 +179,11 @@ public class RegexFilter {
 
         inputArea.textProperty().addListener((observable, oldValue, newValue) -> updateDisplays(inputArea));
 
+        combinedBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            matcher.setCombined(newValue);
+            updateDisplays(inputArea);
+        });
+
         return root;
     }
 
@@ -181,15 +218,15 @@ public class RegexFilter {
             displayAreas.add(displayArea);
 
             regexArea.setOnKeyReleased(keyEvent -> {
-                updateDisplays(inputArea);
                 rememberedRegexes.put(_i, regexArea.getText());
+                updateDisplays(inputArea);
             });
 
             hBox.getChildren().addAll(regexArea, displayArea);
             tierPanelContainer.getChildren().add(hBox);
-
-            updateDisplays(inputArea);
         }
+
+        updateDisplays(inputArea);
     }
 
     /**
@@ -198,89 +235,113 @@ public class RegexFilter {
      * @param inputArea The TextArea containing the variable names.
      */
     private void updateDisplays(TextArea inputArea) {
-        List<String> variableNames = new ArrayList<>(List.of(inputArea.getText().split("[,;\\t\\s]+")));
+        String text = inputArea.getText();
 
-        for (TextArea displayArea : displayAreas) {
-            displayArea.clear();
+        if (!text.equals(variablesText)) {
+            variablesText = text;
+            variableNames = new ArrayList<>();
+
+            for (String name : text.split("[,;\\t\\s]+")) {
+                if (!name.isEmpty()) variableNames.add(name);
+            }
         }
 
-        unmatchedVarsArea.clear();
+        List<String> variables = variableNames;
+        List<String> regexes = new ArrayList<>();
 
         for (TextArea displayArea : displayAreas) {
             TextArea regexField = (TextArea) ((HBox) displayArea.getParent()).getChildren().get(0);
+            regexes.add(regexField.getText());
+        }
 
-            List<Pattern> patterns = new ArrayList<>();
-
-            try {
-                String text = regexField.getText();
-                String[] regexes = text.split("[,;\\t\\s]+");
-
-                for (String regex : regexes) {
-                    patterns.add(Pattern.compile(regex));
-                }
-            } catch (Exception e) {
-                displayArea.setText("Invalid regex");
-                continue;
-            }
+        long thisGeneration = ++generation;
 
-            Iterator<String> iterator = variableNames.iterator();
-            while (iterator.hasNext()) {
-                String varName = iterator.next();
+        if (variables.size() < BACKGROUND_THRESHOLD) {
+            showResult(matcher.match(variables, regexes));
+        } else {
+            MATCHING.execute(() -> {
 
-                for (Pattern pattern : patterns) {
-                    if (pattern.matcher(varName).find()) {
-                        if (displayArea.getText().isBlank()) {
-                            displayArea.appendText(varName);
-                        } else {
-                            displayArea.appendText(", " + varName);
-                        }
+                // Skip the work if another edit has come in since.
+                if (thisGeneration != generation) return;
+                TierMatcher.Result result = matcher.match(variables, regexes);
 
-                        iterator.remove();
-                        break;
+                Platform.runLater(() -> {
+                    if (thisGeneration == generation) {
+                        showResult(result);
                     }
-                }
-            }
+                });
+            });
         }
+    }
 
-        // For any remaining unmatched variables
-        Iterator<String> iterator = variableNames.iterator();
-        while (iterator.hasNext()) {
-            String varName = iterator.next();
+    // Shows the tiers, puts them in the knowledge, and has the knowledge and regexes saved.
+    private void showResult(TierMatcher.Result result) {
+        if (result.tiers().size() != displayAreas.size()) {
+            return;
+        }
 
-            if (unmatchedVarsArea.getText().isBlank()) {
-                unmatchedVarsArea.appendText(varName);
-            } else {
-                unmatchedVarsArea.appendText(", " + varName);
+        for (int k = 0; k < displayAreas.size(); k++) {
+            String text = result.texts().get(k) == null ? "Invalid regex" : result.texts().get(k);
+            TextArea displayArea = displayAreas.get(k);
+
+            if (!text.equals(displayArea.getText())) {
+                displayArea.setText(text);
             }
+        }
 
-            iterator.remove();
+        if (!result.unmatchedText().equals(unmatchedVarsArea.getText())) {
+            unmatchedVarsArea.setText(result.unmatchedText());
         }
 
-        knowledge.clear();
-        int j = -1;
+        List<List<String>> tiers = new ArrayList<>();
 
-        for (TextArea displayArea : displayAreas) {
-            if (displayArea.getText().isBlank()) continue;
-            j++;
-            for (String varName : displayArea.getText().split("[,;\\t\\s]+")) {
-                knowledge.addToTier(j, varName);
+        for (List<String> tier : result.tiers()) {
+            if (tier != null && !tier.isEmpty()) {
+                tiers.add(tier);
             }
         }
 
-        System.out.println("knowledge: " + knowledge);
-
-        try {
-            DataWriter.saveKnowledge(knowledge, new FileWriter(path));
-            savedRegexesInfo.setTierCount(displayAreas.size());
-            savedRegexesInfo.setRememberedRegexes(savedRegexesInfo.getRememberedRegexes());
-            File file = new File(path.getAbsolutePath() + ".regexes" + ".json");
-            Utils.jsonFromJava(savedRegexesInfo, file);
-        } catch (IOException e) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Error");
-            alert.setHeaderText("Error saving knowledge file.");
-            alert.setContentText(e.getMessage());
-            alert.showAndWait();
+        // Most keystrokes in a regex don't move any variables, and the knowledge is slow to fill for many variables.
+        if (!tiers.equals(shownTiers)) {
+            shownTiers = tiers;
+            knowledge.clear();
+
+            for (int j = 0; j < tiers.size(); j++) {
+                for (String varName : tiers.get(j)) {
+                    knowledge.addToTier(j, varName);
+                }
+            }
         }
+
+        save(tiers);
+    }
+
+    // Has the knowledge and the regexes written in the background. They are written from copies, since the
+    // knowledge and regexes may be edited again before they are written.
+    private void save(List<List<String>> tiers) {
+        savedRegexesInfo.setTierCount(displayAreas.size());
+        SavedRegexesInfo regexes = new SavedRegexesInfo(savedRegexesInfo.getVariables(),
+                savedRegexesInfo.getTierCount(), savedRegexesInfo.getRememberedRegexes());
+
+        PersistenceService.getInstance().write(path, () -> {
+            Knowledge copy = new Knowledge();
+
+            for (int j = 0; j < tiers.size(); j++) {
+                for (String varName : tiers.get(j)) {
+                    copy.addToTier(j, varName);
+                }
+            }
+
+            try {
+                StringWriter writer = new StringWriter();
+                DataWriter.saveKnowledge(copy, writer);
+                return writer.toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        PersistenceService.getInstance().write(new File(path.getAbsolutePath() + ".regexes" + ".json"),
+                () -> new Gson().toJson(regexes));
     }
 }
@@ -0,0 +1,79 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import io.github.cmuphil.tetradfx.utils.PendingArchive;
+import io.github.cmuphil.tetradfx.utils.PersistenceService;
+import io.github.cmuphil.tetradfx.utils.SessionArchive;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+
+import java.io.File;
+
+/**
+ * <p>Saves the session directory to a session (.tfx) file in the background, showing how many bytes
+ * have been written so far. If the session was saved to the same file before, only what has changed
+ * since is written. If the job is cancelled or fails, any earlier file by the same name is left as
+ * it was. Saves to the same file wait for one another (see SessionArchive), so two saves to it
+ * queued at once are made one after the other.</p>
+ *
+ * @author josephramsey
+ */
+public class SaveSessionJob extends Task<Void> {
+    private final File sessionDir;
+    private final File file;
+    private final PendingArchive pendingArchive;
+
+    /**
+     * Creates a job to save a session.
+     *
+     * @param sessionDir     The session directory.
+     * @param file           The file to save the session to.
+     * @param pendingArchive The session file the session was loaded from, if some of it has yet to be extracted,
+     *                       or null.
+     */
+    public SaveSessionJob(File sessionDir, File file, PendingArchive pendingArchive) {
+        this.sessionDir = sessionDir;
+        this.file = file;
+        this.pendingArchive = pendingArchive;
+
+        updateTitle("Saving " + file.getName());
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    @Override
+    protected Void call() throws Exception {
+
+        // Notes and tab orders still waiting to be written go in too.
+        PersistenceService.getInstance().flush();
+
+        // Everything has to be in the session directory to be saved.
+        if (pendingArchive != null) {
+            updateMessage("Extracting the rest of the session");
+            updateProgress(-1, 1);
+            pendingArchive.materializeAll();
+        }
+
+        updateMessage("Writing");
+
+        SessionArchive.update(sessionDir, file, (done, total) -> {
+            updateProgress(done, total);
+            updateMessage(done / (1024 * 1024) + " of " + total / (1024 * 1024) + " MB");
+        });
+
+        updateMessage("Done");
+        updateProgress(1, 1);
+        return null;
+    }
+
+    @Override
+    protected void failed() {
+        Throwable e = getException();
+        e.printStackTrace();
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error Dialog");
+        alert.setHeaderText(null);
+        alert.setContentText("The session could not be saved to " + file.getName() + ": " + e.getMessage());
+        alert.showAndWait();
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import edu.cmu.tetrad.algcomparison.algorithm.Algorithm;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.Knowledge;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.util.Parameters;
+import io.github.cmuphil.tetradfx.utils.ParameterStore;
+import io.github.cmuphil.tetradfx.utils.SearchCache;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A search run in the background by the JobManager. The search is done on a worker thread; when
+ * it finishes, the resulting graph is added to the project the search was started from, on the FX
+ * thread. (The user may have selected a different project in the meantime.)</p>
+ *
+ * <p>Before searching, the job looks the search up in the session's search cache; if the same
+ * search has been done before on the same data, the cached result is used instead. Searches that
+ * don't come out the same each time, such as those with bootstrapping, are neither looked up nor
+ * cached.</p>
+ *
+ * <p>The algorithms don't report their progress, so progress is shown as indeterminate while the
+ * search runs. If the job is cancelled, the worker thread is interrupted and any result is
+ * discarded.</p>
+ *
+ * @author josephramsey
+ */
+public class SearchJob extends Task<Graph> {
+    private final Algorithm algorithm;
+    private final DataSet dataSet;
+    private final Parameters parameters;
+    private final List<String> usedParameters;
+    private final Knowledge knowledge;
+    private final Project project;
+    private final SearchCache cache;
+
+    /**
+     * Creates a new search job.
+     *
+     * @param algorithm      The algorithm to run, fully configured.
+     * @param dataSet        The dataset to search over.
+     * @param parameters     The version of the parameters to search with, so that later edits to the parameters do
+     *                       not affect a search that is queued or running.
+     * @param usedParameters The names of the parameters the algorithm actually uses.
+     * @param knowledge      The knowledge set on the algorithm, or null if none was set.
+     * @param project        The project the result should be added to.
+     * @param cache          The cache of search results.
+     */
+    public SearchJob(Algorithm algorithm, DataSet dataSet, ParameterStore.Snapshot parameters,
+                     List<String> usedParameters, Knowledge knowledge, Project project, SearchCache cache) {
+        this.algorithm = algorithm;
+        this.dataSet = dataSet;
+        this.parameters = parameters.parameters();
+        this.usedParameters = new ArrayList<>(usedParameters);
+        this.knowledge = knowledge;
+        this.project = project;
+        this.cache = cache;
+
+        updateTitle(algorithm.getClass().getSimpleName());
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    @Override
+    protected Graph call() {
+        updateProgress(-1, 1);
+        String key = null;
+
+        if (SearchCache.isCacheable(parameters, usedParameters)) {
+            updateMessage("Checking for a cached result");
+            key = cache.getKey(algorithm, dataSet, parameters, usedParameters, knowledge);
+            Graph graph = cache.get(key);
+
+            if (graph != null) {
+                updateMessage("Found a cached result");
+                updateProgress(1, 1);
+                return graph;
+            }
+        }
+
+        updateMessage("Searching");
+        Graph graph = algorithm.search(dataSet, parameters);
+
+        if (isCancelled()) {
+            return null;
+        }
+
+        if (key != null) {
+            cache.put(key, graph);
+        }
+
+        updateMessage("Done");
+        updateProgress(1, 1);
+        return graph;
+    }
+
+    @Override
+    protected void succeeded() {
+        project.addSearchResult(algorithm.getClass().getSimpleName(), getValue(), true, parameters,
+                usedParameters);
+    }
+
+    @Override
+    protected void failed() {
+        Throwable e = getException();
+        e.printStackTrace();
+
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error Dialog");
+        alert.setHeaderText(null);
+        alert.setContentText("The " + getTitle() + " search failed: " + e.getMessage());
+        alert.showAndWait();
+    }
+}
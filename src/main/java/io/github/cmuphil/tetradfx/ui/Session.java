@@ -1,26 +1,20 @@
 package io.github.cmuphil.tetradfx.ui;
 
 import edu.cmu.tetrad.data.DataSet;
-import edu.cmu.tetrad.data.DelimiterType;
-import edu.cmu.tetrad.data.Knowledge;
-import edu.cmu.tetrad.data.SimpleDataLoader;
 import edu.cmu.tetrad.graph.Graph;
-import edu.cmu.tetrad.graph.GraphSaveLoadUtils;
-import edu.cmu.tetrad.graph.RandomGraph;
-import edu.cmu.tetrad.sem.LargeScaleSimulation;
 import edu.cmu.tetrad.util.Parameters;
-import edu.pitt.dbmi.data.reader.Delimiter;
+import io.github.cmuphil.tetradfx.utils.ParameterStore;
+import io.github.cmuphil.tetradfx.utils.PendingArchive;
+import io.github.cmuphil.tetradfx.utils.PersistenceService;
+import io.github.cmuphil.tetradfx.utils.SearchCache;
+import io.github.cmuphil.tetradfx.utils.SessionManifest;
 import io.github.cmuphil.tetradfx.utils.Utils;
+import javafx.application.Platform;
 import javafx.scene.Node;
-import javafx.scene.control.Alert;
-import javafx.scene.control.ButtonType;
-import javafx.scene.control.TreeItem;
-import javafx.scene.control.TreeView;
+import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -46,7 +40,18 @@ public class Session {
     private final File sessionDir;
     private final BorderPane parametersPane;
     private final BorderPane notesPane;
-    private final Parameters parameters;
+    private final ParameterStore parameterStore;
+    private final SearchCache searchCache;
+
+    // The session file this session was loaded from, if some of it has yet to be extracted.
+    private final PendingArchive pendingArchive;
+
+    // Projects from a saved session whose contents haven't been loaded yet.
+    private final Set<Project> unloadedProjects = new HashSet<>();
+
+    // Projects whose contents are being loaded; until they are, the manifest keeps what it said of them.
+    private final Set<Project> loadingProjects = new HashSet<>();
+    private SessionManifest manifest;
 
     private String selectedName;
 
@@ -63,6 +68,20 @@ public class Session {
         root.setExpanded(true);
 
         this.sessionDir = sessionDir;
+        // If the session file has changed or gone since the session was loaded from it, the user is told what became
+        // of the projects that hadn't been extracted yet.
+        List<String> warnings = new ArrayList<>();
+        this.pendingArchive = PendingArchive.resume(sessionDir, warnings);
+
+        if (!warnings.isEmpty()) {
+            Platform.runLater(() -> {
+                Alert alert = new Alert(Alert.AlertType.WARNING);
+                alert.setTitle("Warning Dialog");
+                alert.setHeaderText(null);
+                alert.setContentText(String.join("\n", warnings));
+                alert.showAndWait();
+            });
+        }
 
         if (!this.sessionDir.exists() || Objects.requireNonNull(this.sessionDir.listFiles()).length == 0) {
             boolean made = this.sessionDir.mkdir();
@@ -77,15 +96,12 @@ public class Session {
             sessionTreeView = new TreeView<>(projects);
             projects.setExpanded(true);
 
-            var graph = RandomGraph.randomGraphRandomForwardEdges(10, 0,
-                    20, 500, 100, 1000, false);
-            var simulation = new LargeScaleSimulation(graph);
-            simulation.setCoefRange(0, 0.5);
-            simulation.setSelfLoopCoef(0.1);
-            var dataSet = simulation.simulateDataReducedForm(1000);
+            // The sample project is shown at once; its data and true graph are simulated in the background.
             String newName = Utils.nextName("Sample Simulation", namesToProjects.keySet());
-            add(dataSet, graph, newName, "Sample Data", "True Graph");
+            Project project = add(null, null, newName, null, null);
             selectProject(newName);
+            JobManager.getInstance().submit(new SimulationJob(TetradFxMain.SimulationType.CONTINUOUS, 10, 20,
+                    1000, new Random().nextLong(), project, List.of("Sample Data"), "True Graph"));
 //            getSelectedProject().setParametersAndNotesText();
         } else {
             File[] projectDirs = this.sessionDir.listFiles();
@@ -100,8 +116,32 @@ public class Session {
 
             namesToProjects.clear();
 
+            // Projects are listed in the order the manifest gives, then any it doesn't know about. Nothing in a
+            // project is read until it is selected.
+            SessionManifest manifest = SessionManifest.read(this.sessionDir);
+            this.manifest = manifest;
+            List<String> projectNames = new ArrayList<>();
+
+            // The directories the manifest lists, which the scan below skips. These are compared by directory, not by
+            // name, since a name can't be told back from its directory when the name has an underscore in it.
+            Set<String> listedDirs = new HashSet<>();
+
+            if (manifest != null) {
+                for (SessionManifest.ProjectEntry entry : manifest.getProjects()) {
+                    if (new File(this.sessionDir, entry.getDirectory()).isDirectory()) {
+                        projectNames.add(entry.getName());
+                        listedDirs.add(entry.getDirectory());
+                    }
+                }
+            }
+
             for (File dir : projectDirs) {
-                if (!dir.isDirectory() && dir.getName().equals("parameters.json")) continue;
+                if (!dir.isDirectory() && (dir.getName().equals("parameters.json")
+                        || dir.getName().equals(SessionManifest.FILENAME)
+                        || dir.getName().equals(PendingArchive.MARKER))) continue;
+
+                // Directories like the search cache are not projects.
+                if (dir.isDirectory() && dir.getName().startsWith(".")) continue;
 
                 if (!dir.isDirectory()) {
                     try {
@@ -109,107 +149,51 @@ public class Session {
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
-                } else {
+                } else if (!listedDirs.contains(dir.getName())) {
                     String projectName = dir.getName().replace('_', ' ');
-                    File projectDir = new File(this.sessionDir, projectName.replace(" ", "_"));
-
-                    if (!namesToProjects.containsKey(projectName)) {
-                        Project _project = new Project(null, null, projectName, null, null, projectDir);
-                        namesToProjects.put(projectName, _project);
-                        TreeItem<String> childItem1 = _project.getTreeItem();
-                        projects.getChildren().add(childItem1);
-                        selectProject(projectName);
-                    }
-
-                    File dataDir = new File(dir, "data");
-                    File searchDir = new File(dir, "search");
-                    File knowledgeDir = new File(dir, "knowledge");
-                    File graphDir = new File(dir, "other_graphs");
-
-                    File orderFile = new File(dataDir, "taborder.txt");
-                    List<String> dataOrder = readTabOrder(orderFile);
 
-                    File[] dataFiles = dataDir.listFiles();
-
-                    if (dataFiles != null) {
-
-                        NAME:
-                        for (String name : new ArrayList<>(dataOrder)) {
-                            String filename = name.replace(" ", "_") + ".txt";
-
-                            for (File file : dataFiles) {
-                                if (file.getName().equals(filename)) {
-                                    loadDataFile(file);
-                                    continue NAME;
-                                }
-                            }
-                        }
-                    }
-
-                    List<String> searchOrder = readTabOrder(new File(searchDir, "taborder.txt"));
-
-                    var searchFiles = searchDir.listFiles();
-
-                    if (searchFiles != null) {
-
-                        NAME:
-                        for (String name : new ArrayList<>(searchOrder)) {
-                            String filename = name.replace(" ", "_");
-
-                            for (File file : searchFiles) {
-                                if (file.getName().equals(filename + ".txt")) {
-                                    loadSearchFile(file);
-                                    continue NAME;
-                                }
-                            }
-                        }
+                    if (!projectNames.contains(projectName)) {
+                        projectNames.add(projectName);
                     }
+                }
+            }
 
-                    List<String> knowledgeOrder = readTabOrder(new File(knowledgeDir, "taborder.txt"));
-
-                    var knowledgeFiles = knowledgeDir.listFiles();
-
-                    if (knowledgeFiles != null) {
-
-                        NAME:
-                        for (String name : new ArrayList<>(knowledgeOrder)) {
-                            String filename = name.replace(" ", "_") + ".txt";
-
-                            for (File file : knowledgeFiles) {
-                                 if (file.getName().equals(filename)) {
-                                    loadKnowledgeFile(file);
-                                    continue NAME;
-                                }
-                            }
-                        }
-                    }
-
-                    List<String> graphOrder = readTabOrder(new File(graphDir, "taborder.txt"));
-
-                    var graphFiles = graphDir.listFiles();
+            for (String projectName : projectNames) {
+                if (!namesToProjects.containsKey(projectName)) {
+                    File projectDir = new File(this.sessionDir, projectName.replace(" ", "_"));
+                    Project _project = new Project(null, null, projectName, null, null, projectDir);
+                    namesToProjects.put(projectName, _project);
+                    unloadedProjects.add(_project);
+                    projects.getChildren().add(_project.getTreeItem());
+                }
+            }
 
-                    if (graphFiles != null) {
+            if (projectNames.isEmpty()) {
+                throw new NullPointerException("There were no projects in the session directory");
+            }
 
-                        NAME:
-                        for (String name : new ArrayList<>(graphOrder)) {
-                            String filename = name.replace(" ", "_") + ".txt";
+            String selected = projectNames.get(projectNames.size() - 1);
 
-                            for (File file : graphFiles) {
-                                   if (file.getName().equals(filename)) {
-                                    loadGraphFile(file);
-                                    continue NAME;
-                                }
-                            }
-                        }
-                    }
-                }
+            if (manifest != null && manifest.getSelected() != null && namesToProjects.containsKey(manifest.getSelected())) {
+                selected = manifest.getSelected();
             }
 
-            getSelectedProject().setParametersAndNotesText();
+            selectProject(selected);
         }
 
         System.out.println("dir: " + this.sessionDir.getAbsolutePath());
 
+        // Projects that haven't been opened yet show what they hold in a tooltip.
+        sessionTreeView.setCellFactory(view -> new TreeCell<>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+                SessionManifest.ProjectEntry entry = empty || manifest == null ? null : manifest.getProject(item);
+                setTooltip(entry == null ? null : new Tooltip(entry.getSummary()));
+            }
+        });
+
         sessionTreeView.setOnMouseClicked(event -> {
             if (event.getClickCount() == 1) {
                 var selectedItem = sessionTreeView.getSelectionModel().getSelectedItem();
@@ -220,71 +204,12 @@ public class Session {
             }
         });
 
-        this.parameters = Utils.loadParameters(new File(sessionDir, "parameters.json"));
-    }
-
-    private void loadGraphFile(File file) {
-        if (file.getName().endsWith("txt") && !file.getName().toLowerCase().contains("note")) {
-            Graph _graph = GraphSaveLoadUtils.loadGraphTxt(file);
-            getSelectedProject().addGraph(file.getName().replace('_', ' ').replace(".txt", ""), _graph, false);
-        } else if (file.getName().endsWith("json")) {
-//                                Graph _graph = (Graph) ChangedStuffINeed.javaFromJson(file, EdgeListGraph.class);
-            Graph _graph = GraphSaveLoadUtils.loadGraphJson(file);
-            getSelectedProject().addGraph(file.getName().replace('_', ' ').replace(".json", ""), _graph, false);
-        }
-    }
-
-    private void loadKnowledgeFile(File file) {
-        if (file.getName().endsWith("txt") && !file.getName().toLowerCase().contains("note")) {
-            try {
-                Knowledge knowledge = SimpleDataLoader.loadKnowledge(file, DelimiterType.WHITESPACE,
-                        "//");
-                getSelectedProject().addKnowledge(file.getName().replace('_', ' ').replace(".txt", ""),
-                        knowledge, false);
-            } catch (IOException e) {
-                Alert alert = new Alert(Alert.AlertType.ERROR);
-                alert.setTitle("Error Dialog");
-                alert.setHeaderText(null); // You can set a header text or keep it null
-                alert.setContentText("Could not load knowledge file: " + e.getMessage());
-                alert.showAndWait();
-            }
-        }
-    }
-
-    private void loadSearchFile(File file) {
-        if (file.getName().endsWith("txt") && !file.getName().toLowerCase().contains("note")) {
-            var _graph = GraphSaveLoadUtils.loadGraphTxt(file);
-            getSelectedProject().addSearchResult(
-                    file.getName().replace('_', ' ').replace(".txt",
-                            ""), _graph, false, getParameters(), new ArrayList<>());
-        } else if (file.getName().endsWith("json")) {
-//                                Graph _graph = (Graph) ChangedStuffINeed.javaFromJson(file, EdgeListGraph.class);
-            var _graph = GraphSaveLoadUtils.loadGraphJson(file);
-            getSelectedProject().addSearchResult(
-                    file.getName().replace('_', ' ').replace(".json",
-                            ""), _graph , false, getParameters(), new ArrayList<>());
-        }
-    }
+        this.parameterStore = new ParameterStore(new File(sessionDir, "parameters.json"));
+        this.searchCache = new SearchCache(new File(sessionDir, SearchCache.DIRECTORY));
 
-    private void loadDataFile(File file) {
-        if (file.getName().endsWith(".txt") && !file.getName().toLowerCase().contains("note")) {
-            try {
-                int maxNumCategories = 5;
-                DataSet _dataSet = SimpleDataLoader.loadMixedData(file, "//", '\"',
-                        "*", true, maxNumCategories, Delimiter.TAB, false);
-
-                String name = _dataSet.getName();
-
-                if (name.endsWith(".txt")) name = name.substring(0, name.length() - 4);
-
-                String replace = name.replace('_', ' ');
-                getSelectedProject().addDataSet(replace, _dataSet, false);
-            } catch (IOException e) {
-                Alert alert = new Alert(Alert.AlertType.ERROR);
-                alert.setTitle("Error Dialog");
-                alert.setContentText(e.getMessage());
-                alert.showAndWait();
-            }
+        // If the session was loaded from a session file, extract the rest of it in the background.
+        if (pendingArchive != null) {
+            JobManager.getInstance().submitIO(new ExtractSessionJob(pendingArchive));
         }
     }
 
@@ -300,6 +225,34 @@ public class Session {
         parametersPane.setCenter(getSelectedProject().getParametersArea());
         getSelectedProject().setParametersAndNotesText();
         sessionTreeView.getSelectionModel().select(getSelectedProject().getTreeItem());
+
+        // The first time a project from a saved session is selected, its contents are loaded in the background.
+        Project project = getSelectedProject();
+
+        if (unloadedProjects.remove(project)) {
+            loadingProjects.add(project);
+
+            // Once the project is loaded, the manifest lists what it holds now. If loading is cancelled or fails (the
+            // loader reports the error), try again the next time the project is selected.
+            ProjectLoader loader = new ProjectLoader(selectedName, project,
+                    new File(sessionDir, selectedName.replace(" ", "_")), pendingArchive, loaded -> {
+                loadingProjects.remove(project);
+
+                if (!namesToProjects.containsValue(project)) {
+                    return;
+                }
+
+                if (loaded) {
+                    writeManifest();
+                } else {
+                    unloadedProjects.add(project);
+                }
+            });
+
+            JobManager.getInstance().submitIO(loader);
+        }
+
+        writeManifest();
     }
 
     /**
@@ -368,8 +321,9 @@ public class Session {
      * @param projectName The name of the project.
      * @param dataName    The name of the dataset. (This may be null.)
      * @param graphName   The name of the graph. (This may be null.)
+     * @return The project.
      */
-    public void add(DataSet dataSet, Graph graph, String projectName, String dataName, String graphName) {
+    public Project add(DataSet dataSet, Graph graph, String projectName, String dataName, String graphName) {
         var sessionDir = new File(this.sessionDir, projectName.replace(" ", "_"));
 
         if (!sessionDir.exists()) {
@@ -389,6 +343,7 @@ public class Session {
         TreeItem<String> item = getSelectedProject().getTreeItem();
         projects.getChildren().add(item);
         selectProject(projectName);
+        return project;
     }
 
     /**
@@ -503,23 +458,7 @@ public class Session {
 
             alert.showAndWait().ifPresent(response -> {
                 if (response == myYesButton) {
-                    namesToProjects.remove(selectedName);
-                    projects.getChildren().remove(selectedProject.getTreeItem());
-
-                    File _dir = new File(sessionDir, selectedName.replace(" ", "_"));
-
-                    try {
-                        if (_dir.exists()) {
-                            deleteDirectory(_dir.toPath());
-                        } else {
-                            System.out.println("Directory does not exist: " + _dir.getAbsolutePath());
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-
-                    TreeItem<String> treeItem = projects.getChildren().get(0);
-                    selectProject(treeItem.getValue());
+                    remove(selectedName, selectedProject);
                 } else if (response == myNoButton) {
                     System.out.println("User clicked Cancel");
                 }
@@ -527,27 +466,137 @@ public class Session {
         }
     }
 
+    /**
+     * Removes a project from the session and deletes its directory, unless it is the only project in the session,
+     * which is kept so that there is always a project to select. This is for projects the user didn't ask to delete,
+     * such as one made for a simulation that failed, so nothing is asked.
+     *
+     * @param project The project.
+     * @return True if the project was removed.
+     */
+    public boolean removeProject(Project project) {
+        for (Map.Entry<String, Project> entry : namesToProjects.entrySet()) {
+            if (entry.getValue() == project) {
+                if (namesToProjects.size() == 1) {
+                    return false;
+                }
+
+                remove(entry.getKey(), project);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void remove(String name, Project project) {
+        namesToProjects.remove(name);
+        unloadedProjects.remove(project);
+        loadingProjects.remove(project);
+        projects.getChildren().remove(project.getTreeItem());
+
+        // Its tabs aren't closed, so its datasets' statistics are dropped here.
+        project.getStatisticsCache().clear();
+
+        File _dir = new File(sessionDir, name.replace(" ", "_"));
+
+        if (pendingArchive != null) {
+            pendingArchive.discard(_dir.getName());
+        }
+
+        PersistenceService.getInstance().discard(_dir, "");
+
+        try {
+            if (_dir.exists()) {
+                deleteDirectory(_dir.toPath());
+            } else {
+                System.out.println("Directory does not exist: " + _dir.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        // The selection only moves if the project removed was the one selected.
+        selectProject(name.equals(selectedName) ? projects.getChildren().get(0).getValue() : selectedName);
+    }
+
+    /**
+     * Returns the current parameters of the session, for reading. They are changed through the parameter store.
+     *
+     * @return The parameters.
+     */
     public Parameters getParameters() {
-        return this.parameters;
+        return this.parameterStore.getParameters();
+    }
+
+    /**
+     * Returns the store of the session's parameters, through which they are changed and saved.
+     *
+     * @return The parameter store.
+     */
+    public ParameterStore getParameterStore() {
+        return parameterStore;
     }
 
     public File getSessionDir() {
         return sessionDir;
     }
 
-    private List<String> readTabOrder(File file) {
-        try {
-            BufferedReader buf = new BufferedReader(new FileReader(file));
-            String line;
-            List<String> tabOrder = new ArrayList<>();
+    /**
+     * Returns the session file this session was loaded from, if some of it has yet to be extracted.
+     *
+     * @return The session file, or null if everything has been extracted.
+     */
+    public PendingArchive getPendingArchive() {
+        return pendingArchive;
+    }
 
-            while ((line = buf.readLine()) != null) {
-                tabOrder.add(line);
-            }
+    /**
+     * Returns the cache of search results for this session, stored under the session directory.
+     *
+     * @return The search cache.
+     */
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
 
-            return tabOrder;
-        } catch (Exception e) {
-            return new ArrayList<>();
+    /**
+     * Writes the session manifest, listing the projects in the session with what each holds, and the selected
+     * project. This is done whenever a project is added, deleted, selected or loaded. What a project holds is taken
+     * from its tabs; a project that hasn't been loaded yet is listed as the manifest listed it before, so the disk is
+     * only read for a project the manifest didn't know about.
+     */
+    private void writeManifest() {
+        SessionManifest manifest = new SessionManifest();
+
+        for (TreeItem<String> item : projects.getChildren()) {
+            String name = item.getValue();
+            Project project = namesToProjects.get(name);
+            File dir = new File(sessionDir, name.replace(" ", "_"));
+            SessionManifest.ProjectEntry previous = this.manifest == null ? null : this.manifest.getProject(name);
+
+            if (unloadedProjects.contains(project) || loadingProjects.contains(project)) {
+                if (previous != null) {
+                    manifest.addProject(previous);
+                } else {
+                    manifest.addProject(name, dir);
+                }
+            } else {
+                manifest.addProject(name, dir, tabNames(project.getDataNames()), tabNames(project.getSearchNames()),
+                        tabNames(project.getKnowledgeNames()), tabNames(project.getGraphNames()));
+            }
         }
+
+        manifest.setSelected(selectedName);
+        manifest.write(sessionDir);
+        this.manifest = manifest;
+        sessionTreeView.refresh();
+    }
+
+    // The names of the tabs, leaving out the tab for adding more, as the tab order files do.
+    private static List<String> tabNames(Collection<String> names) {
+        List<String> _names = new ArrayList<>(names);
+        _names.remove(" + ");
+        return _names;
     }
 }
@@ -0,0 +1,361 @@
+package io.github.cmuphil.tetradfx.ui;
+
+import edu.cmu.tetrad.algcomparison.graph.SingleGraph;
+import edu.cmu.tetrad.algcomparison.simulation.BayesNetSimulation;
+import edu.cmu.tetrad.algcomparison.simulation.LeeHastieSimulation;
+import edu.cmu.tetrad.algcomparison.simulation.Simulation;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.graph.EdgeListGraph;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.RandomGraph;
+import edu.cmu.tetrad.sem.LargeScaleSimulation;
+import edu.cmu.tetrad.util.Parameters;
+import edu.cmu.tetrad.util.Params;
+import edu.cmu.tetrad.util.RandomUtil;
+import io.github.cmuphil.tetradfx.utils.ColumnarData;
+import io.github.cmuphil.tetradfx.utils.LinearSemSampler;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Simulates data in the background and, when it is done, adds the true graph and the data to a
+ * project, on the FX thread. Several replicates--datasets drawn from models with the same true
+ * graph--can be simulated at once; they are simulated in parallel, on a pool with one thread per
+ * core, and each draws from its own random stream, split off from the job's seed, so that the
+ * simulation can be repeated from its seed however the replicates happen to be scheduled. (Tetrad's
+ * Bayes net simulation also draws from generators of its own that can't be seeded, so discrete
+ * replicates are independent but don't come out the same twice.)</p>
+ *
+ * <p>Each replicate is written straight to the project's data directory in the columnar format, so
+ * the project doesn't save it again. Continuous data are drawn and written a block of rows at a
+ * time, so a large sample is never held in memory twice; discrete and mixed data are simulated
+ * whole by Tetrad and then written.</p>
+ *
+ * <p>Progress is reported in rows simulated. If the job is cancelled or fails, the files already
+ * written are deleted, and the project made for the simulation is removed from the session, unless
+ * it is the only project there. A file that can't be deleted is reported along with the error, or
+ * on its own if the job was cancelled.</p>
+ *
+ * @author josephramsey
+ */
+public class SimulationJob extends Task<SimulationJob.Result> {
+
+    // The number of rows of continuous data drawn and written at a time, for each replicate.
+    private static final int BLOCK_SIZE = 10000;
+
+    // Simulates the replicates of all simulation jobs.
+    private static final ExecutorService SIMULATION_POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "tetrad-fx-simulation-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final TetradFxMain.SimulationType type;
+    private final int numVariables;
+    private final int numEdges;
+    private final int sampleSize;
+    private final long seed;
+    private final Project project;
+    private final List<String> dataNames;
+    private final List<File> files = new ArrayList<>();
+    private final String graphName;
+    private final AtomicLong rowsDone = new AtomicLong();
+
+    // Set when a replicate has failed or the job has been cancelled, to stop the other replicates.
+    private volatile boolean stopped;
+
+    // Set once call() has finished with every replicate written. If the job is cancelled after that, the files are
+    // discarded in cancelled(); before that, call() discards them itself, once nothing is writing them any more.
+    private final Object finishLock = new Object();
+    private boolean finished;
+
+    /**
+     * Creates a job to simulate data for a project.
+     *
+     * @param type         The type of data to simulate.
+     * @param numVariables The number of variables.
+     * @param numEdges     The number of edges in the true graph.
+     * @param sampleSize   The number of rows of each replicate.
+     * @param seed         The seed the simulation is drawn from.
+     * @param project      The project the true graph and data are added to.
+     * @param dataNames    The names of the datasets, one for each replicate.
+     * @param graphName    The name of the true graph.
+     */
+    public SimulationJob(TetradFxMain.SimulationType type, int numVariables, int numEdges, int sampleSize, long seed,
+                         Project project, List<String> dataNames, String graphName) {
+        if (numVariables < 1 || numEdges < 0 || sampleSize < 1 || dataNames.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one variable, one row and one replicate, "
+                    + "and the number of edges can't be negative.");
+        }
+
+        this.type = type;
+        this.numVariables = numVariables;
+        this.numEdges = numEdges;
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+        this.project = project;
+        this.dataNames = new ArrayList<>(dataNames);
+        this.graphName = graphName;
+
+        for (String name : dataNames) {
+            files.add(new File(project.getDataDir(), name.replace(' ', '_') + ColumnarData.EXTENSION));
+        }
+
+        updateTitle("Simulating " + type.name().toLowerCase() + " data");
+        updateMessage("Queued");
+        updateProgress(0, 1);
+    }
+
+    /**
+     * The true graph and the replicates, in the order of their names.
+     *
+     * @param graph    The true graph.
+     * @param dataSets The replicates.
+     */
+    public record Result(Graph graph, List<DataSet> dataSets) {
+    }
+
+    @Override
+    protected Result call() throws Exception {
+        List<Future<DataSet>> futures = new ArrayList<>();
+
+        try {
+            SplittableRandom random = new SplittableRandom(seed);
+
+            seedTetrad(random.nextLong());
+            Graph graph = RandomGraph.randomGraphRandomForwardEdges(numVariables, 0, numEdges, 500, 100, 1000,
+                    false);
+
+            // The streams are split off here, in order, so that each replicate gets the same one however they run.
+            // Each replicate gets its own copy of the graph too, since Tetrad's simulations may cache things in it.
+            for (int r = 0; r < files.size(); r++) {
+                SplittableRandom stream = random.split();
+                Graph copy = new EdgeListGraph(graph);
+                File file = files.get(r);
+                futures.add(SIMULATION_POOL.submit(() -> simulate(copy, stream, file)));
+            }
+
+            List<DataSet> dataSets = new ArrayList<>();
+
+            for (Future<DataSet> future : futures) {
+                dataSets.add(future.get());
+            }
+
+            synchronized (finishLock) {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                finished = true;
+            }
+
+            updateMessage(String.format("Simulated %,d rows", rowsDone.get()));
+            updateProgress(1, 1);
+            return new Result(graph, dataSets);
+        } catch (Exception e) {
+
+            // The other replicates stop at their next block, or before they start; once they have, none of the files
+            // is being written, and they can all be discarded.
+            stopped = true;
+            awaitAll(futures);
+
+            Exception failure = e instanceof ExecutionException && e.getCause() instanceof Exception cause ? cause : e;
+            discard(failure);
+            throw failure;
+        }
+    }
+
+    // Simulates one replicate and writes it to its file. This runs on the simulation pool.
+    private DataSet simulate(Graph graph, SplittableRandom random, File file) throws IOException {
+        checkStopped();
+        seedTetrad(random.nextLong());
+
+        if (type == TetradFxMain.SimulationType.CONTINUOUS) {
+            LargeScaleSimulation simulation = new LargeScaleSimulation(graph);
+            simulation.setCoefRange(0, 0.5);
+            simulation.setSelfLoopCoef(0.1);
+            LinearSemSampler sampler = new LinearSemSampler(simulation, random);
+            int numColumns = sampler.getVariables().size();
+            double[][] block = new double[numColumns][Math.min(BLOCK_SIZE, sampleSize)];
+
+            try (ColumnarData.Writer writer = new ColumnarData.Writer(file, sampler.getVariables(), sampleSize)) {
+                for (int firstRow = 0; firstRow < sampleSize; firstRow += BLOCK_SIZE) {
+                    checkStopped();
+                    int count = Math.min(BLOCK_SIZE, sampleSize - firstRow);
+                    sampler.sample(block, count);
+
+                    for (int j = 0; j < numColumns; j++) {
+                        writer.writeContinuous(j, firstRow, block[j], count);
+                    }
+
+                    addRows(count);
+                }
+            }
+
+            // Read back from the file, so that the data are held in memory once, in columns, as if the project had
+            // been loaded.
+            return ColumnarData.read(file);
+        } else {
+            Parameters parameters = new Parameters();
+            parameters.set(Params.SAMPLE_SIZE, sampleSize);
+            parameters.set(Params.NUM_RUNS, 1);
+
+            Simulation simulation = type == TetradFxMain.SimulationType.DISCRETE
+                    ? new BayesNetSimulation(new SingleGraph(graph))
+                    : new LeeHastieSimulation(new SingleGraph(graph));
+            simulation.createData(parameters, true);
+            DataSet dataSet = (DataSet) simulation.getDataModel(0);
+
+            checkStopped();
+            ColumnarData.write(dataSet, file);
+            addRows(sampleSize);
+            return dataSet;
+        }
+    }
+
+    private void checkStopped() {
+        if (stopped || isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    // Waits for every replicate to finish, one way or another.
+    private static void awaitAll(List<Future<DataSet>> futures) {
+        boolean interrupted = false;
+
+        for (Future<DataSet> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Tetrad draws from a random generator kept for each thread, so seeding it here seeds the simulation done on
+    // this thread. Its table of generators isn't synchronized, so new threads are added to it one at a time.
+    private static void seedTetrad(long seed) {
+        synchronized (RandomUtil.class) {
+            RandomUtil.getInstance().setSeed(seed);
+        }
+    }
+
+    private void addRows(int count) {
+        long total = (long) sampleSize * files.size();
+        long done = rowsDone.addAndGet(count);
+        updateMessage(String.format("Simulated %,d of %,d rows", done, total));
+        updateProgress(done, total);
+    }
+
+    // Deletes the files written so far and then, on the FX thread, the project made for them. A file that can't be
+    // deleted is added to the failure, to be shown with it, or shown on its own if there is no failure to show.
+    private void discard(Exception failure) {
+        try {
+            deleteFiles();
+        } catch (IOException e) {
+            if (failure != null && !isCancelled()) {
+                failure.addSuppressed(e);
+            } else {
+                Platform.runLater(() -> showError("The simulated data could not all be deleted: " + e.getMessage()));
+            }
+        }
+
+        Platform.runLater(() -> Session.getInstance().removeProject(project));
+    }
+
+    private void deleteFiles() throws IOException {
+        IOException failure = null;
+
+        for (File file : files) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                IOException error = new IOException("Could not delete " + file, e);
+
+                if (failure == null) {
+                    failure = error;
+                } else {
+                    failure.addSuppressed(error);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    protected void succeeded() {
+        Result result = getValue();
+
+        for (int r = 0; r < dataNames.size(); r++) {
+            project.addDataSet(dataNames.get(r), result.dataSets().get(r), false, false);
+        }
+
+        project.addGraph(graphName, result.graph(), false);
+    }
+
+    @Override
+    protected void cancelled() {
+        synchronized (finishLock) {
+            if (!finished) {
+                return;
+            }
+        }
+
+        discard(null);
+    }
+
+    @Override
+    protected void failed() {
+        Throwable e = getException();
+        e.printStackTrace();
+
+        StringBuilder text = new StringBuilder("The data could not be simulated: " + e.getMessage());
+
+        for (Throwable suppressed : e.getSuppressed()) {
+            text.append("\n").append(suppressed.getMessage());
+
+            for (Throwable more : suppressed.getSuppressed()) {
+                text.append("\n").append(more.getMessage());
+            }
+        }
+
+        showError(text.toString());
+    }
+
+    private static void showError(String text) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error Dialog");
+        alert.setHeaderText(null);
+        alert.setContentText(text);
+        alert.showAndWait();
+    }
+}
@@ -1,18 +1,12 @@
 package io.github.cmuphil.tetradfx.ui;
 
-import edu.cmu.tetrad.algcomparison.graph.RandomForward;
-import edu.cmu.tetrad.algcomparison.simulation.BayesNetSimulation;
-import edu.cmu.tetrad.algcomparison.simulation.LeeHastieSimulation;
-import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.Knowledge;
-import edu.cmu.tetrad.data.SimpleDataLoader;
 import edu.cmu.tetrad.graph.Graph;
 import edu.cmu.tetrad.graph.GraphSaveLoadUtils;
-import edu.cmu.tetrad.graph.RandomGraph;
-import edu.cmu.tetrad.sem.LargeScaleSimulation;
-import edu.cmu.tetrad.util.Parameters;
 import edu.pitt.dbmi.data.reader.Delimiter;
+import io.github.cmuphil.tetradfx.utils.ParallelDataLoader;
 import io.github.cmuphil.tetradfx.utils.Utils;
+import javafx.concurrent.Task;
 import javafx.geometry.Orientation;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -23,8 +17,9 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * <p>Dislays all of the projects for a session.</p>
@@ -34,6 +29,10 @@ import java.util.List;
 public class TetradFxMain {
     private static final TetradFxMain INSTANCE = new TetradFxMain();
 
+    // The file the session was last saved to or loaded from, offered again when saving, since saving to the same
+    // file only writes what has changed.
+    private File sessionFile;
+
     /**
      * @return The singleton instance of this class.
      */
@@ -41,38 +40,6 @@ public class TetradFxMain {
         return TetradFxMain.INSTANCE;
     }
 
-    /**
-     * Gets a simulation. This just returns some stock simulations for now.
-     *
-     * @param parameters The parameters.
-     * @param type       The type of simulation.
-     * @return The result of the simulation.
-     */
-    // This will eventually be replaced by some flexible UI for making simulations (or eliminated).
-    private static Result getSimulation(Parameters parameters, SimulationType type) {
-        if (type == SimulationType.CONTINUOUS) {
-            Graph graph = RandomGraph.randomGraphRandomForwardEdges(20, 0,
-                    40, 500, 100, 1000, false);
-            LargeScaleSimulation simulation = new LargeScaleSimulation(graph);
-            simulation.setCoefRange(0, 0.5);
-            simulation.setSelfLoopCoef(0.1);
-            DataSet dataSet = simulation.simulateDataReducedForm(1000);
-            return new Result(graph, dataSet);
-        } else if (type == SimulationType.DISCRETE) {
-            BayesNetSimulation simulation = new BayesNetSimulation(new RandomForward());
-            simulation.createData(parameters, true);
-            Graph graph = simulation.getTrueGraph(0);
-            DataSet dataSet = (DataSet) simulation.getDataModel(0);
-            return new Result(graph, dataSet);
-        } else {
-            LeeHastieSimulation simulation = new LeeHastieSimulation(new RandomForward());
-            simulation.createData(parameters, true);
-            Graph graph = simulation.getTrueGraph(0);
-            DataSet dataSet = (DataSet) simulation.getDataModel(0);
-            return new Result(graph, dataSet);
-        }
-    }
-
     /**
      * Creates the root pane. Passing primaryStage in here so that I can quit the application from a menu item and pop
      * up dialogs.
@@ -118,6 +85,7 @@ public class TetradFxMain {
         BorderPane borderPane = new BorderPane();
         borderPane.setCenter(mainSplit);
         borderPane.setTop(menuBar);
+        borderPane.setBottom(JobManager.getInstance().getStatusBar());
 
         StackPane root = new StackPane();
         root.getChildren().add(borderPane);
@@ -247,6 +215,12 @@ public class TetradFxMain {
             fileChooser.setSelectedExtensionFilter(imageFilter);
 
             File selectedFile = fileChooser.showOpenDialog(primaryStage);
+
+            if (selectedFile == null) {
+                return;
+            }
+
+            sessionFile = selectedFile;
             loadSession(selectedFile, primaryStage);
         });
 
@@ -261,9 +235,20 @@ public class TetradFxMain {
             // Make the imageFilter the default
             fileChooser.setSelectedExtensionFilter(imageFilter);
 
+            if (sessionFile != null) {
+                fileChooser.setInitialDirectory(sessionFile.getAbsoluteFile().getParentFile());
+                fileChooser.setInitialFileName(sessionFile.getName());
+            }
+
             File selectedFile = fileChooser.showSaveDialog(primaryStage);
-            String userHomeDirectory = System.getProperty("user.home");
 
+            if (selectedFile == null) {
+                return;
+            }
+
+            sessionFile = selectedFile;
+
+            String userHomeDirectory = System.getProperty("user.home");
             saveSession(selectedFile, new File(userHomeDirectory, ".tetrad-fx-session"));
         });
 
@@ -298,8 +283,7 @@ public class TetradFxMain {
         Menu search = new Menu("Search");
         Menu searchMenu = new Menu("Search on Selected Data");
 
-        searchMenu.getItems().addAll(MenuItems.searchFromDataMenuItems(Session.getInstance().getParameters(),
-                Session.getInstance().getSessionDir()));
+        searchMenu.getItems().addAll(MenuItems.searchFromDataMenuItems(Session.getInstance().getParameterStore()));
 
         search.getItems().addAll(searchMenu);
         search.getItems().addAll(new SeparatorMenuItem());
@@ -365,106 +349,113 @@ public class TetradFxMain {
 
             Delimiter delimiter = delimiter1;
 
-            // You can add further processing based on the type of dataset chosen.
+            ParallelDataLoader.DataType dataType;
+
             if (continuousBtn.isSelected()) {
-                loadContinuous(selectedFile, hasHeader, delimiter);
+                dataType = ParallelDataLoader.DataType.CONTINUOUS;
             } else if (discreteBtn.isSelected()) {
-                loadDiscrete(selectedFile, hasHeader, delimiter);
+                dataType = ParallelDataLoader.DataType.DISCRETE;
             } else {
-                loadMixed(selectedFile, textField, hasHeader, delimiter);
+                dataType = ParallelDataLoader.DataType.MIXED;
             }
+
+            int maxNumCategories = dataType == ParallelDataLoader.DataType.MIXED ? Integer.parseInt(textField.getText()) : 0;
+
+            // The data are read in the background; the project is added when they have been.
+            JobManager.getInstance().submitIO(new ImportDataJob(selectedFile, dataType, maxNumCategories, hasHeader,
+                    delimiter));
         } else {
             System.out.println("File selection cancelled.");
         }
     }
 
     /**
-     * Loads continuous data.
+     * Asks for the size of a simulation and adds it to the session as a new project. The project is added at once;
+     * its data and true graph are simulated in the background and added to it when they are done.
      *
-     * @param selectedFile The selected file.
+     * @param type The type of simulation.
      */
-    private void loadContinuous(File selectedFile, boolean hasHeader, Delimiter delimiter) {
-        try {
-            DataSet dataSet = SimpleDataLoader.loadContinuousData(selectedFile, "//", '\"',
-                    "*", hasHeader, delimiter, false);
-            String name = selectedFile.getName();
-            dataSet.setName(name);
-            Session.getInstance().add(dataSet, null, Utils.nextName(selectedFile.getName(),
-                            Session.getInstance().getProjectNames()),
-                    "Data", null);
-        } catch (IOException ex) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Error");
-            alert.setHeaderText("Error loading continuous data.");
-            alert.setContentText(ex.getMessage());
-            alert.showAndWait();
+    private void addSimulation(SimulationType type) {
+        TextField numVariablesField = new TextField("20");
+        TextField numEdgesField = new TextField("40");
+        TextField sampleSizeField = new TextField("1000");
+        TextField numReplicatesField = new TextField("1");
+        TextField seedField = new TextField();
+        seedField.setPromptText("Random");
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Number of variables:"), numVariablesField);
+        grid.addRow(1, new Label("Number of edges:"), numEdgesField);
+        grid.addRow(2, new Label("Sample size:"), sampleSizeField);
+        grid.addRow(3, new Label("Number of replicates:"), numReplicatesField);
+        grid.addRow(4, new Label("Seed:"), seedField);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Simulation");
+        dialog.setHeaderText("Simulate " + type.name().toLowerCase() + " data. Each replicate is drawn from a "
+                + "model with the same true graph.");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        if (dialog.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+            return;
         }
-    }
 
-    /**
-     * Loads discrete data.
-     *
-     * @param selectedFile The selected file.
-     */
-    private void loadDiscrete(File selectedFile, boolean hasHeader, Delimiter delimiter) {
+        int numVariables;
+        int numEdges;
+        int sampleSize;
+        int numReplicates;
+        long seed;
+
         try {
-            DataSet dataSet = SimpleDataLoader.loadDiscreteData(selectedFile, "//",
-                    '\"', "*", hasHeader, delimiter, false);
-            Session.getInstance().add(dataSet, null, Utils.nextName(selectedFile.getName(),
-                            Session.getInstance().getProjectNames()),
-                    "Data", null);
-        } catch (IOException ex) {
+            numVariables = Integer.parseInt(numVariablesField.getText().trim());
+            numEdges = Integer.parseInt(numEdgesField.getText().trim());
+            sampleSize = Integer.parseInt(sampleSizeField.getText().trim());
+            numReplicates = Integer.parseInt(numReplicatesField.getText().trim());
+            seed = seedField.getText().isBlank() ? new Random().nextLong() : Long.parseLong(seedField.getText().trim());
+        } catch (NumberFormatException e) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Error");
-            alert.setHeaderText("Error loading discrete data.");
-            alert.setContentText(ex.getMessage());
+            alert.setTitle("Error Dialog");
+            alert.setHeaderText(null);
+            alert.setContentText("Please enter whole numbers: " + e.getMessage());
             alert.showAndWait();
+            return;
         }
-    }
 
-    /**
-     * Loads mixed data.
-     *
-     * @param selectedFile The selected file.
-     * @param textField    The text field.
-     */
-    private void loadMixed(File selectedFile, TextField textField, boolean hasHeader, Delimiter delimiter) {
-        try {
-            int maxNumCategories = Integer.parseInt(textField.getText());
-            DataSet dataSet = SimpleDataLoader.loadMixedData(selectedFile, "//", '\"',
-                    "*", hasHeader, maxNumCategories, delimiter, false);
-            Session.getInstance().add(dataSet, null, Utils.nextName(selectedFile.getName(),
-                            Session.getInstance().getProjectNames()),
-                    "Data", null);
-        } catch (IOException ex) {
+        if (numVariables < 1 || numEdges < 0 || sampleSize < 1 || numReplicates < 1) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Error");
-            alert.setHeaderText("Error loading mixed data.");
-            alert.setContentText(ex.getMessage());
+            alert.setTitle("Error Dialog");
+            alert.setHeaderText(null);
+            alert.setContentText("There must be at least one variable, one row and one replicate, and the number "
+                    + "of edges can't be negative.");
             alert.showAndWait();
+            return;
+        }
+
+        // A single replicate is named as before; several are numbered.
+        List<String> dataNames = new ArrayList<>();
+
+        for (int r = 0; r < numReplicates; r++) {
+            dataNames.add(numReplicates == 1 ? "Data" : Utils.nextName("Data", dataNames));
         }
-    }
 
-    /**
-     * Adds a simulation to the session.
-     *
-     * @param type The type of simulation.
-     */
-    private void addSimulation(SimulationType type) {
-        Result result = getSimulation(new Parameters(), type);
         String newName = Utils.nextName("Simulation", Session.getInstance().getProjectNames());
-        Session.getInstance().add(result.dataSet(), result.graph(), newName,
-                "Data", "True Graph");
+        Project project = Session.getInstance().add(null, null, newName, null, null);
+        JobManager.getInstance().submit(new SimulationJob(type, numVariables, numEdges, sampleSize, seed, project,
+                dataNames, "True Graph"));
     }
 
     /**
-     * Saves the session.
+     * Saves the session in the background.
      *
      * @param zipFile The zip file.
      * @param dir     The directory.
      */
     private static void saveSession(File zipFile, File dir) {
-        Utils.zip(dir, zipFile);
+        JobManager.getInstance().submitIO(new SaveSessionJob(dir, zipFile,
+                Session.getInstance().getPendingArchive()));
     }
 
     /**
@@ -477,24 +468,12 @@ public class TetradFxMain {
         String userHomeDirectory = System.getProperty("user.home");
         File dir = new File(userHomeDirectory, ".tetrad-fx-session").getAbsoluteFile();
 
-        try {
-            Utils.deleteDirectory(dir.toPath());
-            boolean created = dir.mkdir();
-
-            if (!created) {
-                throw new RuntimeException("Could not create directory: " + dir.getAbsolutePath());
-            }
-
-            Utils.unzipDirectory(zipFile.getAbsolutePath(), dir.getAbsolutePath());
-
-            Session.newInstance();
-
-            Scene scene = new Scene(TetradFxMain.getInstance().getRoot(primaryStage));
-            primaryStage.setScene(scene);
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        // The old session's jobs are cancelled, apart from saves, which are let finish, and nothing more can be
+        // started in it; the session is replaced in the background once they have all stopped.
+        List<Task<?>> stopping = JobManager.getInstance().cancelAll(job -> job instanceof SaveSessionJob);
+        primaryStage.getScene().getRoot().setDisable(true);
+        JobManager.getInstance().submitIO(new LoadSessionJob(zipFile, dir, stopping,
+                Session.getInstance().getPendingArchive(), primaryStage));
     }
 
     /**
@@ -505,15 +484,6 @@ public class TetradFxMain {
         DISCRETE,
         MIXED
     }
-
-    /**
-     * The result of a simulation.
-     *
-     * @param graph   The graph.
-     * @param dataSet The data set.
-     */
-    private record Result(Graph graph, DataSet dataSet) {
-    }
 }
 
 
@@ -1,21 +1,22 @@
 package io.github.cmuphil.tetradfx.ui;
 
-import edu.cmu.tetrad.data.ContinuousVariable;
 import edu.cmu.tetrad.data.DataSet;
 import edu.cmu.tetrad.data.DiscreteVariable;
 import edu.cmu.tetrad.graph.Node;
-import edu.cmu.tetrad.util.StatUtils;
+import io.github.cmuphil.tetradfx.utils.ColumnStatistics;
+import io.github.cmuphil.tetradfx.utils.StatisticsCache;
 import io.github.cmuphil.tetradfx.utils.VariableRow;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.cell.PropertyValueFactory;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,10 +30,12 @@ public class VariablesView {
     private TableView<VariableRow> tableView;
 
     /**
-     * Creates a new variable view.
+     * Creates a new variable view. The statistics for the variables are taken from the cache if they are there;
+     * otherwise they are computed in the background and put in the cache.
      * @param dataSet the dataset the variables are from.
+     * @param statistics the statistics cache of the project.
      */
-    public VariablesView(DataSet dataSet) {
+    public VariablesView(DataSet dataSet, StatisticsCache statistics) {
         tableView = new TableView<>();
 
         if (dataSet == null) {
@@ -58,16 +61,20 @@ public class VariablesView {
         table.getColumns().addAll(variableName, variableType, statsCol, notesCol);
 
         List<VariableRow> rows = new ArrayList<>();
+        ColumnStatistics.Summary[] summaries = statistics.getSummaries(dataSet);
 
         for (int i = 0; i < dataSet.getNumColumns(); i++) {
             Node variable = dataSet.getVariable(i);
             rows.add(new VariableRow(variable.getName(), variable instanceof DiscreteVariable ? "Discrete" : "Continuous",
-                    getVariablestats(dataSet, variable)));
+                    summaries == null ? "Computing..." : ColumnStatistics.format(summaries[i])));
+        }
 
-            ObservableList<VariableRow> data = FXCollections.observableArrayList(rows);
+        ObservableList<VariableRow> data = FXCollections.observableArrayList(rows);
+        table.setItems(data);
+        this.tableView = table;
 
-            table.setItems(data);
-            this.tableView = table;
+        if (summaries == null) {
+            JobManager.getInstance().submit(new StatisticsJob(dataSet, statistics, rows));
         }
     }
 
@@ -80,77 +87,85 @@ public class VariablesView {
     }
 
     /**
-     * Gets the table view.
-     * @param dataSet the dataset the variables are from.
-     * @param variable the variable to get stats for.
-     * @return the table view.
+     * <p>Computes the statistics for the rows of the table in the background, so that the table is shown
+     * right away even for datasets with thousands of variables. The columns are done a block at a time,
+     * in parallel, and each block's rows are filled in as soon as it's done. When all are done, they are
+     * put in the statistics cache, which saves them with the dataset.</p>
      */
-    private String getVariablestats(DataSet dataSet, edu.cmu.tetrad.graph.Node variable) {
-        if (variable instanceof DiscreteVariable) {
-            return getDiscreteVariablestats(dataSet, (DiscreteVariable) variable);
-        } else if (variable instanceof ContinuousVariable) {
-            return getContinuousVariablestats(dataSet, (ContinuousVariable) variable);
-        } else {
-            throw new IllegalArgumentException("Unknown variable type: " + variable.getClass().getSimpleName());
-        }
-    }
+    private static class StatisticsJob extends Task<Void> {
 
-    /**
-     * Gets the stats for a continuous variable.
-     * @param dataSet the dataset the variables are from.
-     * @param variable the variable to get stats for.
-     * @return the stats for the variable.
-     */
-    private String getContinuousVariablestats(DataSet dataSet, ContinuousVariable variable) {
-        int index = dataSet.getColumn(variable);
-
-        double[] values = new double[dataSet.getNumRows()];
-        for (int i = 0; i < dataSet.getNumRows(); i++) {
-            values[i] = dataSet.getDouble(i, index);
-        }
+        // About how many cells of the dataset to summarize before updating the table.
+        private static final int CELLS_PER_BLOCK = 1 << 20;
 
-        int N = values.length;
-        double min = StatUtils.min(values);
-        double max = StatUtils.max(values);
-        double mean = StatUtils.mean(values);
-        double median = StatUtils.median(values);
-        double skewness = StatUtils.skewness(values);
-        double kurtosis = StatUtils.kurtosis(values) + 3;
-
-        NumberFormat nf = new DecimalFormat("#.####");
-
-        return "N = " + N + "\n" +
-                "Min: " + nf.format(min) + "\n" +
-                "Max: " + nf.format(max) + "\n" +
-                "Mean: " + nf.format(mean) + "\n" +
-                "Median: " + nf.format(median) + "\n" +
-                "Skewness: " + nf.format(skewness) + "\n" +
-                "Kurtosis: " + nf.format(kurtosis);
-    }
+        private final DataSet dataSet;
+        private final StatisticsCache statistics;
+        private final List<VariableRow> rows;
 
-    /**
-     * Gets the stats for a discrete variable.
-     * @param dataSet the dataset the variables are from.
-     * @param variable the variable to get stats for.
-     * @return the stats for the variable.
-     */
-    private String getDiscreteVariablestats(DataSet dataSet, DiscreteVariable variable) {
-        List<String> categories = variable.getCategories();
-        int index = dataSet.getColumn(variable);
+        StatisticsJob(DataSet dataSet, StatisticsCache statistics, List<VariableRow> rows) {
+            this.dataSet = dataSet;
+            this.statistics = statistics;
+            this.rows = rows;
 
-        int[] counts = new int[categories.size()];
-        for (int i = 0; i < dataSet.getNumRows(); i++) {
-            counts[dataSet.getInt(i, index)]++;
+            updateTitle("Computing variable statistics");
+            updateMessage("Queued");
+            updateProgress(0, 1);
         }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("N = ").append(dataSet.getNumRows()).append("\n");
+        @Override
+        protected Void call() {
+            int numColumns = dataSet.getNumColumns();
+            int block = Math.max(1, CELLS_PER_BLOCK / Math.max(1, dataSet.getNumRows()));
+            ColumnStatistics.Summary[] all = new ColumnStatistics.Summary[numColumns];
+
+            for (int from = 0; from < numColumns; from += block) {
+                if (isCancelled()) {
+                    return null;
+                }
+
+                int to = Math.min(numColumns, from + block);
+                updateMessage(from + " of " + numColumns + " variables");
+                updateProgress(from, numColumns);
+
+                ColumnStatistics.Summary[] summaries = ColumnStatistics.summarize(dataSet, from, to);
+                System.arraycopy(summaries, 0, all, from, summaries.length);
+                String[] stats = new String[summaries.length];
+
+                for (int i = 0; i < summaries.length; i++) {
+                    stats[i] = ColumnStatistics.format(summaries[i]);
+                }
+
+                int first = from;
+
+                Platform.runLater(() -> {
+                    for (int i = 0; i < stats.length; i++) {
+                        rows.get(first + i).setStats(stats[i]);
+                    }
+                });
+            }
 
-        for (int i = 0; i < categories.size(); i++) {
-            sb.append(categories.get(i)).append(": ").append(counts[i]).append("\n");
+            // A job cancelled after its last block--because another session is being loaded, say--saves nothing.
+            if (isCancelled()) {
+                return null;
+            }
+
+            statistics.putSummaries(dataSet, all);
+
+            updateMessage("Done");
+            updateProgress(1, 1);
+            return null;
         }
 
-        return sb.toString();
+        @Override
+        protected void failed() {
+            Throwable e = getException();
+            e.printStackTrace();
+
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error Dialog");
+            alert.setHeaderText(null);
+            alert.setContentText("The variable statistics could not be computed: " + e.getMessage());
+            alert.showAndWait();
+        }
     }
 
     /**
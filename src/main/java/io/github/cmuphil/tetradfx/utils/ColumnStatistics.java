@@ -0,0 +1,414 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import edu.cmu.tetrad.data.ContinuousVariable;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.DiscreteVariable;
+import edu.cmu.tetrad.graph.Node;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Computes summary statistics for the columns of a dataset, as shown in the Variables tab. For a
+ * continuous column these are the minimum, maximum, mean, median, variance, skewness and kurtosis;
+ * for a discrete column, the count of each category.</p>
+ *
+ * <p>Each column is read once: the moments are accumulated as the values go by, with the updates of
+ * Welford and Terriberry, which stay accurate when the mean is large compared to the spread, and
+ * the values are copied as they are read so that the median can be found with quickselect, without
+ * sorting. Columns are summarized in parallel with fork/join.</p>
+ *
+ * <p>The statistics are defined as in Tetrad's StatUtils: the variance divides by n - 1, the
+ * skewness is the population skewness m3 / m2^1.5, and the kurtosis is the bias-corrected excess
+ * kurtosis of StatUtils.kurtosis, worked out in floating point so that it doesn't overflow for large
+ * samples. Missing values are left out, and the count of them is kept.</p>
+ *
+ * <p>The summaries of a dataset in a project are saved next to its data file, with the extension
+ * ".stats.json", so they needn't be computed again when the project is loaded. For transforms whose
+ * effect on the statistics is known--centering and standardizing--the summaries of the result are
+ * worked out from those of the original, without reading the data again.</p>
+ *
+ * @author josephramsey
+ */
+public class ColumnStatistics {
+
+    /**
+     * The extension of the files summaries are saved in.
+     */
+    public static final String EXTENSION = ".stats.json";
+
+    // Below this many cells, a range of columns is summarized on one thread rather than split further.
+    private static final long MIN_CELLS_PER_TASK = 1 << 16;
+
+    private ColumnStatistics() {
+    }
+
+    /**
+     * The statistics for a column of a dataset. For a discrete column, only the name, n, the count of missing values,
+     * the categories and their counts are filled in, and the other statistics are NaN.
+     *
+     * @param name       The name of the variable.
+     * @param discrete   Whether the variable is discrete.
+     * @param n          The number of rows.
+     * @param missing    The number of missing values.
+     * @param min        The smallest value.
+     * @param max        The largest value.
+     * @param mean       The mean.
+     * @param variance   The sample variance.
+     * @param median     The median.
+     * @param skewness   The skewness.
+     * @param kurtosis   The excess kurtosis.
+     * @param categories The categories of a discrete variable, or null.
+     * @param counts     The number of rows in each category, or null.
+     */
+    public record Summary(String name, boolean discrete, int n, int missing, double min, double max, double mean,
+                          double variance, double median, double skewness, double kurtosis,
+                          List<String> categories, int[] counts) {
+    }
+
+    /**
+     * Summarizes every column of a dataset, in parallel.
+     *
+     * @param dataSet The dataset.
+     * @return The summaries, by column.
+     */
+    public static Summary[] summarize(DataSet dataSet) {
+        return summarize(dataSet, 0, dataSet.getNumColumns());
+    }
+
+    /**
+     * Summarizes a range of columns of a dataset, in parallel.
+     *
+     * @param dataSet The dataset.
+     * @param from    The first column, inclusive.
+     * @param to      The last column, exclusive.
+     * @return The summaries of those columns, in order.
+     */
+    public static Summary[] summarize(DataSet dataSet, int from, int to) {
+        Summary[] summaries = new Summary[to - from];
+        ForkJoinPool.commonPool().invoke(new SummarizeColumns(dataSet, from, to, summaries, from));
+        return summaries;
+    }
+
+    /**
+     * Summarizes one column of a dataset.
+     *
+     * @param dataSet The dataset.
+     * @param column  The column.
+     * @return The summary.
+     */
+    public static Summary summarize(DataSet dataSet, int column) {
+        Node variable = dataSet.getVariable(column);
+
+        if (variable instanceof DiscreteVariable) {
+            return summarizeDiscrete(dataSet, column, (DiscreteVariable) variable);
+        } else if (variable instanceof ContinuousVariable) {
+            return summarizeContinuous(dataSet, column, variable.getName());
+        } else {
+            throw new IllegalArgumentException("Unknown variable type: " + variable.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Formats a summary for the Variables tab.
+     *
+     * @param summary The summary.
+     * @return The text.
+     */
+    public static String format(Summary summary) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("N = ").append(summary.n()).append("\n");
+
+        if (summary.missing() > 0) {
+            sb.append("Missing: ").append(summary.missing()).append("\n");
+        }
+
+        if (summary.discrete()) {
+            for (int i = 0; i < summary.categories().size(); i++) {
+                sb.append(summary.categories().get(i)).append(": ").append(summary.counts()[i]).append("\n");
+            }
+
+            return sb.toString();
+        }
+
+        NumberFormat nf = new DecimalFormat("#.####");
+
+        return sb.append("Min: ").append(nf.format(summary.min())).append("\n")
+                .append("Max: ").append(nf.format(summary.max())).append("\n")
+                .append("Mean: ").append(nf.format(summary.mean())).append("\n")
+                .append("Median: ").append(nf.format(summary.median())).append("\n")
+                .append("Skewness: ").append(nf.format(summary.skewness())).append("\n")
+                .append("Kurtosis: ").append(nf.format(summary.kurtosis() + 3)).toString();
+    }
+
+    /**
+     * Returns the summaries of a dataset after each of its continuous columns has had its mean subtracted, as by
+     * DataTransforms.center.
+     *
+     * @param summaries The summaries of the dataset.
+     * @return The summaries of the centered dataset.
+     */
+    public static Summary[] centered(Summary[] summaries) {
+        Summary[] centered = new Summary[summaries.length];
+
+        for (int i = 0; i < summaries.length; i++) {
+            Summary s = summaries[i];
+            centered[i] = s.discrete() ? s : shifted(s, s.mean(), 1);
+        }
+
+        return centered;
+    }
+
+    /**
+     * Returns the summaries of a dataset after each of its continuous columns has had its mean subtracted and been
+     * divided by its standard deviation, as by DataTransforms.standardizeData. That transform leaves a column with
+     * missing values entirely missing, and so does this.
+     *
+     * @param summaries The summaries of the dataset.
+     * @return The summaries of the standardized dataset, or null if a column is constant, in which case what the
+     * transform gives depends on rounding and the data have to be summarized again.
+     */
+    public static Summary[] standardized(Summary[] summaries) {
+        Summary[] standardized = new Summary[summaries.length];
+
+        for (int i = 0; i < summaries.length; i++) {
+            Summary s = summaries[i];
+
+            if (s.discrete()) {
+                standardized[i] = s;
+            } else if (s.missing() > 0) {
+                standardized[i] = new Summary(s.name(), false, s.n(), s.n(), Double.NaN, Double.NaN, Double.NaN,
+                        Double.NaN, Double.NaN, Double.NaN, Double.NaN, null, null);
+            } else if (!(s.variance() > 0)) {
+                return null;
+            } else {
+                standardized[i] = shifted(s, s.mean(), Math.sqrt(s.variance()));
+            }
+        }
+
+        return standardized;
+    }
+
+    /**
+     * Reads summaries from a file.
+     *
+     * @param file The file.
+     * @return The summaries, or null if there is no file or it can't be read.
+     */
+    public static Summary[] read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return gson().fromJson(reader, Summary[].class);
+        } catch (IOException | JsonParseException e) {
+            System.out.println("Could not read the statistics in " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes summaries to a file. The file is written to a temporary file first and then moved into place, so that a
+     * crash can't leave a partly written file behind.
+     *
+     * @param summaries The summaries.
+     * @param file      The file.
+     */
+    public static void write(Summary[] summaries, File file) {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+                    StandardCharsets.UTF_8))) {
+                gson().toJson(summaries, writer);
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not write the statistics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // NaN stands for statistics that don't apply, so it has to be allowed in the JSON.
+    private static Gson gson() {
+        return new GsonBuilder().serializeSpecialFloatingPointValues().create();
+    }
+
+    // The summary of a continuous column after (x - shift) / scale, for a positive scale. Skewness and kurtosis don't
+    // change.
+    private static Summary shifted(Summary s, double shift, double scale) {
+        return new Summary(s.name(), false, s.n(), s.missing(), (s.min() - shift) / scale, (s.max() - shift) / scale,
+                (s.mean() - shift) / scale, s.variance() / (scale * scale), (s.median() - shift) / scale,
+                s.skewness(), s.kurtosis(), null, null);
+    }
+
+    private static Summary summarizeContinuous(DataSet dataSet, int column, String name) {
+        int rows = dataSet.getNumRows();
+        double[] values = new double[rows];
+        int n = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        double mean = 0, m2 = 0, m3 = 0, m4 = 0;
+
+        for (int row = 0; row < rows; row++) {
+            double x = dataSet.getDouble(row, column);
+
+            if (Double.isNaN(x)) {
+                continue;
+            }
+
+            values[n] = x;
+            int n1 = n;
+            n++;
+
+            if (x < min) min = x;
+            if (x > max) max = x;
+
+            // The running central moments, updated for the new value.
+            double delta = x - mean;
+            double deltaN = delta / n;
+            double deltaN2 = deltaN * deltaN;
+            double term = delta * deltaN * n1;
+            mean += deltaN;
+            m4 += term * deltaN2 * ((double) n * n - 3.0 * n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+            m3 += term * deltaN * (n - 2) - 3 * deltaN * m2;
+            m2 += term;
+        }
+
+        if (n == 0) {
+            return new Summary(name, false, rows, rows, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                    Double.NaN, Double.NaN, null, null);
+        }
+
+        double variance = m2 / (n - 1);
+        double skewness = m2 == 0 ? Double.NaN : (m3 / n) / Math.pow(m2 / n, 1.5);
+        double kurtosis = (m4 / n) / (variance * variance) - 3;
+        kurtosis = ((double) (n + 1) * n / ((double) (n - 1) * (n - 2) * (n - 3))) * kurtosis
+                - 3.0 * (n - 1) * (n - 1) / ((double) (n - 2) * (n - 3));
+
+        return new Summary(name, false, rows, rows - n, min, max, mean, variance, median(values, n), skewness,
+                kurtosis, null, null);
+    }
+
+    private static Summary summarizeDiscrete(DataSet dataSet, int column, DiscreteVariable variable) {
+        List<String> categories = variable.getCategories();
+        int[] counts = new int[categories.size()];
+        int missing = 0;
+
+        for (int row = 0; row < dataSet.getNumRows(); row++) {
+            int category = dataSet.getInt(row, column);
+
+            if (category >= 0 && category < counts.length) {
+                counts[category]++;
+            } else {
+                missing++;
+            }
+        }
+
+        return new Summary(variable.getName(), true, dataSet.getNumRows(), missing, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, List.copyOf(categories), counts);
+    }
+
+    // The median of the first n values, found by quickselect; the values are reordered. For an even number of
+    // values, this is the mean of the middle two.
+    private static double median(double[] values, int n) {
+        int k = (n - 1) / 2;
+        double lower = select(values, 0, n - 1, k);
+
+        if (n % 2 == 1) {
+            return lower;
+        }
+
+        // After selecting, everything above k is at least the kth value, so the next one up is the least of those.
+        double upper = Double.POSITIVE_INFINITY;
+
+        for (int i = k + 1; i < n; i++) {
+            upper = Math.min(upper, values[i]);
+        }
+
+        return (lower + upper) / 2;
+    }
+
+    // Puts the kth smallest of values[left..right] at k, with smaller values before it and larger after, and returns
+    // it. (Hoare's selection, with the median of three as pivot.)
+    private static double select(double[] values, int left, int right, int k) {
+        while (right > left) {
+            int mid = (left + right) >>> 1;
+            if (values[mid] < values[left]) swap(values, mid, left);
+            if (values[right] < values[left]) swap(values, right, left);
+            if (values[right] < values[mid]) swap(values, right, mid);
+            double pivot = values[mid];
+
+            int i = left, j = right;
+
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+
+                if (i <= j) {
+                    swap(values, i++, j--);
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+
+        return values[k];
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double t = values[i];
+        values[i] = values[j];
+        values[j] = t;
+    }
+
+    // Summarizes a range of columns, splitting it in half until the pieces are small enough to do on one thread.
+    private static class SummarizeColumns extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final DataSet dataSet;
+        private final int from;
+        private final int to;
+        private final Summary[] summaries;
+        private final int offset;
+
+        SummarizeColumns(DataSet dataSet, int from, int to, Summary[] summaries, int offset) {
+            this.dataSet = dataSet;
+            this.from = from;
+            this.to = to;
+            this.summaries = summaries;
+            this.offset = offset;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1 || (long) (to - from) * dataSet.getNumRows() <= MIN_CELLS_PER_TASK) {
+                for (int column = from; column < to; column++) {
+                    summaries[column - offset] = summarize(dataSet, column);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SummarizeColumns(dataSet, from, mid, summaries, offset),
+                        new SummarizeColumns(dataSet, mid, to, summaries, offset));
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import edu.cmu.tetrad.data.*;
+import edu.cmu.tetrad.graph.Node;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Reads and writes datasets in a columnar binary format, which is how projects store their
+ * datasets. Unlike the tab-delimited text format, nothing has to be parsed and no variable types
+ * have to be inferred when a dataset is read back; the columns are copied straight out of a
+ * memory-mapped file.</p>
+ *
+ * <p>The format is: a magic number, a version, and the length of the header; then the header, which
+ * gives the number of rows and columns and, for each column, its type, its name, and, for discrete
+ * columns, its categories; then, starting at the next multiple of 8 bytes, the columns one after
+ * another, continuous columns as 8-byte doubles and discrete columns as 4-byte category indices,
+ * all big-endian. Since the position of every column is known from the header, the columns can be
+ * written in any order (see Writer).</p>
+ *
+ * @author josephramsey
+ */
+public class ColumnarData {
+
+    /**
+     * The file extension used for datasets in this format.
+     */
+    public static final String EXTENSION = ".tfxd";
+
+    private static final int MAGIC = 0x54465844; // "TFXD"
+    private static final int VERSION = 1;
+    private static final byte CONTINUOUS = 0;
+    private static final byte DISCRETE = 1;
+
+    // The largest region mapped at once; a single mapping can't exceed 2 GB.
+    private static final long MAX_MAPPING = 1L << 30;
+
+    private ColumnarData() {
+    }
+
+    /**
+     * Writes a dataset to a file. It is written to a temporary file next to the file, forced to disk and then moved
+     * into place, so that the file is never left partly written.
+     *
+     * @param dataSet The dataset.
+     * @param file    The file.
+     * @throws IOException If the file can't be written, in which case any earlier file is left as it was.
+     */
+    public static void write(DataSet dataSet, File file) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        boolean done = false;
+
+        try {
+            writeColumns(dataSet, temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            done = true;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+    }
+
+    private static void writeColumns(DataSet dataSet, File file) throws IOException {
+        try (Writer writer = new Writer(file, dataSet.getVariables(), dataSet.getNumRows())) {
+            int numRows = dataSet.getNumRows();
+
+            for (int j = 0; j < dataSet.getNumColumns(); j++) {
+                if (dataSet.getVariable(j) instanceof DiscreteVariable) {
+                    int[] column = new int[numRows];
+                    for (int i = 0; i < numRows; i++) column[i] = dataSet.getInt(i, j);
+                    writer.writeDiscrete(j, 0, column, numRows);
+                } else {
+                    double[] column = new double[numRows];
+                    for (int i = 0; i < numRows; i++) column[i] = dataSet.getDouble(i, j);
+                    writer.writeContinuous(j, 0, column, numRows);
+                }
+            }
+
+            writer.channel.force(true);
+        }
+    }
+
+    /**
+     * Reads a dataset from a file.
+     *
+     * @param file The file.
+     * @return The dataset. Its name is not set.
+     * @throws IOException If the file can't be read or is not in this format.
+     */
+    public static DataSet read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Header header = readHeader(channel, file);
+            List<Node> variables = header.variables;
+            int numRows = header.numRows;
+            int numCols = variables.size();
+
+            double[][] continuous = new double[numCols][];
+            int[][] discrete = new int[numCols][];
+            boolean anyContinuous = false;
+            boolean anyDiscrete = false;
+
+            for (int j = 0; j < numCols; j++) {
+                long position = header.columnOffsets[j];
+
+                if (variables.get(j) instanceof DiscreteVariable) {
+                    int[] column = new int[numRows];
+                    int done = 0;
+
+                    while (done < numRows) {
+                        int n = (int) Math.min(numRows - done, MAX_MAPPING / Integer.BYTES);
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                position + (long) done * Integer.BYTES, (long) n * Integer.BYTES);
+                        buffer.asIntBuffer().get(column, done, n);
+                        done += n;
+                    }
+
+                    discrete[j] = column;
+                    anyDiscrete = true;
+                } else {
+                    double[] column = new double[numRows];
+                    int done = 0;
+
+                    while (done < numRows) {
+                        int n = (int) Math.min(numRows - done, MAX_MAPPING / Double.BYTES);
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                position + (long) done * Double.BYTES, (long) n * Double.BYTES);
+                        buffer.asDoubleBuffer().get(column, done, n);
+                        done += n;
+                    }
+
+                    continuous[j] = column;
+                    anyContinuous = true;
+                }
+            }
+
+            DataBox box;
+
+            if (anyContinuous && !anyDiscrete) {
+                box = new VerticalDoubleDataBox(continuous);
+            } else if (anyDiscrete && !anyContinuous) {
+                box = new VerticalIntDataBox(discrete);
+            } else {
+                box = new MixedDataBox(variables, numRows, continuous, discrete);
+            }
+
+            return new BoxDataSet(box, variables);
+        }
+    }
+
+    private static Header readHeader(FileChannel channel, File file) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(12);
+        while (prefix.hasRemaining() && channel.read(prefix) != -1) ;
+        prefix.flip();
+
+        if (prefix.remaining() < 12 || prefix.getInt() != MAGIC) {
+            throw new IOException("Not a Tetrad-FX dataset file: " + file);
+        }
+
+        int version = prefix.getInt();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported dataset file version " + version + ": " + file);
+        }
+
+        int headerLength = prefix.getInt();
+        ByteBuffer headerBytes = ByteBuffer.allocate(headerLength);
+        while (headerBytes.hasRemaining() && channel.read(headerBytes) != -1) ;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(headerBytes.array()));
+        int numRows = in.readInt();
+        int numCols = in.readInt();
+        List<Node> variables = new ArrayList<>();
+
+        for (int j = 0; j < numCols; j++) {
+            byte type = in.readByte();
+            String name = in.readUTF();
+
+            if (type == DISCRETE) {
+                int numCategories = in.readInt();
+                List<String> categories = new ArrayList<>();
+                for (int k = 0; k < numCategories; k++) categories.add(in.readUTF());
+                variables.add(new DiscreteVariable(name, categories));
+            } else {
+                variables.add(new ContinuousVariable(name));
+            }
+        }
+
+        return new Header(numRows, variables, columnOffsets(variables, numRows, 12 + headerLength));
+    }
+
+    // The position of each column in the file, given the length of everything before the data.
+    private static long[] columnOffsets(List<Node> variables, int numRows, long prefixLength) {
+        long[] offsets = new long[variables.size()];
+        long position = (prefixLength + 7) / 8 * 8;
+
+        for (int j = 0; j < variables.size(); j++) {
+            offsets[j] = position;
+            position += (long) numRows * (variables.get(j) instanceof DiscreteVariable ? Integer.BYTES : Double.BYTES);
+        }
+
+        return offsets;
+    }
+
+    private record Header(int numRows, List<Node> variables, long[] columnOffsets) {
+    }
+
+    /**
+     * <p>Writes a dataset in this format a block at a time, so that data too large to hold in memory all at once can
+     * be written as it is produced. The number of rows and the variables must be known up front. Each column is
+     * written by giving a block of its values and the row the block starts at; blocks may be written in any
+     * order.</p>
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final List<Node> variables;
+        private final int numRows;
+        private final long[] columnOffsets;
+
+        /**
+         * Creates the file and writes its header.
+         *
+         * @param file      The file.
+         * @param variables The variables, which are ContinuousVariables or DiscreteVariables.
+         * @param numRows   The number of rows that will be written.
+         * @throws IOException If the file can't be written.
+         */
+        public Writer(File file, List<Node> variables, int numRows) throws IOException {
+            this.variables = new ArrayList<>(variables);
+            this.numRows = numRows;
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(headerBytes);
+            out.writeInt(numRows);
+            out.writeInt(variables.size());
+
+            for (Node variable : variables) {
+                if (variable instanceof DiscreteVariable) {
+                    out.writeByte(DISCRETE);
+                    out.writeUTF(variable.getName());
+                    List<String> categories = ((DiscreteVariable) variable).getCategories();
+                    out.writeInt(categories.size());
+                    for (String category : categories) out.writeUTF(category);
+                } else {
+                    out.writeByte(CONTINUOUS);
+                    out.writeUTF(variable.getName());
+                }
+            }
+
+            out.flush();
+
+            ByteBuffer prefix = ByteBuffer.allocate(12 + headerBytes.size());
+            prefix.putInt(MAGIC).putInt(VERSION).putInt(headerBytes.size()).put(headerBytes.toByteArray());
+            prefix.flip();
+
+            this.columnOffsets = columnOffsets(this.variables, numRows, prefix.remaining());
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+
+            while (prefix.hasRemaining()) channel.write(prefix);
+        }
+
+        /**
+         * Writes a block of values of a continuous column.
+         *
+         * @param col      The column.
+         * @param firstRow The row the block starts at.
+         * @param values   The values.
+         * @param count    The number of values to write from the start of the array.
+         * @throws IOException If the values can't be written.
+         */
+        public void writeContinuous(int col, int firstRow, double[] values, int count) throws IOException {
+            checkBlock(col, firstRow, count, false);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min((long) count * Double.BYTES, 1 << 20));
+            long position = columnOffsets[col] + (long) firstRow * Double.BYTES;
+            int done = 0;
+
+            while (done < count) {
+                int n = Math.min(count - done, buffer.capacity() / Double.BYTES);
+                buffer.clear();
+                buffer.asDoubleBuffer().put(values, done, n);
+                buffer.limit(n * Double.BYTES);
+                position = writeFully(buffer, position);
+                done += n;
+            }
+        }
+
+        /**
+         * Writes a block of values (category indices) of a discrete column.
+         *
+         * @param col      The column.
+         * @param firstRow The row the block starts at.
+         * @param values   The values.
+         * @param count    The number of values to write from the start of the array.
+         * @throws IOException If the values can't be written.
+         */
+        public void writeDiscrete(int col, int firstRow, int[] values, int count) throws IOException {
+            checkBlock(col, firstRow, count, true);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min((long) count * Integer.BYTES, 1 << 20));
+            long position = columnOffsets[col] + (long) firstRow * Integer.BYTES;
+            int done = 0;
+
+            while (done < count) {
+                int n = Math.min(count - done, buffer.capacity() / Integer.BYTES);
+                buffer.clear();
+                buffer.asIntBuffer().put(values, done, n);
+                buffer.limit(n * Integer.BYTES);
+                position = writeFully(buffer, position);
+                done += n;
+            }
+        }
+
+        private void checkBlock(int col, int firstRow, int count, boolean discrete) {
+            if (discrete != (variables.get(col) instanceof DiscreteVariable)) {
+                throw new IllegalArgumentException("Wrong type of values for column " + variables.get(col));
+            }
+
+            if (firstRow < 0 || count < 0 || (long) firstRow + count > numRows) {
+                throw new IllegalArgumentException("Rows " + firstRow + " to " + (firstRow + count)
+                        + " are out of range; there are " + numRows + " rows.");
+            }
+        }
+
+        private long writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
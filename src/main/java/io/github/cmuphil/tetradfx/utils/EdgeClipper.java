@@ -0,0 +1,71 @@
+package io.github.cmuphil.tetradfx.utils;
+
+/**
+ * <p>Finds where an edge drawn from the center of a node toward another point leaves the node's
+ * shape, so that the edge and its edge marks can be drawn from the boundary of the shape rather
+ * than from its center. This is worked out directly for the two shapes nodes are drawn with,
+ * rectangles (measured nodes) and ellipses (latent and error nodes), rather than searched for.</p>
+ *
+ * <p>For a ray from the center (cx, cy) in the direction (dx, dy), the boundary is reached at
+ * (cx + t dx, cy + t dy), where t = min(w / |dx|, h / |dy|) for a rectangle with half width w and
+ * half height h, and t = 1 / sqrt((dx / rx)^2 + (dy / ry)^2) for an ellipse with radii rx and ry.
+ * If the point the edge goes toward is inside the shape, as when two nodes overlap, that point is
+ * returned instead.</p>
+ *
+ * @author josephramsey
+ */
+public class EdgeClipper {
+
+    private EdgeClipper() {
+    }
+
+    /**
+     * Returns where a line from the center of a rectangle toward a point leaves the rectangle.
+     *
+     * @param centerX    The x coordinate of the center of the rectangle.
+     * @param centerY    The y coordinate of the center of the rectangle.
+     * @param halfWidth  Half the width of the rectangle.
+     * @param halfHeight Half the height of the rectangle.
+     * @param towardX    The x coordinate of the point.
+     * @param towardY    The y coordinate of the point.
+     * @return The point on the boundary, as {x, y}.
+     */
+    public static double[] clipToRectangle(double centerX, double centerY, double halfWidth, double halfHeight,
+                                           double towardX, double towardY) {
+        double dx = towardX - centerX;
+        double dy = towardY - centerY;
+        double t = Math.min(dx == 0 ? Double.POSITIVE_INFINITY : halfWidth / Math.abs(dx),
+                dy == 0 ? Double.POSITIVE_INFINITY : halfHeight / Math.abs(dy));
+        return along(centerX, centerY, dx, dy, t);
+    }
+
+    /**
+     * Returns where a line from the center of an ellipse toward a point leaves the ellipse.
+     *
+     * @param centerX The x coordinate of the center of the ellipse.
+     * @param centerY The y coordinate of the center of the ellipse.
+     * @param radiusX The horizontal radius of the ellipse.
+     * @param radiusY The vertical radius of the ellipse.
+     * @param towardX The x coordinate of the point.
+     * @param towardY The y coordinate of the point.
+     * @return The point on the boundary, as {x, y}.
+     */
+    public static double[] clipToEllipse(double centerX, double centerY, double radiusX, double radiusY,
+                                         double towardX, double towardY) {
+        double dx = towardX - centerX;
+        double dy = towardY - centerY;
+        double u = dx / radiusX;
+        double v = dy / radiusY;
+        double t = 1 / Math.sqrt(u * u + v * v);
+        return along(centerX, centerY, dx, dy, t);
+    }
+
+    // The point t of the way along (dx, dy) from the center, or the far end if that's nearer.
+    private static double[] along(double centerX, double centerY, double dx, double dy, double t) {
+        if (!(t < 1)) {
+            return new double[]{centerX + dx, centerY + dy};
+        }
+
+        return new double[]{centerX + t * dx, centerY + t * dy};
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.Node;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Reads and writes the layout of a graph--where each of its nodes is--so that a graph shown in a
+ * project keeps the layout the user gave it from one session to the next, and doesn't have to be
+ * laid out again when the project is loaded. The layout is kept next to the graph's file, in a file
+ * named with the same prefix and the extension ".layout.txt", with a line for each node giving its
+ * name and the x and y coordinates of its center, separated by tabs.</p>
+ *
+ * @author josephramsey
+ */
+public class GraphLayouts {
+
+    /**
+     * The extension of layout files.
+     */
+    public static final String EXTENSION = ".layout.txt";
+
+    private GraphLayouts() {
+    }
+
+    /**
+     * Sets the centers of a graph's nodes from a layout file, if there is one and it has every node in the graph.
+     *
+     * @param graph The graph.
+     * @param file  The layout file.
+     * @return True if the layout was read; if not, the graph is left as it was.
+     */
+    public static boolean read(Graph graph, File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+
+        Map<String, int[]> centers = new HashMap<>();
+
+        // In the default encoding, which is what the PersistenceService writes files in.
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int tab2 = line.lastIndexOf('\t');
+                int tab1 = tab2 > 0 ? line.lastIndexOf('\t', tab2 - 1) : -1;
+
+                if (tab1 > 0) {
+                    centers.put(line.substring(0, tab1), new int[]{Integer.parseInt(line.substring(tab1 + 1, tab2)),
+                            Integer.parseInt(line.substring(tab2 + 1))});
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Could not read the layout in " + file + ": " + e.getMessage());
+            return false;
+        }
+
+        for (Node node : graph.getNodes()) {
+            if (!centers.containsKey(node.getName())) {
+                return false;
+            }
+        }
+
+        for (Node node : graph.getNodes()) {
+            int[] center = centers.get(node.getName());
+            node.setCenter(center[0], center[1]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes out the centers of a graph's nodes as the text of a layout file. The file itself is written through the
+     * PersistenceService, so that saving a layout never waits on the disk.
+     *
+     * @param graph The graph.
+     * @return The text of the layout file.
+     */
+    public static String format(Graph graph) {
+        StringBuilder text = new StringBuilder();
+
+        for (Node node : graph.getNodes()) {
+            text.append(node.getName()).append('\t').append(node.getCenterX()).append('\t')
+                    .append(node.getCenterY()).append('\n');
+        }
+
+        return text.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import edu.cmu.tetrad.data.ContinuousVariable;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.graph.NodeType;
+import edu.cmu.tetrad.sem.LargeScaleSimulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * <p>Draws rows from the linear model of a LargeScaleSimulation a block at a time, so that a large
+ * sample never has to be held in memory all at once. The rows have the same distribution as those
+ * of simulateDataReducedForm(), but each variable is worked out from its parents in causal order,
+ * which takes time in proportion to the number of edges rather than to the square of the number of
+ * variables.</p>
+ *
+ * <p>The coefficients are those of the simulation. The simulation keeps its error variances to
+ * itself, though, and seeds its errors from the clock, so the error variances are drawn here, from
+ * the same range the simulation uses by default, and the errors are drawn from the random generator
+ * given, which makes the sample reproducible from its seed.</p>
+ *
+ * @author josephramsey
+ */
+public class LinearSemSampler {
+
+    // The range LargeScaleSimulation draws its error variances from by default.
+    private static final double VAR_LOW = 1.0;
+    private static final double VAR_HIGH = 3.0;
+
+    private final RandomGenerator random;
+    private final List<Node> variables = new ArrayList<>();
+
+    // The variables in causal order, and for each its parents and their coefficients.
+    private final int[] order;
+    private final int[][] parents;
+    private final double[][] coefs;
+    private final double[] errorSds;
+
+    // For each variable, its column in the sample, or -1 if it is latent.
+    private final int[] columns;
+
+    /**
+     * Creates a sampler for the model of a simulation, drawing the model's coefficients if the simulation hasn't yet.
+     *
+     * @param simulation The simulation.
+     * @param random     The random generator the error variances and errors are drawn from.
+     */
+    public LinearSemSampler(LargeScaleSimulation simulation, RandomGenerator random) {
+        this.random = random;
+
+        // This draws the coefficients, if they haven't been drawn yet, for the price of a single row.
+        simulation.getUncorrelatedShocks(1);
+
+        double[][] matrix = simulation.getCoefficientMatrix();
+        List<Node> nodes = simulation.getVariableNodes();
+        int numNodes = nodes.size();
+
+        this.parents = new int[numNodes][];
+        this.coefs = new double[numNodes][];
+        this.errorSds = new double[numNodes];
+        this.columns = new int[numNodes];
+
+        int[] numParentsLeft = new int[numNodes];
+        List<List<Integer>> children = new ArrayList<>();
+
+        for (int i = 0; i < numNodes; i++) {
+            children.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < numNodes; i++) {
+            int count = 0;
+
+            for (int j = 0; j < numNodes; j++) {
+                if (j != i && matrix[i][j] != 0) count++;
+            }
+
+            parents[i] = new int[count];
+            coefs[i] = new double[count];
+            count = 0;
+
+            for (int j = 0; j < numNodes; j++) {
+                if (j != i && matrix[i][j] != 0) {
+                    parents[i][count] = j;
+                    coefs[i][count] = matrix[i][j];
+                    children.get(j).add(i);
+                    count++;
+                }
+            }
+
+            numParentsLeft[i] = count;
+            errorSds[i] = Math.sqrt(VAR_LOW + (VAR_HIGH - VAR_LOW) * random.nextDouble());
+
+            if (nodes.get(i).getNodeType() == NodeType.MEASURED) {
+                columns[i] = variables.size();
+                ContinuousVariable variable = new ContinuousVariable(nodes.get(i).getName());
+                variable.setNodeType(NodeType.MEASURED);
+                variables.add(variable);
+            } else {
+                columns[i] = -1;
+            }
+        }
+
+        // Orders the variables so that every variable comes after its parents.
+        this.order = new int[numNodes];
+        int numOrdered = 0;
+
+        for (int i = 0; i < numNodes; i++) {
+            if (numParentsLeft[i] == 0) order[numOrdered++] = i;
+        }
+
+        for (int k = 0; k < numOrdered; k++) {
+            for (int child : children.get(order[k])) {
+                if (--numParentsLeft[child] == 0) order[numOrdered++] = child;
+            }
+        }
+
+        if (numOrdered < numNodes) {
+            throw new IllegalArgumentException("The model is cyclic, so it can't be sampled in causal order.");
+        }
+    }
+
+    /**
+     * Returns the measured variables, in the order of the columns of the sample.
+     *
+     * @return The variables, which are ContinuousVariables.
+     */
+    public List<Node> getVariables() {
+        return new ArrayList<>(variables);
+    }
+
+    /**
+     * Draws a block of rows.
+     *
+     * @param columns The columns to put the rows in, one for each measured variable, each at least count long.
+     * @param count   The number of rows to draw.
+     */
+    public void sample(double[][] columns, int count) {
+        double[] values = new double[order.length];
+
+        for (int row = 0; row < count; row++) {
+            for (int i : order) {
+                double value = errorSds[i] * random.nextGaussian();
+                int[] _parents = parents[i];
+                double[] _coefs = coefs[i];
+
+                for (int k = 0; k < _parents.length; k++) {
+                    value += _coefs[k] * values[_parents[k]];
+                }
+
+                values[i] = value;
+
+                if (this.columns[i] != -1) {
+                    columns[this.columns[i]][row] = value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,941 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import edu.cmu.tetrad.data.*;
+import edu.cmu.tetrad.graph.Node;
+import edu.pitt.dbmi.data.reader.Delimiter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * <p>Loads tabular data files the way SimpleDataLoader does, but in parallel. The file is
+ * memory-mapped and split at line boundaries into chunks; the chunks are counted, so that each
+ * knows which rows it holds, and then parsed at the same time, each straight into its rows of
+ * primitive column arrays, from which the dataset is made without copying.</p>
+ *
+ * <p>The result is the same as SimpleDataLoader's: the same variables (discrete categories sorted,
+ * and, for mixed data, a column discrete if it has no more distinct values than the maximum number
+ * of categories), the same values, the same handling of blank lines, comment lines, the header
+ * (without one, the names are taken from the first line, which is also read as data), missing
+ * values and extra values at the ends of lines. Numbers are parsed directly from the bytes when
+ * that gives exactly what Double.parseDouble would, and by Double.parseDouble otherwise. Files
+ * this loader doesn't handle itself--those with quoted values, characters outside ASCII, short
+ * lines, values that aren't numbers where numbers are expected, and the like--are handed to
+ * SimpleDataLoader, which reads them, or reports what is wrong with them, as it always has.</p>
+ *
+ * <p>For mixed data, the first rows of the file are read first as a sample, and a column with
+ * more distinct values there than the maximum number of categories is parsed as numbers from the
+ * start, since it can only be continuous. The other columns are parsed as categories, and a
+ * column that turns out to have too many of them after all is converted to numbers where that is
+ * found, so a sample that misjudges a column costs time but never changes the result.</p>
+ *
+ * @author josephramsey
+ */
+public class ParallelDataLoader {
+
+    // The size the file is split into for parsing; a chunk ends at the first line break after this.
+    private static final int CHUNK_SIZE = 8 << 20;
+
+    /**
+     * The number of rows sampled by default to infer the types of the columns of mixed data.
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+    // Powers of ten that are exactly representable as doubles.
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private ParallelDataLoader() {
+    }
+
+    /**
+     * How the data are to be read.
+     */
+    public enum DataType {CONTINUOUS, DISCRETE, MIXED}
+
+    /**
+     * Receives the progress of a load and says whether it should stop.
+     */
+    public interface Progress {
+
+        /**
+         * Reports progress.
+         *
+         * @param message What is being done.
+         * @param done    How much has been done, or -1 if that isn't known.
+         * @param total   How much there is to do.
+         */
+        void update(String message, long done, long total);
+
+        /**
+         * @return True if the load should stop, in which case it throws a CancellationException.
+         */
+        boolean isCancelled();
+
+        /**
+         * Progress that goes nowhere, for loads that can't be cancelled.
+         */
+        Progress NONE = new Progress() {
+            @Override
+            public void update(String message, long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Loads a data file.
+     *
+     * @param file               The file.
+     * @param commentMarker      Lines starting with this are skipped.
+     * @param quoteCharacter     The character values may be quoted with.
+     * @param missingValueMarker The value that marks a missing value; empty values are missing too.
+     * @param hasHeader          Whether the first line contains the variable names.
+     * @param delimiter          The delimiter between values.
+     * @param dataType           Whether to read the data as continuous, discrete or mixed.
+     * @param maxNumCategories   For mixed data, the most distinct values a column can have and still be read as
+     *                           discrete.
+     * @param progress           Receives the progress of the load.
+     * @return The dataset, named for the file.
+     * @throws IOException           If the file can't be read or isn't valid.
+     * @throws CancellationException If the load was cancelled.
+     */
+    public static DataSet load(File file, String commentMarker, char quoteCharacter, String missingValueMarker,
+                               boolean hasHeader, Delimiter delimiter, DataType dataType, int maxNumCategories,
+                               Progress progress) throws IOException {
+        return load(file, commentMarker, quoteCharacter, missingValueMarker, hasHeader, delimiter, dataType,
+                maxNumCategories, DEFAULT_SAMPLE_SIZE, progress);
+    }
+
+    /**
+     * Loads a data file, sampling a given number of rows to infer the types of the columns of mixed data.
+     *
+     * @param file               The file.
+     * @param commentMarker      Lines starting with this are skipped.
+     * @param quoteCharacter     The character values may be quoted with.
+     * @param missingValueMarker The value that marks a missing value; empty values are missing too.
+     * @param hasHeader          Whether the first line contains the variable names.
+     * @param delimiter          The delimiter between values.
+     * @param dataType           Whether to read the data as continuous, discrete or mixed.
+     * @param maxNumCategories   For mixed data, the most distinct values a column can have and still be read as
+     *                           discrete.
+     * @param sampleSize         For mixed data, the number of rows at the start of the file to infer column types
+     *                           from; 0 to parse every column as categories until it has too many.
+     * @param progress           Receives the progress of the load.
+     * @return The dataset, named for the file.
+     * @throws IOException           If the file can't be read or isn't valid.
+     * @throws CancellationException If the load was cancelled.
+     */
+    public static DataSet load(File file, String commentMarker, char quoteCharacter, String missingValueMarker,
+                               boolean hasHeader, Delimiter delimiter, DataType dataType, int maxNumCategories,
+                               int sampleSize, Progress progress) throws IOException {
+        DataSet dataSet;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            dataSet = new Parse(channel, commentMarker, quoteCharacter, missingValueMarker, hasHeader, delimiter,
+                    dataType, maxNumCategories, sampleSize, progress).run();
+        } catch (Unsupported e) {
+            progress.update("Parsing", -1, 1);
+
+            dataSet = switch (dataType) {
+                case CONTINUOUS -> SimpleDataLoader.loadContinuousData(file, commentMarker, quoteCharacter,
+                        missingValueMarker, hasHeader, delimiter, false);
+                case DISCRETE -> SimpleDataLoader.loadDiscreteData(file, commentMarker, quoteCharacter,
+                        missingValueMarker, hasHeader, delimiter, false);
+                case MIXED -> SimpleDataLoader.loadMixedData(file, commentMarker, quoteCharacter,
+                        missingValueMarker, hasHeader, maxNumCategories, delimiter, false);
+            };
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (dataSet != null) {
+            dataSet.setName(file.getName());
+        }
+
+        return dataSet;
+    }
+
+    // Thrown when the file has something this loader leaves to SimpleDataLoader.
+    private static class Unsupported extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 23L;
+
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // One load of one file.
+    private static class Parse {
+        private final FileChannel channel;
+        private final byte[] commentMarker;
+        private final byte quote;
+        private final byte[] missingMarker;
+        private final boolean hasHeader;
+        private final boolean whitespace;
+        private final byte delimiter;
+        private final DataType dataType;
+        private final int maxNumCategories;
+        private final int sampleSize;
+        private final Progress progress;
+
+        private long size;
+        private List<String> names;
+        private int numColumns;
+        private long[] chunkStarts;
+        private int[] firstRows;
+        private double[][] continuous;
+        private int[][] discrete;
+        private Dictionary[][] dictionaries;
+        private boolean[][] numeric;
+
+        Parse(FileChannel channel, String commentMarker, char quoteCharacter, String missingValueMarker,
+              boolean hasHeader, Delimiter delimiter, DataType dataType, int maxNumCategories, int sampleSize,
+              Progress progress) {
+            if (quoteCharacter > 127) {
+                throw new Unsupported("the quote character isn't ASCII");
+            }
+
+            if (delimiter == Delimiter.SPACE) {
+                throw new Unsupported("single spaces as delimiters");
+            }
+
+            this.channel = channel;
+            this.commentMarker = commentMarker.getBytes(StandardCharsets.UTF_8);
+            this.quote = (byte) quoteCharacter;
+            this.missingMarker = missingValueMarker.getBytes(StandardCharsets.UTF_8);
+            this.hasHeader = hasHeader;
+            this.whitespace = delimiter == Delimiter.WHITESPACE;
+            this.delimiter = delimiter.getByteValue();
+            this.dataType = dataType;
+            this.maxNumCategories = maxNumCategories;
+            this.sampleSize = sampleSize;
+            this.progress = progress;
+        }
+
+        DataSet run() throws IOException {
+            size = channel.size();
+            long dataStart = readHeader();
+            splitIntoChunks(dataStart);
+            int numChunks = chunkStarts.length - 1;
+
+            // Count the rows in each chunk, so that each chunk can be parsed straight into its own rows.
+            int[] rowCounts = new int[numChunks];
+            forEachChunk(numChunks, c -> rowCounts[c] = countRows(map(c)));
+
+            firstRows = new int[numChunks + 1];
+            long numRows = 0;
+
+            for (int c = 0; c < numChunks; c++) {
+                firstRows[c] = (int) numRows;
+                numRows += rowCounts[c];
+
+                if (numRows > Integer.MAX_VALUE - 8) {
+                    throw new Unsupported("too many rows");
+                }
+            }
+
+            firstRows[numChunks] = (int) numRows;
+
+            if (numRows == 0) {
+                throw new Unsupported("no rows");
+            }
+
+            if (dataType == DataType.CONTINUOUS) {
+                continuous = new double[numColumns][(int) numRows];
+            } else {
+                boolean[] sampledContinuous = dataType == DataType.MIXED ? sampleTypes(map(0))
+                        : new boolean[numColumns];
+                continuous = new double[numColumns][];
+                discrete = new int[numColumns][];
+                dictionaries = new Dictionary[numChunks][numColumns];
+                numeric = new boolean[numChunks][numColumns];
+
+                for (int column = 0; column < numColumns; column++) {
+                    if (sampledContinuous[column]) {
+                        continuous[column] = new double[(int) numRows];
+                        for (int c = 0; c < numChunks; c++) numeric[c][column] = true;
+                    } else {
+                        discrete[column] = new int[(int) numRows];
+                    }
+                }
+            }
+
+            AtomicLong bytesParsed = new AtomicLong(chunkStarts[0]);
+            AtomicLong rowsParsed = new AtomicLong();
+            long total = numRows;
+
+            forEachChunk(numChunks, c -> {
+                parseChunk(c, map(c));
+                long bytes = bytesParsed.addAndGet(chunkStarts[c + 1] - chunkStarts[c]);
+                long rows = rowsParsed.addAndGet(firstRows[c + 1] - firstRows[c]);
+                progress.update(String.format("Parsed %,d of %,d MB, %,d of %,d rows", bytes >> 20, size >> 20,
+                        rows, total), bytes, size);
+            });
+
+            return makeDataSet();
+        }
+
+        // Reads the variable names and returns where the data start.
+        private long readHeader() throws IOException {
+            long position = 0;
+
+            while (true) {
+                byte[] line = readLine(position);
+
+                if (line == null) {
+                    throw new Unsupported("no data");
+                }
+
+                long lineStart = position;
+                position += line.length;
+                int end = line.length > 0 && line[line.length - 1] == '\n' ? line.length - 1 : line.length;
+                int start = trimStart(line, 0, end);
+                end = trimEnd(line, start, end);
+
+                if (start == end) {
+                    continue;
+                }
+
+                // SimpleDataLoader only skips comments before the names for continuous data.
+                if (startsWith(line, start, end, commentMarker)) {
+                    if (dataType == DataType.CONTINUOUS) {
+                        continue;
+                    }
+
+                    throw new Unsupported("a comment before the variable names");
+                }
+
+                names = readNames(line);
+                numColumns = names.size();
+                return hasHeader ? position : lineStart;
+            }
+        }
+
+        private List<String> readNames(byte[] line) {
+            int end = line.length;
+            if (end > 0 && line[end - 1] == '\n') end--;
+            if (end > 0 && line[end - 1] == '\r') end--;
+
+            if (whitespace && end > 0 && (isBlank(line[0]) || isBlank(line[end - 1]))) {
+                throw new Unsupported("space around the variable names");
+            }
+
+            List<String> names = new ArrayList<>();
+            int[] token = new int[2];
+            int position = trimStart(line, 0, end);
+            end = trimEnd(line, position, end);
+
+            while (position >= 0) {
+                position = nextToken(line, position, end, token);
+                int start = token[0], stop = token[1];
+
+                if (start == stop || matches(line, start, stop, missingMarker)) {
+                    throw new Unsupported("a missing variable name");
+                }
+
+                names.add(new String(line, start, stop - start, StandardCharsets.US_ASCII));
+            }
+
+            return names;
+        }
+
+        // The line starting at a position, with its line break, or null at the end of the file.
+        private byte[] readLine(long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            byte[] line = new byte[0];
+
+            while (position < size) {
+                buffer.clear();
+                int n = channel.read(buffer, position);
+
+                if (n <= 0) {
+                    break;
+                }
+
+                byte[] bytes = buffer.array();
+
+                for (int i = 0; i < n; i++) {
+                    if (bytes[i] == '\n') {
+                        return concat(line, bytes, i + 1);
+                    }
+                }
+
+                line = concat(line, bytes, n);
+                position += n;
+            }
+
+            return line.length == 0 ? null : line;
+        }
+
+        // Splits the data into chunks ending at line breaks.
+        private void splitIntoChunks(long dataStart) throws IOException {
+            List<Long> starts = new ArrayList<>();
+            long position = dataStart;
+
+            while (position < size) {
+                starts.add(position);
+                long next = position + CHUNK_SIZE;
+                position = next >= size ? size : nextLineStart(next - 1);
+
+                if (position - starts.get(starts.size() - 1) > Integer.MAX_VALUE - 8) {
+                    throw new Unsupported("a very long line");
+                }
+            }
+
+            starts.add(size);
+            chunkStarts = starts.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        // The position just after the first line break at or after a position, or the end of the file.
+        private long nextLineStart(long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+            while (position < size) {
+                buffer.clear();
+                int n = channel.read(buffer, position);
+
+                if (n <= 0) {
+                    break;
+                }
+
+                for (int i = 0; i < n; i++) {
+                    if (buffer.get(i) == '\n') {
+                        return position + i + 1;
+                    }
+                }
+
+                position += n;
+            }
+
+            return size;
+        }
+
+        // The bytes of a chunk, copied out of a mapping of it.
+        private byte[] map(int chunk) {
+            try {
+                long start = chunkStarts[chunk];
+                int length = (int) (chunkStarts[chunk + 1] - start);
+                byte[] bytes = new byte[length];
+                channel.map(FileChannel.MapMode.READ_ONLY, start, length).get(bytes);
+                return bytes;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void forEachChunk(int numChunks, java.util.function.IntConsumer action) {
+            IntStream.range(0, numChunks).parallel().forEach(c -> {
+                if (progress.isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                action.accept(c);
+            });
+        }
+
+        // The number of lines in a chunk that are data--not blank and not comments.
+        private int countRows(byte[] bytes) {
+            int rows = 0;
+            int lineStart = 0;
+
+            while (lineStart < bytes.length) {
+                int lineEnd = indexOfLineBreak(bytes, lineStart);
+                int start = trimStart(bytes, lineStart, lineEnd);
+                int end = trimEnd(bytes, start, lineEnd);
+
+                if (start < end && !startsWith(bytes, start, end, commentMarker)) {
+                    rows++;
+                }
+
+                lineStart = lineEnd + 1;
+            }
+
+            return rows;
+        }
+
+        // Which columns of mixed data are known to be continuous from the first rows of the data, which are at the
+        // start of the first chunk: those with more distinct values there than a discrete column may have.
+        private boolean[] sampleTypes(byte[] bytes) {
+            boolean[] continuous = new boolean[numColumns];
+            Dictionary[] sample = new Dictionary[numColumns];
+            for (int column = 0; column < numColumns; column++) sample[column] = new Dictionary();
+            int[] token = new int[2];
+            int lineStart = 0;
+            int rows = 0;
+
+            while (lineStart < bytes.length && rows < sampleSize) {
+                int lineEnd = indexOfLineBreak(bytes, lineStart);
+                int position = trimStart(bytes, lineStart, lineEnd);
+                int end = trimEnd(bytes, position, lineEnd);
+                lineStart = lineEnd + 1;
+
+                if (position == end || startsWith(bytes, position, end, commentMarker)) {
+                    continue;
+                }
+
+                for (int column = 0; position >= 0 && column < numColumns; column++) {
+                    position = nextToken(bytes, position, end, token);
+                    int start = token[0], stop = token[1];
+
+                    if (!continuous[column] && start < stop && !matches(bytes, start, stop, missingMarker)) {
+                        sample[column].code(bytes, start, stop);
+                        continuous[column] = sample[column].size() > maxNumCategories;
+                    }
+                }
+
+                rows++;
+            }
+
+            return continuous;
+        }
+
+        private void parseChunk(int chunk, byte[] bytes) {
+            int row = firstRows[chunk];
+            int[] token = new int[2];
+            int lineStart = 0;
+
+            while (lineStart < bytes.length) {
+                int lineEnd = indexOfLineBreak(bytes, lineStart);
+                int position = trimStart(bytes, lineStart, lineEnd);
+                int end = trimEnd(bytes, position, lineEnd);
+                lineStart = lineEnd + 1;
+
+                if (position == end || startsWith(bytes, position, end, commentMarker)) {
+                    continue;
+                }
+
+                int column = 0;
+
+                while (position >= 0) {
+                    position = nextToken(bytes, position, end, token);
+
+                    // Values past the last variable are ignored, as SimpleDataLoader does.
+                    if (column < numColumns) {
+                        setValue(chunk, row, column, bytes, token[0], token[1]);
+                    }
+
+                    column++;
+                }
+
+                if (column < numColumns) {
+                    throw new Unsupported("a short line");
+                }
+
+                row++;
+            }
+        }
+
+        // Finds the value starting at a position in a trimmed line, puts its bounds in token, and returns where the
+        // next value starts, or -1 if this was the last. Characters this loader doesn't handle are rejected here.
+        private int nextToken(byte[] bytes, int position, int end, int[] token) {
+            if (whitespace) {
+                int start = position;
+
+                while (position < end && !isBlank(bytes[position])) {
+                    check(bytes[position++]);
+                }
+
+                token[0] = start;
+                token[1] = position;
+
+                while (position < end && isBlank(bytes[position])) {
+                    position++;
+                }
+
+                return position < end ? position : -1;
+            }
+
+            int start = position;
+
+            while (position < end && bytes[position] != delimiter) {
+                check(bytes[position++]);
+            }
+
+            int tokenStart = trimStart(bytes, start, position);
+            token[0] = tokenStart;
+            token[1] = trimEnd(bytes, tokenStart, position);
+            return position < end ? position + 1 : -1;
+        }
+
+        private void check(byte b) {
+            if (b < 0 || b == quote || (b < ' ' && b != '\t')) {
+                throw new Unsupported(b == quote ? "quoted values" : "characters other than printable ASCII");
+            }
+        }
+
+        private void setValue(int chunk, int row, int column, byte[] bytes, int start, int end) {
+            boolean missing = start == end || matches(bytes, start, end, missingMarker);
+
+            if (dataType == DataType.CONTINUOUS) {
+                continuous[column][row] = missing ? Double.NaN : parseDouble(bytes, start, end);
+                return;
+            }
+
+            if (numeric[chunk][column]) {
+                continuous[column][row] = missing ? Double.NaN : parseDouble(bytes, start, end);
+                return;
+            }
+
+            Dictionary dictionary = dictionaries[chunk][column];
+
+            if (dictionary == null) {
+                dictionary = dictionaries[chunk][column] = new Dictionary();
+            }
+
+            discrete[column][row] = missing ? DiscreteVariable.MISSING_VALUE : dictionary.code(bytes, start, end);
+
+            // A mixed column with too many values for a discrete column is continuous; from here on this chunk
+            // parses it as numbers.
+            if (dataType == DataType.MIXED && dictionary.size() > maxNumCategories) {
+                double[] values = continuousColumn(column);
+                toNumbers(discrete[column], values, dictionary, firstRows[chunk], row + 1);
+                numeric[chunk][column] = true;
+            }
+        }
+
+        // The numbers of a column that started out as categories, made when some chunk finds it has too many.
+        private double[] continuousColumn(int column) {
+            synchronized (continuous) {
+                if (continuous[column] == null) {
+                    continuous[column] = new double[discrete[column].length];
+                }
+
+                return continuous[column];
+            }
+        }
+
+        private DataSet makeDataSet() {
+            int numRows = firstRows[firstRows.length - 1];
+            List<Node> variables = new ArrayList<>();
+
+            if (dataType == DataType.CONTINUOUS) {
+                for (String name : names) variables.add(new ContinuousVariable(name));
+                return new BoxDataSet(new VerticalDoubleDataBox(continuous), variables);
+            }
+
+            int numChunks = dictionaries.length;
+            boolean anyContinuous = false;
+            boolean anyDiscrete = false;
+
+            for (int column = 0; column < numColumns; column++) {
+                List<String> categories = categories(column);
+
+                if (categories == null) {
+                    for (int c = 0; c < numChunks; c++) {
+                        if (!numeric[c][column] && dictionaries[c][column] != null) {
+                            toNumbers(discrete[column], continuousColumn(column), dictionaries[c][column],
+                                    firstRows[c], firstRows[c + 1]);
+                        }
+                    }
+
+                    discrete[column] = null;
+                    variables.add(new ContinuousVariable(names.get(column)));
+                    anyContinuous = true;
+                } else {
+                    recode(column, categories);
+                    variables.add(new DiscreteVariable(names.get(column), categories));
+                    anyDiscrete = true;
+                }
+            }
+
+            DataBox box;
+
+            if (anyContinuous && !anyDiscrete) {
+                box = new VerticalDoubleDataBox(continuous);
+            } else if (anyDiscrete && !anyContinuous) {
+                box = new VerticalIntDataBox(discrete);
+            } else {
+                box = new MixedDataBox(variables, numRows, continuous, discrete);
+            }
+
+            return new BoxDataSet(box, variables);
+        }
+
+        // The sorted categories of a column, or null if it is continuous.
+        private List<String> categories(int column) {
+            SortedSet<String> categories = new TreeSet<>();
+
+            for (int c = 0; c < dictionaries.length; c++) {
+                if (numeric[c][column]) {
+                    return null;
+                }
+
+                Dictionary dictionary = dictionaries[c][column];
+
+                for (int code = 0; dictionary != null && code < dictionary.size(); code++) {
+                    categories.add(dictionary.get(code));
+                }
+
+                if (dataType == DataType.MIXED && categories.size() > maxNumCategories) {
+                    return null;
+                }
+            }
+
+            return new ArrayList<>(categories);
+        }
+
+        // Replaces each chunk's codes for a column with indices into the sorted categories.
+        private void recode(int column, List<String> categories) {
+            Map<String, Integer> indices = new HashMap<>();
+            for (int i = 0; i < categories.size(); i++) indices.put(categories.get(i), i);
+            int[] values = discrete[column];
+
+            IntStream.range(0, dictionaries.length).parallel().forEach(c -> {
+                Dictionary dictionary = dictionaries[c][column];
+
+                if (dictionary == null) {
+                    return;
+                }
+
+                int[] index = new int[dictionary.size()];
+                for (int code = 0; code < index.length; code++) index[code] = indices.get(dictionary.get(code));
+
+                for (int row = firstRows[c]; row < firstRows[c + 1]; row++) {
+                    if (values[row] != DiscreteVariable.MISSING_VALUE) {
+                        values[row] = index[values[row]];
+                    }
+                }
+            });
+        }
+
+        // Parses the values a chunk has stored as codes in rows from..to - 1 as numbers.
+        private static void toNumbers(int[] codes, double[] values, Dictionary dictionary, int from, int to) {
+            double[] numbers = new double[dictionary.size()];
+
+            for (int code = 0; code < numbers.length; code++) {
+                byte[] bytes = dictionary.get(code).getBytes(StandardCharsets.US_ASCII);
+                numbers[code] = parseDouble(bytes, 0, bytes.length);
+            }
+
+            for (int row = from; row < to; row++) {
+                values[row] = codes[row] == DiscreteVariable.MISSING_VALUE ? Double.NaN : numbers[codes[row]];
+            }
+        }
+    }
+
+    // Parses a number as Double.parseDouble would. A decimal with at most 15 significant digits and a power of ten
+    // no larger than 22 is computed with a single correctly rounded multiplication or division, which gives the same
+    // double (Clinger's fast path); anything else goes to Double.parseDouble.
+    private static double parseDouble(byte[] bytes, int start, int end) {
+        int position = start;
+        boolean negative = false;
+
+        if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+            negative = bytes[position++] == '-';
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        boolean slow = false;
+        int d;
+
+        while (position < end && (d = bytes[position] - '0') >= 0 && d <= 9) {
+            any = true;
+            position++;
+
+            if (mantissa != 0 || d != 0) {
+                if (++digits > 15) slow = true;
+                else mantissa = mantissa * 10 + d;
+            }
+        }
+
+        if (position < end && bytes[position] == '.') {
+            position++;
+
+            while (position < end && (d = bytes[position] - '0') >= 0 && d <= 9) {
+                any = true;
+                position++;
+
+                if (mantissa != 0 || d != 0) {
+                    if (++digits > 15) slow = true;
+                    else mantissa = mantissa * 10 + d;
+                }
+
+                exponent--;
+            }
+        }
+
+        if (position < end && any && (bytes[position] == 'e' || bytes[position] == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+
+            if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+                negativeExponent = bytes[position++] == '-';
+            }
+
+            int value = 0;
+            int exponentDigits = 0;
+
+            while (position < end && (d = bytes[position] - '0') >= 0 && d <= 9) {
+                position++;
+                if (++exponentDigits > 4) slow = true;
+                else value = value * 10 + d;
+            }
+
+            if (exponentDigits == 0) slow = true;
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (!slow && any && position == end) {
+            if (mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+
+            double value = Double.NaN;
+
+            if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+                value = mantissa * POWERS_OF_TEN[exponent];
+            } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value = mantissa / POWERS_OF_TEN[-exponent];
+            }
+
+            if (!Double.isNaN(value)) {
+                return negative ? -value : value;
+            }
+        }
+
+        try {
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new Unsupported("a value that isn't a number where one is expected");
+        }
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int indexOfLineBreak(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') return i;
+        }
+
+        return bytes.length;
+    }
+
+    // Skips leading characters that String.trim() would remove.
+    private static int trimStart(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xff) <= ' ') start++;
+        return start;
+    }
+
+    private static int trimEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] & 0xff) <= ' ') end--;
+        return end;
+    }
+
+    private static boolean startsWith(byte[] bytes, int start, int end, byte[] prefix) {
+        if (prefix.length == 0 || end - start < prefix.length) return false;
+        return Arrays.equals(bytes, start, start + prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static boolean matches(byte[] bytes, int start, int end, byte[] other) {
+        return Arrays.equals(bytes, start, end, other, 0, other.length);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b, int n) {
+        byte[] c = Arrays.copyOf(a, a.length + n);
+        System.arraycopy(b, 0, c, a.length, n);
+        return c;
+    }
+
+    // Gives each distinct value of a column in a chunk a code, in order of first appearance, looking values up by
+    // their bytes so that no string is made for a value already seen.
+    private static class Dictionary {
+        private byte[] pool = new byte[256];
+        private int poolSize;
+        private int[] offsets = new int[17];
+        private int size;
+        private int[] table = new int[32];
+
+        int size() {
+            return size;
+        }
+
+        String get(int code) {
+            return new String(pool, offsets[code], offsets[code + 1] - offsets[code], StandardCharsets.US_ASCII);
+        }
+
+        int code(byte[] bytes, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) hash = 31 * hash + bytes[i];
+            hash ^= hash >>> 16;
+
+            int mask = table.length - 1;
+
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int entry = table[slot];
+
+                if (entry == 0) {
+                    int code = add(bytes, start, end);
+                    table[slot] = code + 1;
+
+                    if (size * 2 > table.length) {
+                        rehash();
+                    }
+
+                    return code;
+                }
+
+                int code = entry - 1;
+
+                if (Arrays.equals(bytes, start, end, pool, offsets[code], offsets[code + 1])) {
+                    return code;
+                }
+            }
+        }
+
+        private int add(byte[] bytes, int start, int end) {
+            int length = end - start;
+
+            if (poolSize + length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+            }
+
+            if (size + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+
+            System.arraycopy(bytes, start, pool, poolSize, length);
+            offsets[size] = poolSize;
+            poolSize += length;
+            offsets[size + 1] = poolSize;
+            return size++;
+        }
+
+        private void rehash() {
+            int[] old = table;
+            table = new int[old.length * 2];
+            int mask = table.length - 1;
+
+            for (int entry : old) {
+                if (entry == 0) continue;
+                int code = entry - 1;
+                int hash = 1;
+                for (int i = offsets[code]; i < offsets[code + 1]; i++) hash = 31 * hash + pool[i];
+                hash ^= hash >>> 16;
+                int slot = hash & mask;
+                while (table[slot] != 0) slot = (slot + 1) & mask;
+                table[slot] = entry;
+            }
+        }
+    }
+}
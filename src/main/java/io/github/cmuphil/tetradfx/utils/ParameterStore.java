@@ -0,0 +1,129 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import com.google.gson.Gson;
+import edu.cmu.tetrad.util.Parameters;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <p>Holds the parameters of a session and keeps them saved in its parameters file. The parameters
+ * are held as a series of versions: a change makes a new version from a copy of the current one
+ * and puts it in place, and a version is never changed once it has been put in place. So taking a
+ * snapshot of the parameters--for a search about to be run, say--costs nothing, and the snapshot
+ * stays as it was however the parameters are edited afterward.</p>
+ *
+ * <p>Listeners are told of each new version, on the thread that made the change. The file is
+ * written by the PersistenceService, in the background once the editing has paused, as JSON made
+ * from the latest version only, and to a temporary file that is then moved into place, so that a
+ * crash can't leave it partly written.</p>
+ *
+ * @author josephramsey
+ */
+public class ParameterStore {
+    private final File file;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot current;
+
+    /**
+     * Creates a store for the parameters in a file, reading them from the file if it exists.
+     *
+     * @param file The parameters file.
+     */
+    public ParameterStore(File file) {
+        this.file = file;
+        this.current = new Snapshot(0, Utils.loadParameters(file));
+    }
+
+    /**
+     * A version of the parameters. Its parameters must not be changed; use the store to change them.
+     *
+     * @param version    The version, which goes up by one with each change.
+     * @param parameters The parameters as they were in this version.
+     */
+    public record Snapshot(long version, Parameters parameters) {
+    }
+
+    /**
+     * Told when the parameters have changed.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the parameters have changed.
+         *
+         * @param snapshot The new version of the parameters.
+         */
+        void parametersChanged(Snapshot snapshot);
+    }
+
+    /**
+     * Returns the current version of the parameters.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Returns the current parameters, for reading; they must not be changed.
+     *
+     * @return The parameters.
+     */
+    public Parameters getParameters() {
+        return current.parameters();
+    }
+
+    /**
+     * Sets a parameter.
+     *
+     * @param name  The name of the parameter.
+     * @param value Its new value.
+     */
+    public void set(String name, Object value) {
+        update(parameters -> parameters.set(name, value));
+    }
+
+    /**
+     * Makes a new version of the parameters by making some changes to a copy of the current one, and saves it.
+     *
+     * @param changes Makes the changes to the copy it is given.
+     */
+    public void update(Consumer<Parameters> changes) {
+        Snapshot snapshot;
+
+        synchronized (this) {
+            Parameters parameters = new Parameters(current.parameters());
+            changes.accept(parameters);
+            snapshot = new Snapshot(current.version() + 1, parameters);
+            current = snapshot;
+        }
+
+        PersistenceService.getInstance().write(file, () -> new Gson().toJson(snapshot.parameters()));
+
+        for (Listener listener : listeners) {
+            listener.parametersChanged(snapshot);
+        }
+    }
+
+    /**
+     * Adds a listener to be told when the parameters change.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener The listener.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,395 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>A session (.tfx) file that is being loaded into the session directory a piece at a time. When a
+ * session is loaded, only the small files that say what the session holds--the files at the top of
+ * the session directory, like the manifest and the parameters, and the tab order files of each
+ * project--are extracted right away, and a directory is made for each project; then the session
+ * can be shown. The rest of each project is extracted when the project is first opened, or in the
+ * background, and everything is extracted before the session is saved.</p>
+ *
+ * <p>The archive is read as an indexed container, through its central directory, so extracting one
+ * project doesn't mean reading past the others. Which projects are still to be extracted is kept in
+ * a marker file in the session directory, so that if the program is closed before everything has
+ * been extracted, the rest is picked up from the archive the next time it starts.</p>
+ *
+ * <p>The methods of this class may be called from worker threads.</p>
+ *
+ * @author josephramsey
+ */
+public class PendingArchive implements Closeable {
+
+    /**
+     * The name of the marker file in the session directory.
+     */
+    public static final String MARKER = ".pending-archive.json";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File sessionDir;
+    private final ZipFile zipFile;
+    private final Marker marker;
+
+    // The entries under each top-level directory that hasn't been extracted yet.
+    private final Map<String, List<ZipEntry>> entries = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private PendingArchive(File sessionDir, ZipFile zipFile, Marker marker) {
+        this.sessionDir = sessionDir;
+        this.zipFile = zipFile;
+        this.marker = marker;
+
+        for (ZipEntry entry : Collections.list(zipFile.entries())) {
+            int slash = entry.getName().indexOf('/');
+
+            if (slash > 0 && marker.pending.contains(entry.getName().substring(0, slash))) {
+                entries.computeIfAbsent(entry.getName().substring(0, slash), k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        pending.addAll(marker.pending);
+    }
+
+    /**
+     * Starts loading a session from an archive into an empty session directory, extracting only what is needed to
+     * show the session and writing the marker for the rest.
+     *
+     * @param archive    The session file.
+     * @param sessionDir The session directory, which should be empty.
+     * @throws IOException If the archive can't be read or the files can't be written.
+     */
+    public static void start(File archive, File sessionDir) throws IOException {
+        Set<String> groups;
+
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            groups = extractOutline(zipFile, sessionDir, null);
+        }
+
+        Marker marker = new Marker();
+        marker.archive = archive.getAbsolutePath();
+        marker.archiveLength = archive.length();
+        marker.archiveModified = archive.lastModified();
+        marker.pending = new ArrayList<>(groups);
+        marker.write(new File(sessionDir, MARKER));
+    }
+
+    /**
+     * Picks up loading a session where it was left, if it wasn't finished. If the archive it came from has changed
+     * since--it was saved again, say--the directories not yet extracted are extracted afresh from it as it is now.
+     * If it is gone or can't be read, or no longer has one of them, those directories are deleted, so that no project
+     * is left with only some of its files. Either way, the user is to be told, so a message is added to the warnings.
+     *
+     * @param sessionDir The session directory.
+     * @param warnings   Messages for the user are added to this.
+     * @return The archive, or null if there is nothing left to extract from it.
+     */
+    public static PendingArchive resume(File sessionDir, List<String> warnings) {
+        File markerFile = new File(sessionDir, MARKER);
+        Marker marker = Marker.read(markerFile);
+
+        if (marker == null) {
+            return null;
+        }
+
+        if (marker.pending.isEmpty()) {
+            markerFile.delete();
+            return null;
+        }
+
+        File archive = new File(marker.archive);
+        List<String> names = new ArrayList<>();
+        for (String dirName : marker.pending) names.add(dirName.replace('_', ' '));
+
+        try {
+            ZipFile zipFile = new ZipFile(archive);
+
+            if (archive.length() == marker.archiveLength && archive.lastModified() == marker.archiveModified) {
+                return new PendingArchive(sessionDir, zipFile, marker);
+            }
+
+            try {
+                deleteDirs(sessionDir, marker.pending);
+                Set<String> groups = extractOutline(zipFile, sessionDir, new HashSet<>(marker.pending));
+                List<String> reloaded = new ArrayList<>();
+                List<String> missing = new ArrayList<>();
+
+                for (String dirName : marker.pending) {
+                    (groups.contains(dirName) ? reloaded : missing).add(dirName.replace('_', ' '));
+                }
+
+                warnings.add("The session file " + archive + " has changed since the session was loaded from it."
+                        + (reloaded.isEmpty() ? "" : " These projects, which hadn't been opened yet, are loaded from "
+                        + "it as it is now: " + reloaded + ".")
+                        + (missing.isEmpty() ? "" : " These projects, which hadn't been opened yet, are no longer in "
+                        + "it and have been removed: " + missing + "."));
+
+                marker.archiveLength = archive.length();
+                marker.archiveModified = archive.lastModified();
+                marker.pending = new ArrayList<>(groups);
+
+                if (marker.pending.isEmpty()) {
+                    zipFile.close();
+                    markerFile.delete();
+                    return null;
+                }
+
+                marker.write(markerFile);
+                return new PendingArchive(sessionDir, zipFile, marker);
+            } catch (IOException e) {
+                zipFile.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            try {
+                deleteDirs(sessionDir, marker.pending);
+            } catch (IOException e2) {
+                System.out.println("Could not delete the projects that weren't loaded: " + e2.getMessage());
+            }
+
+            markerFile.delete();
+            String reason = archive.isFile() ? "could not be read (" + e.getMessage() + ")" : "is gone";
+            warnings.add("The session file " + archive + " " + reason + ", so these projects, which hadn't been "
+                    + "opened yet, could not be loaded and have been removed: " + names + ".");
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether a directory in the session directory has yet to be extracted.
+     *
+     * @param dirName The name of the directory, like a project's directory.
+     * @return True if it has yet to be extracted.
+     */
+    public boolean isPending(String dirName) {
+        return pending.contains(dirName);
+    }
+
+    /**
+     * Returns the directories that have yet to be extracted.
+     *
+     * @return Their names.
+     */
+    public List<String> getPending() {
+        List<String> names = new ArrayList<>(pending);
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Extracts a directory, like a project's directory, if it hasn't been extracted yet. If another thread is
+     * extracting it, waits for that to finish.
+     *
+     * @param dirName The name of the directory.
+     * @throws IOException If the directory can't be extracted.
+     */
+    public void materialize(String dirName) throws IOException {
+        synchronized (lock(dirName)) {
+            if (!pending.contains(dirName)) {
+                return;
+            }
+
+            for (ZipEntry entry : entries.getOrDefault(dirName, List.of())) {
+
+                // Stop if the directory was discarded, or the thread interrupted, in the meantime.
+                if (!pending.contains(dirName)) {
+                    return;
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException();
+                }
+
+                if (!entry.isDirectory() && !entry.getName().endsWith("/taborder.txt")) {
+                    extract(zipFile, entry, sessionDir);
+                }
+            }
+
+            done(dirName);
+        }
+    }
+
+    /**
+     * Extracts everything that hasn't been extracted yet.
+     *
+     * @throws IOException If something can't be extracted.
+     */
+    public void materializeAll() throws IOException {
+        for (String dirName : getPending()) {
+            materialize(dirName);
+        }
+    }
+
+    /**
+     * Stops a directory from being extracted, because it is about to be deleted. If it is being extracted, waits for
+     * the file being extracted to be finished.
+     *
+     * @param dirName The name of the directory.
+     */
+    public void discard(String dirName) {
+        if (pending.remove(dirName)) {
+            synchronized (lock(dirName)) {
+                done(dirName);
+            }
+        }
+    }
+
+    /**
+     * Closes the archive. Anything not yet extracted will be extracted the next time the session is started.
+     *
+     * @throws IOException If the archive can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+
+    private Object lock(String dirName) {
+        return locks.computeIfAbsent(dirName, k -> new Object());
+    }
+
+    // Records that a directory is finished with, updating the marker, and closing the archive and deleting the
+    // marker once there is nothing left.
+    private void done(String dirName) {
+        synchronized (marker) {
+            pending.remove(dirName);
+            entries.remove(dirName);
+            marker.pending = getPending();
+            File markerFile = new File(sessionDir, MARKER);
+
+            if (marker.pending.isEmpty()) {
+                markerFile.delete();
+
+                try {
+                    zipFile.close();
+                } catch (IOException e) {
+                    System.out.println("Could not close the session file: " + e.getMessage());
+                }
+            } else {
+                try {
+                    marker.write(markerFile);
+                } catch (IOException e) {
+                    System.out.println("Could not update " + markerFile + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Extracts what is needed to show a session--the files at the top of the archive and the tab order files--making
+    // a directory for each top-level directory in it, and returns their names. If only is given, just the directories
+    // named in it are made and extracted into.
+    private static Set<String> extractOutline(ZipFile zipFile, File sessionDir, Set<String> only) throws IOException {
+        Set<String> groups = new TreeSet<>();
+
+        for (ZipEntry entry : Collections.list(zipFile.entries())) {
+            String name = entry.getName();
+            int slash = name.indexOf('/');
+
+            if (only != null && (slash < 0 || !only.contains(name.substring(0, slash)))) {
+                continue;
+            }
+
+            if (slash > 0) {
+                groups.add(name.substring(0, slash));
+                File dir = target(sessionDir, name.substring(0, slash));
+
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Could not make directory " + dir);
+                }
+            }
+
+            if (!entry.isDirectory() && (slash < 0 || name.endsWith("/taborder.txt"))) {
+                extract(zipFile, entry, sessionDir);
+            }
+        }
+
+        return groups;
+    }
+
+    private static void deleteDirs(File sessionDir, List<String> dirNames) throws IOException {
+        for (String dirName : dirNames) {
+            File dir = target(sessionDir, dirName);
+
+            if (dir.exists()) {
+                Utils.deleteDirectory(dir.toPath());
+            }
+        }
+    }
+
+    private static void extract(ZipFile zipFile, ZipEntry entry, File sessionDir) throws IOException {
+        File file = target(sessionDir, entry.getName());
+        File parent = file.getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not make directory " + parent);
+        }
+
+        try (InputStream in = zipFile.getInputStream(entry);
+             OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    // The file an entry goes to, making sure it is inside the session directory.
+    private static File target(File sessionDir, String name) throws IOException {
+        File file = new File(sessionDir, name);
+
+        if (!file.getCanonicalPath().startsWith(sessionDir.getCanonicalPath() + File.separator)) {
+            throw new IOException("Entry is outside of the session directory: " + name);
+        }
+
+        return file;
+    }
+
+    /**
+     * The contents of the marker file: the archive being loaded, its length and modification time when loading
+     * started, and the directories still to be extracted from it.
+     */
+    private static class Marker {
+        private String archive;
+        private long archiveLength;
+        private long archiveModified;
+        private List<String> pending = new ArrayList<>();
+
+        static Marker read(File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                Marker marker = new Gson().fromJson(reader, Marker.class);
+                return marker == null || marker.archive == null || marker.pending == null ? null : marker;
+            } catch (IOException | JsonParseException e) {
+                System.out.println("Could not read " + file + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        void write(File file) throws IOException {
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                new Gson().toJson(this, writer);
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * <p>Writes the small files a session keeps as it is edited--notes, parameter notes, tab orders
+ * and the parameters--in the background, so that typing in the notes area, editing parameters or
+ * opening and closing tabs never waits on the disk. A write only marks the file dirty with its new
+ * text; the dirty files are written together once nothing has been written for a moment, and a
+ * file changed several times in the meantime is written once, with its last text. Each file is
+ * written to a temporary file first and moved into place, so a crash can't leave one partly
+ * written.</p>
+ *
+ * <p>Anything that reads the session directory as a whole--saving the session, say--should call
+ * flush() first, and anything that deletes files there should call discard() for them first, so
+ * that a pending write doesn't bring them back. The application flushes when it exits.</p>
+ *
+ * @author josephramsey
+ */
+public class PersistenceService {
+    private static final PersistenceService INSTANCE = new PersistenceService();
+
+    // How long nothing must be written before the dirty files are, and the longest a file may stay dirty while
+    // writes keep coming.
+    private static final long IDLE_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = 5000;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tetrad-fx-persistence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The dirty files with the text to write to each, in the order they were first made dirty.
+    private final Map<File, Supplier<String>> dirty = new LinkedHashMap<>();
+
+    // Held while files are being written, so that flush() and discard() can wait for a write in progress.
+    private final Object writing = new Object();
+
+    private ScheduledFuture<?> scheduled;
+    private long firstDirtyTime;
+
+    private PersistenceService() {
+    }
+
+    /**
+     * @return The singleton instance of this class.
+     */
+    public static PersistenceService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Marks a file to be written with the given text. The file is written in the background, after any earlier text
+     * for it is dropped.
+     *
+     * @param file The file.
+     * @param text The text to write to it.
+     */
+    public void write(File file, String text) {
+        if (text == null) {
+            throw new NullPointerException("The text cannot be null.");
+        }
+
+        write(file, () -> text);
+    }
+
+    /**
+     * Marks a file to be written with text that is made only when the file is written, in the background, so that
+     * something expensive to write out, like JSON, is written out once however often it changes. The supplier is
+     * called on another thread, so it must only read things that won't change.
+     *
+     * @param file The file.
+     * @param text Supplies the text to write to it.
+     */
+    public void write(File file, Supplier<String> text) {
+        if (file == null || text == null) {
+            throw new NullPointerException("The file and text cannot be null.");
+        }
+
+        synchronized (dirty) {
+            long now = System.currentTimeMillis();
+
+            if (dirty.isEmpty()) {
+                firstDirtyTime = now;
+            }
+
+            dirty.put(file, text);
+
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+
+            long delay = Math.max(0, Math.min(IDLE_DELAY_MS, firstDirtyTime + MAX_DELAY_MS - now));
+            scheduled = executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes every dirty file now, returning when they have been written.
+     */
+    public void flush() {
+        synchronized (writing) {
+            Map<File, Supplier<String>> files;
+
+            synchronized (dirty) {
+                if (dirty.isEmpty()) {
+                    return;
+                }
+
+                files = new LinkedHashMap<>(dirty);
+                dirty.clear();
+
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                    scheduled = null;
+                }
+            }
+
+            for (Map.Entry<File, Supplier<String>> entry : files.entrySet()) {
+                try {
+                    writeNow(entry.getKey(), entry.getValue().get());
+                } catch (RuntimeException e) {
+                    System.out.println("Could not write " + entry.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the pending writes to the files in a directory whose names start with a prefix, waiting for any write in
+     * progress to finish, so that the files can then be deleted.
+     *
+     * @param dir    The directory. Files in its subdirectories are dropped too.
+     * @param prefix The prefix; "" for every file.
+     */
+    public void discard(File dir, String prefix) {
+        File absoluteDir = dir.getAbsoluteFile();
+
+        synchronized (dirty) {
+            dirty.keySet().removeIf(file -> isIn(file.getAbsoluteFile(), absoluteDir)
+                    && (!file.getAbsoluteFile().getParentFile().equals(absoluteDir)
+                    || file.getName().startsWith(prefix)));
+        }
+
+        synchronized (writing) {
+            // Nothing to do; this just waits for a write in progress.
+        }
+    }
+
+    private static boolean isIn(File file, File dir) {
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(dir)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void writeNow(File file, String text) {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try {
+            // In the default encoding, which is what the files are read in.
+            try (Writer writer = new BufferedWriter(new FileWriter(temp))) {
+                writer.write(text);
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import edu.cmu.tetrad.algcomparison.algorithm.Algorithm;
+import edu.cmu.tetrad.algcomparison.utils.TakesIndependenceWrapper;
+import edu.cmu.tetrad.algcomparison.utils.UsesScoreWrapper;
+import edu.cmu.tetrad.data.DataSet;
+import edu.cmu.tetrad.data.DiscreteVariable;
+import edu.cmu.tetrad.data.Knowledge;
+import edu.cmu.tetrad.graph.Graph;
+import edu.cmu.tetrad.graph.GraphSaveLoadUtils;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.util.Parameters;
+import edu.cmu.tetrad.util.Params;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * <p>A persistent cache of search results, stored as graph files in a directory under the session
+ * directory. The key for a search combines a hash of the contents of the dataset, the algorithm
+ * class, the test and score wrappers, the values of the parameters the algorithm uses, the seed and
+ * the resampling settings, and a hash of the knowledge, so a search that has been done before on
+ * the same data with the same settings can be returned immediately instead of being redone.</p>
+ *
+ * <p>Only searches that come out the same each time they are done are cached (see isCacheable()).
+ * The cache is kept to MAX_ENTRIES results and MAX_BYTES bytes; when it grows past either, the
+ * results used longest ago are deleted.</p>
+ *
+ * <p>The methods of this class may be called from worker threads.</p>
+ *
+ * @author josephramsey
+ */
+public class SearchCache {
+
+    /**
+     * The most results the cache keeps.
+     */
+    public static final int MAX_ENTRIES = 500;
+
+    /**
+     * The most bytes the cache's results may take on disk.
+     */
+    public static final long MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The name of the cache's directory under the session directory. It isn't saved with the session.
+     */
+    public static final String DIRECTORY = ".search-cache";
+
+    private final File dir;
+
+    /**
+     * Creates a new cache storing its results in the given directory, which is created if needed.
+     *
+     * @param dir The directory.
+     */
+    public SearchCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns whether a search can be cached--that is, whether it comes out the same each time it is done. A search
+     * with bootstrapping doesn't, since the resamples are drawn at random and the results of their searches combined
+     * in whatever order they finish; nor does a search whose algorithm, test or score draws from the seed when the
+     * seed is -1, meaning a different one each time.
+     *
+     * @param parameters     The parameters for the search.
+     * @param usedParameters The names of the parameters the algorithm uses.
+     * @return True if the search can be cached.
+     */
+    public static boolean isCacheable(Parameters parameters, List<String> usedParameters) {
+        if (parameters.getInt(Params.NUMBER_RESAMPLING) > 0) {
+            return false;
+        }
+
+        return !usedParameters.contains(Params.SEED) || parameters.getLong(Params.SEED) != -1;
+    }
+
+    /**
+     * Returns the key for a search.
+     *
+     * @param algorithm      The algorithm, with its test and score wrappers set.
+     * @param dataSet        The dataset being searched over.
+     * @param parameters     The parameters for the search.
+     * @param usedParameters The names of the parameters the algorithm uses.
+     * @param knowledge      The knowledge used for the search, or null if none is used.
+     * @return The key, a hex string.
+     */
+    public String getKey(Algorithm algorithm, DataSet dataSet, Parameters parameters, List<String> usedParameters,
+                         Knowledge knowledge) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("data=").append(fingerprint(dataSet)).append('\n');
+        sb.append("algorithm=").append(algorithm.getClass().getName()).append('\n');
+
+        if (algorithm instanceof TakesIndependenceWrapper) {
+            sb.append("test=").append(((TakesIndependenceWrapper) algorithm).getIndependenceWrapper()
+                    .getClass().getName()).append('\n');
+        }
+
+        if (algorithm instanceof UsesScoreWrapper) {
+            sb.append("score=").append(((UsesScoreWrapper) algorithm).getScoreWrapper()
+                    .getClass().getName()).append('\n');
+        }
+
+        // The seed and the resampling settings change the result whether the algorithm lists them or not.
+        Set<String> names = new TreeSet<>(usedParameters);
+        names.add(Params.SEED);
+        names.addAll(Params.getBootstrappingParameters(algorithm));
+
+        for (String name : names) {
+            sb.append(name).append('=').append(parameters.get(name)).append('\n');
+        }
+
+        sb.append("knowledge=").append(knowledge == null ? "none" : hash(knowledge.toString()));
+
+        return hash(sb.toString());
+    }
+
+    /**
+     * Returns the cached result for a key, or null if there is none.
+     *
+     * @param key The key.
+     * @return The graph, or null.
+     */
+    public Graph get(String key) {
+        File file = new File(dir, key + ".txt");
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            Graph graph = GraphSaveLoadUtils.loadGraphTxt(file);
+
+            // The time a result was last used decides which results are deleted first when the cache is full.
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                System.out.println("Could not mark cached search result " + file + " as used");
+            }
+
+            return graph;
+        } catch (Exception e) {
+            // A damaged entry is treated as a miss; it will be overwritten.
+            System.out.println("Could not read cached search result " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores a result in the cache. The file is written to a temporary file first and then moved into place, so that
+     * a concurrent reader never sees a partial file. If the cache is then too big, the results used longest ago are
+     * deleted.
+     *
+     * @param key   The key.
+     * @param graph The graph.
+     */
+    public void put(String key, Graph graph) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            System.out.println("Could not make search cache directory " + dir);
+            return;
+        }
+
+        try {
+            File tmp = File.createTempFile(key, ".tmp", dir);
+            GraphSaveLoadUtils.saveGraph(graph, tmp, false);
+            Files.move(tmp.toPath(), new File(dir, key + ".txt").toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not cache search result: " + e.getMessage());
+        }
+
+        prune();
+    }
+
+    // Deletes the results used longest ago until the cache is within its limits. This is synchronized so that two
+    // searches finishing at once don't both delete results to make the same room.
+    private synchronized void prune() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".txt"));
+
+        if (files == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+
+        if (files.length <= MAX_ENTRIES && totalBytes <= MAX_BYTES) {
+            return;
+        }
+
+        // The times are read once, since they may change while sorting if a result is used.
+        Map<File, Long> lastUsed = new HashMap<>();
+
+        for (File file : files) {
+            lastUsed.put(file, file.lastModified());
+        }
+
+        Arrays.sort(files, Comparator.comparing(lastUsed::get));
+        int count = files.length;
+
+        for (File file : files) {
+            if (count <= MAX_ENTRIES && totalBytes <= MAX_BYTES) {
+                break;
+            }
+
+            long length = file.length();
+
+            try {
+                Files.deleteIfExists(file.toPath());
+                totalBytes -= length;
+                count--;
+            } catch (IOException e) {
+                System.out.println("Could not delete cached search result " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns a hash of the contents of a dataset--its variables, their types and categories, and all of its values.
+     *
+     * @param dataSet The dataset.
+     * @return The hash, as a hex string.
+     */
+    public static String fingerprint(DataSet dataSet) {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        buffer.putInt(dataSet.getNumRows());
+        buffer.putInt(dataSet.getNumColumns());
+
+        for (int j = 0; j < dataSet.getNumColumns(); j++) {
+            Node variable = dataSet.getVariable(j);
+            flush(digest, buffer);
+            digest.update(variable.getName().getBytes(StandardCharsets.UTF_8));
+
+            if (variable instanceof DiscreteVariable) {
+                digest.update((byte) 1);
+
+                for (String category : ((DiscreteVariable) variable).getCategories()) {
+                    digest.update(category.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                }
+
+                for (int i = 0; i < dataSet.getNumRows(); i++) {
+                    if (buffer.remaining() < 4) flush(digest, buffer);
+                    buffer.putInt(dataSet.getInt(i, j));
+                }
+            } else {
+                digest.update((byte) 0);
+
+                for (int i = 0; i < dataSet.getNumRows(); i++) {
+                    if (buffer.remaining() < 8) flush(digest, buffer);
+                    buffer.putDouble(dataSet.getDouble(i, j));
+                }
+            }
+        }
+
+        flush(digest, buffer);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void flush(MessageDigest digest, ByteBuffer buffer) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+    }
+
+    private static String hash(String s) {
+        return HexFormat.of().formatHex(newDigest().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
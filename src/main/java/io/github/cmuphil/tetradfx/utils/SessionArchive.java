@@ -0,0 +1,786 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>Writes a session directory to a session (.tfx) file, which is an ordinary zip file. Unlike
+ * ZipOutputStream, this never holds a whole file in memory, and it compresses files in parallel:
+ * each file to be compressed is deflated on a worker thread--into memory if it is small, or into a
+ * temporary file if it is large--while the calling thread writes finished entries to the archive in
+ * order. Only a bounded number of files are compressed ahead of the writer.</p>
+ *
+ * <p>Files that are already compressed or are binary, like datasets in the columnar format, are
+ * stored without being deflated again; they are copied straight into the archive. Large files and
+ * archives are written with the ZIP64 extensions, so there is no 4 GB limit.</p>
+ *
+ * <p>Next to each archive it writes an index (a ".index.json" sidecar) giving, for every entry,
+ * where it is in the archive, the size and modification time of the file it came from, and a hash
+ * of the file's contents. With this, update() can save a session again to the same archive by
+ * appending only the files that have changed, followed by a new central directory, so that saving
+ * again takes time in proportion to what changed rather than to the size of the session. Files
+ * whose size and modification time haven't changed aren't read at all; files that were rewritten
+ * with the same contents are recognized by their hashes. The old copies of changed files are left
+ * in the archive as dead space until more than half of the archive is dead, at which point the
+ * archive is written afresh.</p>
+ *
+ * <p>A full write goes to a temporary file next to the destination, which is forced to disk and
+ * then moved into place, so a failed, cancelled or interrupted full write leaves any earlier file
+ * as it was. An update can't work that way, since it writes into the archive itself: the new
+ * entries and central directory are appended after the old end of the archive, and only once they
+ * have been forced to disk is the index rewritten. An update that fails with an exception is cut
+ * back to the archive as it was. If the process dies during the append, though, the archive is left
+ * without a central directory at its end, and zip readers can't open it until recover() has cut it
+ * back to the end the index records; update() does so itself, and a session file should be
+ * recovered before it is opened.</p>
+ *
+ * <p>Saves to the same archive are made one at a time, whatever threads they are made on, and an
+ * archive isn't recovered while it is being saved: write(), update() and recover() each hold a
+ * lock for the archive, found by its canonical path, while they run, so a second save or a
+ * recovery waits for the save in progress to finish.</p>
+ *
+ * <p>Temporary files and the search cache (see SearchCache) are left out of the archive.</p>
+ *
+ * @author josephramsey
+ */
+public class SessionArchive {
+
+    /**
+     * The suffix added to an archive's name to get the name of its index.
+     */
+    public static final String INDEX_SUFFIX = ".index.json";
+
+    // Files with these extensions are stored rather than deflated.
+    private static final Set<String> STORED_EXTENSIONS = Set.of(ColumnarData.EXTENSION, ".tfx", ".zip", ".gz",
+            ".bz2", ".xz", ".png", ".jpg", ".jpeg");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Files up to this size are compressed in memory; larger ones into temporary files.
+    private static final int IN_MEMORY_LIMIT = 1 << 20;
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+
+    // The locks for the archives, by canonical path. They are reentrant, since update() recovers and may write.
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private SessionArchive() {
+    }
+
+    /**
+     * Receives progress as an archive is written.
+     */
+    public interface Progress {
+
+        /**
+         * Called each time a file has been written to the archive.
+         *
+         * @param done  The number of bytes of the session directory written so far.
+         * @param total The total number of bytes to be written.
+         */
+        void update(long done, long total);
+    }
+
+    /**
+     * Writes the files under a directory to an archive, with their paths relative to the directory, and writes the
+     * archive's index.
+     *
+     * @param dir      The directory.
+     * @param archive  The archive file, which is replaced if it exists.
+     * @param progress Receives progress, or null.
+     * @throws IOException          If a file can't be read or the archive can't be written.
+     * @throws InterruptedException If the thread is interrupted, in which case the archive is not written.
+     */
+    public static void write(File dir, File archive, Progress progress) throws IOException, InterruptedException {
+        ReentrantLock lock = lockFor(archive);
+        lock.lockInterruptibly();
+
+        try {
+            writeLocked(dir, archive, progress);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void writeLocked(File dir, File archive, Progress progress) throws IOException,
+            InterruptedException {
+        List<Source> sources = listFiles(dir.toPath());
+        File temp = new File(archive.getAbsoluteFile().getParentFile(), archive.getName() + ".tmp");
+        boolean done = false;
+        List<Entry> entries;
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ZipWriter writer = new ZipWriter(channel, 0, List.of());
+            writeEntries(writer, sources, progress);
+            writer.finish();
+            channel.force(true);
+            entries = writer.entries;
+            done = true;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+
+        Files.deleteIfExists(indexFile(archive).toPath());
+
+        try {
+            Files.move(temp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        new Index(archive.length(), archive.lastModified(), entries).write(indexFile(archive));
+    }
+
+    /**
+     * Saves the files under a directory to an archive, updating the archive in place if it was written by this class
+     * and hasn't been changed since, and writing it afresh otherwise.
+     *
+     * @param dir      The directory.
+     * @param archive  The archive file.
+     * @param progress Receives progress, or null.
+     * @throws IOException          If a file can't be read or the archive can't be written.
+     * @throws InterruptedException If the thread is interrupted, in which case the archive is left as it was.
+     */
+    public static void update(File dir, File archive, Progress progress) throws IOException, InterruptedException {
+        ReentrantLock lock = lockFor(archive);
+        lock.lockInterruptibly();
+
+        try {
+            updateLocked(dir, archive, progress);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void updateLocked(File dir, File archive, Progress progress) throws IOException,
+            InterruptedException {
+        recover(archive);
+        Index index = Index.read(indexFile(archive));
+
+        if (index == null || !archive.isFile() || archive.length() != index.archiveLength
+                || archive.lastModified() != index.archiveModified) {
+            write(dir, archive, progress);
+            return;
+        }
+
+        Map<String, Entry> previous = new HashMap<>();
+        for (Entry entry : index.entries) previous.put(entry.name, entry);
+
+        // Sort the files into those already in the archive and those that have to be added.
+        List<Entry> kept = new ArrayList<>();
+        List<Source> changed = new ArrayList<>();
+        long keptLength = 0;
+
+        for (Source source : listFiles(dir.toPath())) {
+            Entry entry = previous.get(source.name);
+
+            if (entry != null && entry.size == source.size && (entry.sourceModified == source.modified
+                    || entry.hash.equals(hash(source.path)))) {
+                kept.add(entry.withSourceModified(source.modified));
+                keptLength += entry.length;
+            } else {
+                changed.add(source);
+            }
+        }
+
+        if (changed.isEmpty() && kept.size() == index.entries.size()) {
+            new Index(index.archiveLength, index.archiveModified, kept).write(indexFile(archive));
+            return;
+        }
+
+        // Compact once more than half the archive is old copies of files and old central directories.
+        if (index.archiveLength - keptLength > index.archiveLength / 2) {
+            write(dir, archive, progress);
+            return;
+        }
+
+        // The new entries and central directory go after the old end of the archive, so the archive as it was is
+        // still there, up to the end the index records, until the update is complete.
+        boolean done = false;
+        List<Entry> entries;
+
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.WRITE)) {
+            try {
+                ZipWriter writer = new ZipWriter(channel, index.archiveLength, kept);
+                writeEntries(writer, changed, progress);
+                writer.finish();
+                channel.force(true);
+                entries = writer.entries;
+                done = true;
+            } finally {
+                if (!done) {
+                    channel.truncate(index.archiveLength);
+                }
+            }
+        } finally {
+            if (!done && !archive.setLastModified(index.archiveModified)) {
+                System.out.println("Could not restore the modification time of " + archive);
+            }
+        }
+
+        new Index(archive.length(), archive.lastModified(), entries).write(indexFile(archive));
+    }
+
+    /**
+     * Cuts an archive back to the end its index records if an update to it was cut short, leaving it without a
+     * central directory at its end, so that it holds what it held after the last complete save. An archive that ends
+     * in a central directory is left alone, even if it is longer than the index says. If the archive is being saved,
+     * this waits for the save to finish first.
+     *
+     * @param archive The archive file.
+     * @return True if the archive was cut back.
+     * @throws IOException If the archive can't be read or cut back.
+     */
+    public static boolean recover(File archive) throws IOException {
+        ReentrantLock lock = lockFor(archive);
+        lock.lock();
+
+        try {
+            return recoverLocked(archive);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean recoverLocked(File archive) throws IOException {
+        Index index = Index.read(indexFile(archive));
+
+        if (index == null || !archive.isFile() || archive.length() <= index.archiveLength
+                || index.archiveLength < ZipWriter.END_LENGTH) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (ZipWriter.endsAt(channel, channel.size()) || !ZipWriter.endsAt(channel, index.archiveLength)) {
+                return false;
+            }
+
+            channel.truncate(index.archiveLength);
+            channel.force(true);
+        }
+
+        if (!archive.setLastModified(index.archiveModified)) {
+            System.out.println("Could not restore the modification time of " + archive);
+        }
+
+        return true;
+    }
+
+    private static ReentrantLock lockFor(File archive) throws IOException {
+        return LOCKS.computeIfAbsent(archive.getCanonicalPath(), path -> new ReentrantLock());
+    }
+
+    private static File indexFile(File archive) {
+        return new File(archive.getAbsoluteFile().getParentFile(), archive.getName() + INDEX_SUFFIX);
+    }
+
+    // Writes the files to the archive in order, compressing a bounded number ahead in parallel.
+    private static void writeEntries(ZipWriter writer, List<Source> sources, Progress progress)
+            throws IOException, InterruptedException {
+        long total = 0;
+        for (Source source : sources) total += source.size;
+
+        int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = newPool(numThreads);
+        List<Future<Compressed>> futures = new ArrayList<>();
+        int window = 2 * numThreads;
+        long written = 0;
+
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+
+                // Keep a bounded number of files compressing ahead of the one being written.
+                while (futures.size() < sources.size() && futures.size() < i + window) {
+                    Source source = sources.get(futures.size());
+                    futures.add(isStored(source.name) ? null : pool.submit(() -> compress(source.path, source.size)));
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+
+                Source source = sources.get(i);
+
+                if (futures.get(i) == null) {
+                    writer.writeStored(source);
+                } else {
+                    try (Compressed compressed = futures.get(i).get()) {
+                        writer.writeCompressed(source, compressed);
+                    } catch (ExecutionException e) {
+                        throw new IOException("Could not compress " + source.path + ": "
+                                + e.getCause().getMessage(), e.getCause());
+                    }
+
+                    futures.set(i, null);
+                }
+
+                written += source.size;
+                if (progress != null) progress.update(written, total);
+            }
+        } finally {
+            pool.shutdownNow();
+
+            for (Future<Compressed> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                    disposeQuietly(future);
+                }
+            }
+        }
+    }
+
+    private static boolean isStored(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && STORED_EXTENSIONS.contains(name.substring(dot).toLowerCase());
+    }
+
+    // The regular files under a directory, in order of their names in the archive. Temporary files, which are being
+    // written and are about to be moved into place, are left out, as is the search cache.
+    private static List<Source> listFiles(Path dir) throws IOException {
+        List<Source> sources = new ArrayList<>();
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) {
+                // The search cache can be rebuilt by searching again, so it isn't worth the space in the archive.
+                return subdir.equals(dir.resolve(SearchCache.DIRECTORY))
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !file.getFileName().toString().endsWith(".tmp")) {
+                    String name = dir.relativize(file).toString().replace(File.separatorChar, '/');
+                    sources.add(new Source(name, file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        sources.sort(Comparator.comparing(Source::name));
+        return sources;
+    }
+
+    // Deflates a file, into memory if it is small, otherwise into a temporary file. A small file that doesn't get
+    // smaller is kept as is, to be stored.
+    private static Compressed compress(Path path, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        MessageDigest digest = newDigest();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        try {
+            if (size <= IN_MEMORY_LIMIT) {
+                byte[] bytes = Files.readAllBytes(path);
+                crc.update(bytes);
+                digest.update(bytes);
+                String hash = HexFormat.of().formatHex(digest.digest());
+                ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+
+                try (DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater, BUFFER_SIZE)) {
+                    out.write(bytes);
+                }
+
+                if (deflated.size() >= bytes.length) {
+                    return new Compressed(ZipWriter.STORED, crc.getValue(), hash, bytes.length, bytes, null,
+                            bytes.length);
+                }
+
+                return new Compressed(ZipWriter.DEFLATED, crc.getValue(), hash, bytes.length,
+                        deflated.toByteArray(), null, deflated.size());
+            }
+
+            File temp = File.createTempFile("tetrad-fx-archive", ".deflated");
+            long read = 0;
+
+            try (InputStream in = Files.newInputStream(path);
+                 DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(temp), deflater,
+                         BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+
+                while ((n = in.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+
+                    crc.update(buffer, 0, n);
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    read += n;
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temp.toPath());
+                throw e;
+            }
+
+            return new Compressed(ZipWriter.DEFLATED, crc.getValue(), HexFormat.of().formatHex(digest.digest()),
+                    read, null, temp, temp.length());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // The hash of a file's contents.
+    private static String hash(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void disposeQuietly(Future<Compressed> future) {
+        if (future.isDone() && !future.isCancelled()) {
+            try {
+                future.get().close();
+            } catch (Exception e) {
+                // Nothing more to clean up.
+            }
+        }
+    }
+
+    private static ExecutorService newPool(int numThreads) {
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "tetrad-fx-archive-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private record Source(String name, Path path, long size, long modified) {
+    }
+
+    /**
+     * A file that has been compressed, or is to be stored, waiting to be written to the archive. Its data is either
+     * in memory or in a temporary file, which is deleted on close.
+     */
+    private record Compressed(int method, long crc, String hash, long size, byte[] bytes, File file,
+                              long compressedSize) implements Closeable {
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Where an entry was written in the archive, what it holds, and what file it came from.
+     *
+     * @param name           The name of the entry, which is the path of the file relative to the directory.
+     * @param method         The compression method.
+     * @param crc            The CRC-32 of the file's contents.
+     * @param compressedSize The size of the entry's data in the archive.
+     * @param size           The size of the file.
+     * @param offset         The position of the entry's local header in the archive.
+     * @param length         The length of the local header and data together.
+     * @param dosTime        The modification time of the file, in MS-DOS format.
+     * @param hash           The SHA-256 hash of the file's contents, in hex.
+     * @param sourceModified The modification time of the file, in milliseconds.
+     */
+    private record Entry(String name, int method, long crc, long compressedSize, long size, long offset, long length,
+                         long dosTime, String hash, long sourceModified) {
+
+        Entry withSourceModified(long sourceModified) {
+            return new Entry(name, method, crc, compressedSize, size, offset, length, dosTime, hash, sourceModified);
+        }
+    }
+
+    /**
+     * The index of an archive: its entries, and the length and modification time the archive had when they were
+     * written, so that an archive changed by something else can be recognized.
+     */
+    private static class Index {
+        private final long archiveLength;
+        private final long archiveModified;
+        private final List<Entry> entries;
+
+        Index(long archiveLength, long archiveModified, List<Entry> entries) {
+            this.archiveLength = archiveLength;
+            this.archiveModified = archiveModified;
+            this.entries = new ArrayList<>(entries);
+        }
+
+        static Index read(File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                Index index = new Gson().fromJson(reader, Index.class);
+                return index == null || index.entries == null ? null : index;
+            } catch (IOException | JsonParseException e) {
+                System.out.println("Could not read the archive index " + file + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        void write(File file) throws IOException {
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+            try (FileOutputStream out = new FileOutputStream(temp);
+                 Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                new Gson().toJson(this, writer);
+                writer.flush();
+                out.getFD().sync();
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * <p>Writes zip entries to a channel, one after another, starting at a given position, remembering where each
+     * went so that the central directory can be written at the end. Entries already in the archive, before the
+     * starting position, can be given to be listed in the central directory too.</p>
+     */
+    private static class ZipWriter {
+        static final int STORED = 0;
+        static final int DEFLATED = 8;
+
+        private static final int LOCAL_HEADER = 0x04034b50;
+        private static final int CENTRAL_HEADER = 0x02014b50;
+        private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+        private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+        private static final int ZIP64_LOCATOR = 0x07064b50;
+        private static final int UTF8_NAMES = 0x0800;
+
+        // The length of the end of central directory record, which is always written without a comment.
+        static final int END_LENGTH = 22;
+
+        private final FileChannel channel;
+        private final List<Entry> entries;
+        private long position;
+
+        ZipWriter(FileChannel channel, long position, List<Entry> existing) {
+            this.channel = channel;
+            this.position = position;
+            this.entries = new ArrayList<>(existing);
+        }
+
+        void writeCompressed(Source source, Compressed compressed) throws IOException {
+            long offset = position;
+            long dosTime = dosTime(source.modified);
+            writeFully(localHeader(source.name, compressed.method, compressed.crc, compressed.compressedSize,
+                    compressed.size, dosTime, needsZip64(compressed.size, compressed.compressedSize)));
+
+            if (compressed.bytes != null) {
+                writeFully(ByteBuffer.wrap(compressed.bytes, 0, (int) compressed.compressedSize));
+            } else {
+                try (FileChannel in = FileChannel.open(compressed.file.toPath(), StandardOpenOption.READ)) {
+                    long done = 0;
+
+                    while (done < compressed.compressedSize) {
+                        long n = channel.transferFrom(in.position(done), position + done,
+                                compressed.compressedSize - done);
+                        if (n <= 0) throw new EOFException("Temporary file ended early: " + compressed.file);
+                        done += n;
+                    }
+
+                    position += done;
+                }
+            }
+
+            entries.add(new Entry(source.name, compressed.method, compressed.crc, compressed.compressedSize,
+                    compressed.size, offset, position - offset, dosTime, compressed.hash, source.modified));
+        }
+
+        // Copies a file into the archive without compressing it. The checksum is computed as the data is copied and
+        // filled into the header afterward, so that the entry is consistent even if the file is being rewritten.
+        void writeStored(Source source) throws IOException {
+            long offset = position;
+            long dosTime = dosTime(source.modified);
+            boolean zip64 = needsZip64(source.size, source.size);
+            writeFully(localHeader(source.name, STORED, 0, source.size, source.size, dosTime, zip64));
+
+            CRC32 crc = new CRC32();
+            MessageDigest digest = newDigest();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long copied = 0;
+
+            try (FileChannel in = FileChannel.open(source.path, StandardOpenOption.READ)) {
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    crc.update(buffer.duplicate());
+                    digest.update(buffer.duplicate());
+                    copied += buffer.remaining();
+                    writeFully(buffer);
+                    buffer.clear();
+                }
+            }
+
+            if (zip64 != needsZip64(copied, copied)) {
+                throw new IOException("File changed size while it was being saved: " + source.path);
+            }
+
+            ByteBuffer header = localHeader(source.name, STORED, crc.getValue(), copied, copied, dosTime, zip64);
+            long headerPosition = offset;
+            while (header.hasRemaining()) headerPosition += channel.write(header, headerPosition);
+
+            entries.add(new Entry(source.name, STORED, crc.getValue(), copied, copied, offset, position - offset,
+                    dosTime, HexFormat.of().formatHex(digest.digest()), source.modified));
+        }
+
+        // Writes the central directory and the end records.
+        void finish() throws IOException {
+            long centralDirectoryStart = position;
+
+            for (Entry entry : entries) {
+                writeFully(centralHeader(entry));
+            }
+
+            long centralDirectorySize = position - centralDirectoryStart;
+            boolean zip64 = entries.size() >= 0xFFFF || centralDirectoryStart >= ZIP64_LIMIT
+                    || centralDirectorySize >= ZIP64_LIMIT;
+
+            if (zip64) {
+                long zip64EndPosition = position;
+                ByteBuffer end = buffer(56 + 20);
+                end.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY).putLong(44).putShort((short) 45).putShort((short) 45)
+                        .putInt(0).putInt(0).putLong(entries.size()).putLong(entries.size())
+                        .putLong(centralDirectorySize).putLong(centralDirectoryStart);
+                end.putInt(ZIP64_LOCATOR).putInt(0).putLong(zip64EndPosition).putInt(1);
+                end.flip();
+                writeFully(end);
+            }
+
+            ByteBuffer end = buffer(END_LENGTH);
+            end.putInt(END_OF_CENTRAL_DIRECTORY).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) Math.min(entries.size(), 0xFFFF))
+                    .putShort((short) Math.min(entries.size(), 0xFFFF))
+                    .putInt((int) Math.min(centralDirectorySize, ZIP64_LIMIT))
+                    .putInt((int) Math.min(centralDirectoryStart, ZIP64_LIMIT))
+                    .putShort((short) 0);
+            end.flip();
+            writeFully(end);
+            channel.truncate(position);
+        }
+
+        // Whether the part of the archive before a position ends in an end of central directory record.
+        static boolean endsAt(FileChannel channel, long end) throws IOException {
+            if (end < END_LENGTH) {
+                return false;
+            }
+
+            ByteBuffer signature = buffer(4);
+            long position = end - END_LENGTH;
+
+            while (signature.hasRemaining()) {
+                int n = channel.read(signature, position);
+                if (n < 0) return false;
+                position += n;
+            }
+
+            return signature.getInt(0) == END_OF_CENTRAL_DIRECTORY;
+        }
+
+        private static ByteBuffer localHeader(String entryName, int method, long crc, long compressedSize, long size,
+                                              long dosTime, boolean zip64) {
+            byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = buffer(30 + name.length + (zip64 ? 20 : 0));
+            header.putInt(LOCAL_HEADER).putShort((short) (zip64 ? 45 : 20)).putShort((short) UTF8_NAMES)
+                    .putShort((short) method).putInt((int) dosTime).putInt((int) crc)
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : compressedSize))
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : size))
+                    .putShort((short) name.length).putShort((short) (zip64 ? 20 : 0)).put(name);
+
+            if (zip64) {
+                header.putShort((short) 1).putShort((short) 16).putLong(size).putLong(compressedSize);
+            }
+
+            header.flip();
+            return header;
+        }
+
+        private static ByteBuffer centralHeader(Entry entry) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            boolean zip64 = needsZip64(entry.size, entry.compressedSize) || entry.offset >= ZIP64_LIMIT;
+            ByteBuffer header = buffer(46 + name.length + (zip64 ? 28 : 0));
+            header.putInt(CENTRAL_HEADER).putShort((short) 45).putShort((short) (zip64 ? 45 : 20))
+                    .putShort((short) UTF8_NAMES).putShort((short) entry.method).putInt((int) entry.dosTime)
+                    .putInt((int) entry.crc)
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : entry.compressedSize))
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : entry.size))
+                    .putShort((short) name.length).putShort((short) (zip64 ? 28 : 0)).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0).putInt(0)
+                    .putInt((int) (zip64 ? ZIP64_LIMIT : entry.offset)).put(name);
+
+            if (zip64) {
+                header.putShort((short) 1).putShort((short) 24).putLong(entry.size).putLong(entry.compressedSize)
+                        .putLong(entry.offset);
+            }
+
+            header.flip();
+            return header;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private static boolean needsZip64(long size, long compressedSize) {
+            return size >= ZIP64_LIMIT || compressedSize >= ZIP64_LIMIT;
+        }
+
+        private static ByteBuffer buffer(int size) {
+            return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // The modification time in MS-DOS format, time in the low 16 bits and date in the high 16 bits.
+        private static long dosTime(long millis) {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+
+            if (time.getYear() < 1980) {
+                time = LocalDateTime.of(1980, 1, 1, 0, 0);
+            }
+
+            long date = (long) (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+            long clock = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() / 2;
+            return date << 16 | clock;
+        }
+    }
+}
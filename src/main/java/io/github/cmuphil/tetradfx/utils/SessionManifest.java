@@ -0,0 +1,203 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>The manifest of a session: a small JSON file in the session directory listing the projects in
+ * the session, in order, with the directory of each and the names of its datasets, search results,
+ * knowledge and graphs, and which project was selected. The session reads this at startup so that
+ * it can show every project without opening any of them; a project's files are only read when the
+ * project is first selected.</p>
+ *
+ * <p>The manifest is only an index; the project directories and their tab order files are still
+ * the record of what a project holds. Sessions saved before there was a manifest don't have one, in
+ * which case the session lists the project directories instead.</p>
+ *
+ * <p>The session builds the manifest from what it holds in memory and writes it through the
+ * PersistenceService, like the other small files of the session, so that selecting a project
+ * doesn't wait on the disk.</p>
+ *
+ * @author josephramsey
+ */
+public class SessionManifest {
+
+    /**
+     * The name of the manifest file in the session directory.
+     */
+    public static final String FILENAME = "manifest.json";
+
+    private final List<ProjectEntry> projects = new ArrayList<>();
+    private String selected;
+
+    /**
+     * Reads the manifest from a session directory.
+     *
+     * @param sessionDir The session directory.
+     * @return The manifest, or null if there is none or it can't be read.
+     */
+    public static SessionManifest read(File sessionDir) {
+        File file = new File(sessionDir, FILENAME);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        // In the default encoding, which is what the PersistenceService writes files in.
+        try (Reader reader = new FileReader(file)) {
+            return new Gson().fromJson(reader, SessionManifest.class);
+        } catch (IOException | JsonParseException e) {
+            System.out.println("Could not read the session manifest: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the manifest to a session directory, in the background, through the PersistenceService. The text is
+     * made now, so later changes to the manifest aren't written.
+     *
+     * @param sessionDir The session directory.
+     */
+    public void write(File sessionDir) {
+        PersistenceService.getInstance().write(new File(sessionDir, FILENAME), new Gson().toJson(this));
+    }
+
+    /**
+     * Adds a project to the manifest, listing its contents from the tab order files in its directory. This reads the
+     * disk, so it is for projects whose contents haven't been loaded and that aren't in the manifest yet.
+     *
+     * @param name The name of the project.
+     * @param dir  The directory of the project.
+     */
+    public void addProject(String name, File dir) {
+        ProjectEntry entry = new ProjectEntry();
+        entry.name = name;
+        entry.directory = dir.getName();
+        entry.data = Utils.readTabOrder(new File(new File(dir, "data"), "taborder.txt"));
+        entry.search = Utils.readTabOrder(new File(new File(dir, "search"), "taborder.txt"));
+        entry.knowledge = Utils.readTabOrder(new File(new File(dir, "knowledge"), "taborder.txt"));
+        entry.graphs = Utils.readTabOrder(new File(new File(dir, "other_graphs"), "taborder.txt"));
+        projects.add(entry);
+    }
+
+    /**
+     * Adds a project to the manifest with the contents it has in memory.
+     *
+     * @param name      The name of the project.
+     * @param dir       The directory of the project.
+     * @param data      The names of its datasets, in tab order.
+     * @param search    The names of its search results, in tab order.
+     * @param knowledge The names of its knowledge, in tab order.
+     * @param graphs    The names of its graphs, in tab order.
+     */
+    public void addProject(String name, File dir, Collection<String> data, Collection<String> search,
+                           Collection<String> knowledge, Collection<String> graphs) {
+        ProjectEntry entry = new ProjectEntry();
+        entry.name = name;
+        entry.directory = dir.getName();
+        entry.data = new ArrayList<>(data);
+        entry.search = new ArrayList<>(search);
+        entry.knowledge = new ArrayList<>(knowledge);
+        entry.graphs = new ArrayList<>(graphs);
+        projects.add(entry);
+    }
+
+    /**
+     * Adds a project to the manifest as another manifest lists it--for a project that hasn't changed since.
+     *
+     * @param entry The project's entry in the other manifest.
+     */
+    public void addProject(ProjectEntry entry) {
+        projects.add(entry);
+    }
+
+    /**
+     * Returns the projects in the manifest, in order.
+     *
+     * @return The projects.
+     */
+    public List<ProjectEntry> getProjects() {
+        return projects;
+    }
+
+    /**
+     * Returns the project by name.
+     *
+     * @param name The name of the project.
+     * @return The project, or null if there is no project by that name in the manifest.
+     */
+    public ProjectEntry getProject(String name) {
+        for (ProjectEntry entry : projects) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the name of the selected project.
+     *
+     * @return The name, or null if none was recorded.
+     */
+    public String getSelected() {
+        return selected;
+    }
+
+    /**
+     * Sets the name of the selected project.
+     *
+     * @param selected The name.
+     */
+    public void setSelected(String selected) {
+        this.selected = selected;
+    }
+
+    /**
+     * <p>A project in the manifest: its name, its directory (relative to the session directory), and the names of
+     * its artifacts, in tab order.</p>
+     */
+    public static class ProjectEntry {
+        private String name;
+        private String directory;
+        private List<String> data = new ArrayList<>();
+        private List<String> search = new ArrayList<>();
+        private List<String> knowledge = new ArrayList<>();
+        private List<String> graphs = new ArrayList<>();
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Returns a one-line description of what the project holds, like "2 datasets, 1 search result".
+         *
+         * @return The description.
+         */
+        public String getSummary() {
+            List<String> parts = new ArrayList<>();
+            if (data != null && !data.isEmpty()) parts.add(count(data.size(), "dataset", "datasets"));
+            if (search != null && !search.isEmpty()) parts.add(count(search.size(), "search result", "search results"));
+            if (knowledge != null && !knowledge.isEmpty()) parts.add(count(knowledge.size(), "knowledge", "knowledge"));
+            if (graphs != null && !graphs.isEmpty()) parts.add(count(graphs.size(), "graph", "graphs"));
+            return parts.isEmpty() ? "Empty" : String.join(", ", parts);
+        }
+
+        private static String count(int n, String singular, String plural) {
+            return n + " " + (n == 1 ? singular : plural);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>A uniform grid over the plane for finding which of a fixed number of items--nodes or edges of
+ * a graph display, say, numbered from 0--lie near a point or in a rectangle, without looking at
+ * all of them. Each item is put in every cell it touches; a query looks only in the cells the query
+ * rectangle touches, so it returns every item that might be there, and maybe a few that aren't,
+ * which the caller checks exactly.</p>
+ *
+ * <p>Rectangles are put in the cells their bounds cover. Line segments are put only in the cells
+ * along the segment, so that a long edge doesn't fill the cells of the whole rectangle it spans.
+ * Only cells with something in them are stored, so the items can be anywhere.</p>
+ *
+ * <p>This is not thread-safe.</p>
+ *
+ * @author josephramsey
+ */
+public class SpatialGrid {
+    private static final long[] NO_CELLS = new long[0];
+
+    private final double cellSize;
+    private final Map<Long, Cell> cells = new HashMap<>();
+
+    // The cells each item is in, so it can be taken out again.
+    private final long[][] itemCells;
+
+    // Used to report each item once per query; an item has been reported if its stamp is the current one.
+    private final int[] stamps;
+    private int stamp = 0;
+
+    /**
+     * Creates an empty grid.
+     *
+     * @param numItems The number of items; they are numbered 0 to numItems - 1.
+     * @param cellSize The width and height of a cell. A few times the size of a typical item works well.
+     */
+    public SpatialGrid(int numItems, double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+
+        this.cellSize = cellSize;
+        this.itemCells = new long[numItems][];
+        this.stamps = new int[numItems];
+        Arrays.fill(itemCells, NO_CELLS);
+    }
+
+    /**
+     * Puts an item in the cells a rectangle covers, taking it out of wherever it was.
+     *
+     * @param item The item.
+     * @param minX The left of the rectangle.
+     * @param minY The top of the rectangle.
+     * @param maxX The right of the rectangle.
+     * @param maxY The bottom of the rectangle.
+     */
+    public void putRectangle(int item, double minX, double minY, double maxX, double maxY) {
+        remove(item);
+
+        int x0 = cell(minX), x1 = cell(maxX), y0 = cell(minY), y1 = cell(maxY);
+        long[] keys = new long[(x1 - x0 + 1) * (y1 - y0 + 1)];
+        int n = 0;
+
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                keys[n++] = add(item, cx, cy);
+            }
+        }
+
+        itemCells[item] = keys;
+    }
+
+    /**
+     * Puts an item in the cells within a distance of a line segment, taking it out of wherever it was.
+     *
+     * @param item The item.
+     * @param x1   The x coordinate of one end of the segment.
+     * @param y1   The y coordinate of one end of the segment.
+     * @param x2   The x coordinate of the other end of the segment.
+     * @param y2   The y coordinate of the other end of the segment.
+     * @param pad  How far from the segment the item reaches, like half the width of the line.
+     */
+    public void putSegment(int item, double x1, double y1, double x2, double y2, double pad) {
+        remove(item);
+
+        if (x1 > x2) {
+            double t = x1;
+            x1 = x2;
+            x2 = t;
+            t = y1;
+            y1 = y2;
+            y2 = t;
+        }
+
+        long[] keys = new long[8];
+        int n = 0;
+
+        // Go across the columns the padded segment covers, putting the item in the cells of each column that the
+        // part of the segment within the pad of that column covers, give or take the pad.
+        for (int cx = cell(x1 - pad); cx <= cell(x2 + pad); cx++) {
+            double left = Math.max(x1, cx * cellSize - pad);
+            double right = Math.min(x2, (cx + 1) * cellSize + pad);
+
+            if (left > right) {
+                left = right = left > x2 ? x2 : x1;
+            }
+
+            double yLeft = x2 == x1 ? y1 : y1 + (y2 - y1) * (left - x1) / (x2 - x1);
+            double yRight = x2 == x1 ? y2 : y1 + (y2 - y1) * (right - x1) / (x2 - x1);
+
+            for (int cy = cell(Math.min(yLeft, yRight) - pad); cy <= cell(Math.max(yLeft, yRight) + pad); cy++) {
+                if (n == keys.length) {
+                    keys = Arrays.copyOf(keys, 2 * n);
+                }
+
+                keys[n++] = add(item, cx, cy);
+            }
+        }
+
+        itemCells[item] = Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * Takes an item out of the grid.
+     *
+     * @param item The item.
+     */
+    public void remove(int item) {
+        for (long key : itemCells[item]) {
+            Cell cell = cells.get(key);
+            cell.remove(item);
+
+            if (cell.size == 0) {
+                cells.remove(key);
+            }
+        }
+
+        itemCells[item] = NO_CELLS;
+    }
+
+    /**
+     * Reports, once each, the items in the cells a rectangle touches. These include every item that was put in the
+     * grid with a rectangle or segment that overlaps the query rectangle.
+     *
+     * @param minX   The left of the rectangle.
+     * @param minY   The top of the rectangle.
+     * @param maxX   The right of the rectangle.
+     * @param maxY   The bottom of the rectangle.
+     * @param action Called with each item.
+     */
+    public void query(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+
+        int x0 = cell(minX), x1 = cell(maxX), y0 = cell(minY), y1 = cell(maxY);
+
+        // When the rectangle covers more cells than there are cells in use, as when a large graph is zoomed out, it's
+        // quicker to go through the cells in use.
+        if ((double) (x1 - x0 + 1) * (y1 - y0 + 1) > cells.size()) {
+            for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                int cx = (int) (entry.getKey() >> 32);
+                int cy = (int) (long) entry.getKey();
+
+                if (cx >= x0 && cx <= x1 && cy >= y0 && cy <= y1) {
+                    report(entry.getValue(), action);
+                }
+            }
+        } else {
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    Cell cell = cells.get(key(cx, cy));
+
+                    if (cell != null) {
+                        report(cell, action);
+                    }
+                }
+            }
+        }
+    }
+
+    private void report(Cell cell, IntConsumer action) {
+        for (int i = 0; i < cell.size; i++) {
+            int item = cell.items[i];
+
+            if (stamps[item] != stamp) {
+                stamps[item] = stamp;
+                action.accept(item);
+            }
+        }
+    }
+
+    private long add(int item, int cx, int cy) {
+        long key = key(cx, cy);
+        cells.computeIfAbsent(key, k -> new Cell()).add(item);
+        return key;
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    // The items in a cell, in no particular order.
+    private static class Cell {
+        private int[] items = new int[4];
+        private int size = 0;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, 2 * size);
+            }
+
+            items[size++] = item;
+        }
+
+        void remove(int item) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == item) {
+                    items[i] = items[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import edu.cmu.tetrad.algcomparison.independence.FisherZ;
+import edu.cmu.tetrad.algcomparison.independence.IndependenceWrapper;
+import edu.cmu.tetrad.algcomparison.score.ScoreWrapper;
+import edu.cmu.tetrad.algcomparison.score.SemBicScore;
+import edu.cmu.tetrad.data.*;
+import edu.cmu.tetrad.graph.Node;
+import edu.cmu.tetrad.search.IndependenceTest;
+import edu.cmu.tetrad.search.score.Score;
+import edu.cmu.tetrad.util.Parameters;
+
+import java.io.File;
+import java.io.Serial;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>Keeps the sufficient statistics for the datasets in a project, so that they are computed once
+ * per dataset and shared by every search on it, rather than recomputed from the raw data by each
+ * test or score. Currently this is the covariance matrix of a continuous dataset, which is what the
+ * Fisher Z test and the SEM BIC score need--and the column summaries shown in the Variables tab,
+ * which are also saved with the dataset so that they survive from one session to the next.</p>
+ *
+ * <p>Only datasets that have been registered with track() are cached, so that datasets made on the
+ * fly inside an algorithm (for bootstrapping, say) don't accumulate here. A dataset's statistics
+ * are dropped when invalidate() is called for it, which the project does when its tab is closed,
+ * and all of them when clear() is called, which the session does when the project is removed--its
+ * tabs aren't closed then, and a search still running may keep the cache itself reachable. (Weak
+ * keys wouldn't do instead: a covariance matrix not yet computed holds on to its dataset.) A search
+ * that already has a dataset's covariances keeps them until it is done. The methods of this class
+ * may be called from worker threads.</p>
+ *
+ * @author josephramsey
+ */
+public class StatisticsCache {
+    private final Map<DataSet, FutureTask<ICovarianceMatrix>> covariances = new IdentityHashMap<>();
+    private final Map<DataSet, ColumnStatistics.Summary[]> summaries = new IdentityHashMap<>();
+    private final Map<DataSet, File> summaryFiles = new IdentityHashMap<>();
+
+    /**
+     * Registers a dataset whose statistics should be cached. Nothing is computed until the statistics are first
+     * asked for.
+     *
+     * @param dataSet The dataset.
+     */
+    public void track(DataSet dataSet) {
+        trackCovariances(dataSet);
+    }
+
+    /**
+     * Registers a dataset whose statistics should be cached, with the file its column summaries are saved in. If the
+     * file has summaries that fit the dataset, they are used; otherwise they will be written there once they're known.
+     *
+     * @param dataSet     The dataset.
+     * @param summaryFile The file for its column summaries.
+     */
+    public void track(DataSet dataSet, File summaryFile) {
+        trackCovariances(dataSet);
+        ColumnStatistics.Summary[] saved = ColumnStatistics.read(summaryFile);
+
+        synchronized (summaries) {
+            summaryFiles.put(dataSet, summaryFile);
+
+            if (saved != null && fits(saved, dataSet)) {
+                summaries.put(dataSet, saved);
+            }
+        }
+    }
+
+    private void trackCovariances(DataSet dataSet) {
+        if (!dataSet.isContinuous()) {
+            return;
+        }
+
+        synchronized (covariances) {
+            covariances.putIfAbsent(dataSet, new FutureTask<>(() -> {
+
+                // Covariances with missing values can't be shared this way; the tests handle those themselves.
+                if (dataSet.existsMissingValue()) {
+                    return null;
+                }
+
+                return new CovarianceMatrix(dataSet);
+            }));
+        }
+    }
+
+    /**
+     * Drops the cached statistics for a dataset.
+     *
+     * @param dataSet The dataset.
+     */
+    public void invalidate(DataSet dataSet) {
+        synchronized (covariances) {
+            covariances.remove(dataSet);
+        }
+
+        synchronized (summaries) {
+            summaries.remove(dataSet);
+            summaryFiles.remove(dataSet);
+        }
+    }
+
+    /**
+     * Drops the cached statistics for every dataset.
+     */
+    public void clear() {
+        synchronized (covariances) {
+            covariances.clear();
+        }
+
+        synchronized (summaries) {
+            summaries.clear();
+            summaryFiles.clear();
+        }
+    }
+
+    /**
+     * Returns the column summaries of a dataset, if they are known.
+     *
+     * @param dataSet The dataset.
+     * @return The summaries, by column, or null if they haven't been computed yet.
+     */
+    public ColumnStatistics.Summary[] getSummaries(DataSet dataSet) {
+        synchronized (summaries) {
+            return summaries.get(dataSet);
+        }
+    }
+
+    /**
+     * Records the column summaries of a tracked dataset, and saves them in its summary file if it has one.
+     *
+     * @param dataSet       The dataset.
+     * @param dataSummaries The summaries, by column.
+     */
+    public void putSummaries(DataSet dataSet, ColumnStatistics.Summary[] dataSummaries) {
+        if (dataSummaries == null || !fits(dataSummaries, dataSet)) {
+            throw new IllegalArgumentException("The summaries don't fit the dataset.");
+        }
+
+        File file;
+
+        synchronized (summaries) {
+            if (!summaryFiles.containsKey(dataSet)) {
+                return;
+            }
+
+            summaries.put(dataSet, dataSummaries);
+            file = summaryFiles.get(dataSet);
+        }
+
+        if (file != null) {
+            ColumnStatistics.write(dataSummaries, file);
+        }
+    }
+
+    /**
+     * Returns the covariance matrix for a dataset, computing it if this is the first time it has been asked for. If
+     * several threads ask at once, it is computed only once.
+     *
+     * @param dataSet The dataset.
+     * @return The covariance matrix, or null if the dataset is not tracked or its covariances can't be cached.
+     */
+    public ICovarianceMatrix getCovariances(DataSet dataSet) {
+        FutureTask<ICovarianceMatrix> task;
+
+        synchronized (covariances) {
+            task = covariances.get(dataSet);
+        }
+
+        if (task == null) {
+            return null;
+        }
+
+        // Runs the computation if no one has yet; otherwise does nothing.
+        task.run();
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * A SEM BIC score wrapper that scores from the cached covariance matrix of the dataset when there is one.
+     */
+    public static class CachedSemBicScore implements ScoreWrapper {
+        @Serial
+        private static final long serialVersionUID = 23L;
+
+        private final SemBicScore delegate = new SemBicScore();
+        private final transient StatisticsCache cache;
+
+        public CachedSemBicScore(StatisticsCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public Score getScore(DataModel dataModel, Parameters parameters) {
+            return delegate.getScore(substitute(cache, dataModel), parameters);
+        }
+
+        @Override
+        public String getDescription() {
+            return delegate.getDescription();
+        }
+
+        @Override
+        public DataType getDataType() {
+            return delegate.getDataType();
+        }
+
+        @Override
+        public List<String> getParameters() {
+            return delegate.getParameters();
+        }
+
+        @Override
+        public Node getVariable(String name) {
+            return delegate.getVariable(name);
+        }
+    }
+
+    /**
+     * A Fisher Z test wrapper that tests from the cached covariance matrix of the dataset when there is one.
+     */
+    public static class CachedFisherZ implements IndependenceWrapper {
+        @Serial
+        private static final long serialVersionUID = 23L;
+
+        private final FisherZ delegate = new FisherZ();
+        private final transient StatisticsCache cache;
+
+        public CachedFisherZ(StatisticsCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public IndependenceTest getTest(DataModel dataModel, Parameters parameters) {
+            return delegate.getTest(substitute(cache, dataModel), parameters);
+        }
+
+        @Override
+        public String getDescription() {
+            return delegate.getDescription();
+        }
+
+        @Override
+        public DataType getDataType() {
+            return delegate.getDataType();
+        }
+
+        @Override
+        public List<String> getParameters() {
+            return delegate.getParameters();
+        }
+    }
+
+    // Whether summaries are of a dataset with these columns and this many rows.
+    private static boolean fits(ColumnStatistics.Summary[] dataSummaries, DataSet dataSet) {
+        if (dataSummaries.length != dataSet.getNumColumns()) {
+            return false;
+        }
+
+        for (int i = 0; i < dataSummaries.length; i++) {
+            ColumnStatistics.Summary summary = dataSummaries[i];
+
+            if (summary == null || summary.n() != dataSet.getNumRows()
+                    || !dataSet.getVariable(i).getName().equals(summary.name())
+                    || summary.discrete() != (dataSet.getVariable(i) instanceof DiscreteVariable)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Returns the cached covariance matrix for the data model if there is one, otherwise the data model itself.
+    private static DataModel substitute(StatisticsCache cache, DataModel dataModel) {
+        if (cache != null && dataModel instanceof DataSet) {
+            ICovarianceMatrix covariances = cache.getCovariances((DataSet) dataModel);
+
+            if (covariances != null) {
+                return covariances;
+            }
+        }
+
+        return dataModel;
+    }
+}
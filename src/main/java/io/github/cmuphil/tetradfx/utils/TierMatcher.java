@@ -0,0 +1,470 @@
+package io.github.cmuphil.tetradfx.utils;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.IntStream;
+
+/**
+ * <p>Sorts variable names into tiers by regexes, as the knowledge editor does: each tier has a list
+ * of regexes, and a variable goes in the first tier with a regex that finds a match in its name;
+ * variables that no tier matches are left over.</p>
+ *
+ * <p>Which variables each tier's regexes match doesn't depend on the other tiers, so this is
+ * remembered for each tier, as a bit set over the variables, along with the tier's compiled
+ * patterns. When a tier's regexes are edited, only that tier is matched again; the tiers are then
+ * dealt their variables from the remembered matches, in order, with a few operations on bit sets.
+ * Everything is matched again only when the variables change.</p>
+ *
+ * <p>For very many variables, the tiers can instead be matched all at once (see setCombined()).
+ * The regexes of every tier are then compiled together: plain strings into an Aho-Corasick
+ * automaton, strings anchored at the start or end of the name into tries, whole names into a hash
+ * table, and the rest into one regex whose alternatives are the tiers in order, so that the first
+ * tier that matches is the one found. Each name is then read once to find its tier. Regexes that
+ * can't be combined this way--those with backreferences or named groups, say--are matched one
+ * tier at a time as usual.</p>
+ *
+ * <p>The methods of this class may be called from any thread, one at a time.</p>
+ *
+ * @author josephramsey
+ */
+public class TierMatcher {
+    private List<String> variables = new ArrayList<>();
+    private final List<TierMatches> tiers = new ArrayList<>();
+    private boolean combined;
+    private List<String> combinedRegexes;
+    private Combined combinedMatcher;
+    private int[] combinedTiers;
+
+    /**
+     * The variables in each tier and those left over.
+     *
+     * @param tiers         For each tier, its variables in the order given, or null if its regexes are invalid.
+     * @param texts         For each tier, its variables separated by commas, or null if its regexes are invalid.
+     * @param unmatched     The variables in no tier, in the order given.
+     * @param unmatchedText Those variables separated by commas.
+     */
+    public record Result(List<List<String>> tiers, List<String> texts, List<String> unmatched, String unmatchedText) {
+    }
+
+    /**
+     * Sorts variables into tiers.
+     *
+     * @param variables The variable names.
+     * @param regexes   For each tier, its regexes, separated by commas, semicolons or white space.
+     * @return The variables in each tier and those left over.
+     */
+    public synchronized Result match(List<String> variables, List<String> regexes) {
+        if (!this.variables.equals(variables)) {
+            this.variables = new ArrayList<>(variables);
+            tiers.clear();
+            combinedTiers = null;
+        }
+
+        if (combined) {
+            if (combinedTiers == null || !regexes.equals(combinedRegexes)) {
+
+                // Variables in tiers before the first one edited stay where they are.
+                int from = combinedTiers == null ? 0 : firstDifference(combinedRegexes, regexes);
+                combinedRegexes = new ArrayList<>(regexes);
+                combinedMatcher = Combined.compile(regexes);
+                combinedTiers = combinedMatcher == null ? null
+                        : combinedMatcher.classify(this.variables, combinedTiers, from);
+            }
+
+            if (combinedTiers != null) {
+                return result(combinedTiers, combinedMatcher.valid);
+            }
+        }
+
+        while (tiers.size() > regexes.size()) {
+            tiers.remove(tiers.size() - 1);
+        }
+
+        for (int k = 0; k < regexes.size(); k++) {
+            String text = regexes.get(k);
+
+            if (k == tiers.size()) {
+                tiers.add(new TierMatches(text, this.variables));
+            } else if (!tiers.get(k).text.equals(text)) {
+                tiers.set(k, new TierMatches(text, this.variables));
+            }
+        }
+
+        List<BitSet> dealt = new ArrayList<>();
+        BitSet taken = new BitSet(this.variables.size());
+
+        for (TierMatches tier : tiers) {
+            if (tier.matches == null) {
+                dealt.add(null);
+                continue;
+            }
+
+            BitSet mine = (BitSet) tier.matches.clone();
+            mine.andNot(taken);
+            taken.or(mine);
+            dealt.add(mine);
+        }
+
+        BitSet left = new BitSet(this.variables.size());
+        left.set(0, this.variables.size());
+        left.andNot(taken);
+
+        List<List<String>> tierVariables = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+
+        for (BitSet mine : dealt) {
+            List<String> names = mine == null ? null : names(mine);
+            tierVariables.add(names);
+            texts.add(names == null ? null : String.join(", ", names));
+        }
+
+        List<String> unmatched = names(left);
+        return new Result(tierVariables, texts, unmatched, String.join(", ", unmatched));
+    }
+
+    /**
+     * Sets whether to match all the tiers at once, which is faster for very many variables.
+     *
+     * @param combined True to match all the tiers at once, false to match them one at a time.
+     */
+    public synchronized void setCombined(boolean combined) {
+        this.combined = combined;
+    }
+
+    private static int firstDifference(List<String> a, List<String> b) {
+        int k = 0;
+        while (k < a.size() && k < b.size() && a.get(k).equals(b.get(k))) k++;
+        return k;
+    }
+
+    private List<String> names(BitSet indices) {
+        List<String> names = new ArrayList<>(indices.cardinality());
+
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            names.add(variables.get(i));
+        }
+
+        return names;
+    }
+
+    // The result when each variable's tier is known; -1 for none.
+    private Result result(int[] tierOf, boolean[] valid) {
+        List<List<String>> tierVariables = new ArrayList<>();
+        List<String> unmatched = new ArrayList<>();
+
+        for (boolean isValid : valid) {
+            tierVariables.add(isValid ? new ArrayList<>() : null);
+        }
+
+        for (int i = 0; i < tierOf.length; i++) {
+            if (tierOf[i] < 0) unmatched.add(variables.get(i));
+            else tierVariables.get(tierOf[i]).add(variables.get(i));
+        }
+
+        List<String> texts = new ArrayList<>();
+
+        for (List<String> names : tierVariables) {
+            texts.add(names == null ? null : String.join(", ", names));
+        }
+
+        return new Result(tierVariables, texts, unmatched, String.join(", ", unmatched));
+    }
+
+    // A tier's regexes, compiled, and the variables they match, or null if they aren't valid.
+    private static class TierMatches {
+        private final String text;
+        private final BitSet matches;
+
+        TierMatches(String text, List<String> variables) {
+            this.text = text;
+            List<Pattern> patterns = new ArrayList<>();
+
+            try {
+                for (String regex : split(text)) {
+                    patterns.add(Pattern.compile(regex));
+                }
+            } catch (PatternSyntaxException e) {
+                this.matches = null;
+                return;
+            }
+
+            BitSet matches = new BitSet(variables.size());
+
+            for (int i = 0; i < variables.size(); i++) {
+                String name = variables.get(i);
+
+                for (Pattern pattern : patterns) {
+                    if (pattern.matcher(name).find()) {
+                        matches.set(i);
+                        break;
+                    }
+                }
+            }
+
+            this.matches = matches;
+        }
+    }
+
+    private static String[] split(String regexes) {
+        return regexes.split("[,;\\t\\s]+");
+    }
+
+    // All the tiers' regexes compiled together, finding the first tier that matches a name in one reading of it.
+    private static class Combined {
+
+        // Characters that make a regex more than a plain string.
+        private static final String SPECIAL = "\\^$.|?*+()[]{}";
+
+        // Named groups and backreferences can't be put in the combined regex, \G means something else there, and
+        // quoting without an end or comments would swallow what follows.
+        private static final Pattern UNCOMBINABLE = Pattern.compile("\\\\[1-9kGQ]|\\(\\?<[a-zA-Z]|\\(\\?[a-zA-Z-]*x");
+
+        private final boolean[] valid;
+        private final Trie anywhere = new Trie();
+        private final Trie prefixes = new Trie();
+        private final Trie suffixes = new Trie();
+        private final Map<String, Integer> whole = new HashMap<>();
+        private Pattern others;
+        private int firstOtherTier = Integer.MAX_VALUE;
+        private final List<Integer> otherTiers = new ArrayList<>();
+
+        private Combined(int numTiers) {
+            this.valid = new boolean[numTiers];
+        }
+
+        // Compiles the regexes of the tiers, or returns null if they can't all be combined.
+        static Combined compile(List<String> tierRegexes) {
+            Combined combined = new Combined(tierRegexes.size());
+            StringBuilder alternatives = new StringBuilder();
+
+            for (int tier = 0; tier < tierRegexes.size(); tier++) {
+                String[] regexes = split(tierRegexes.get(tier));
+
+                try {
+                    for (String regex : regexes) Pattern.compile(regex);
+                } catch (PatternSyntaxException e) {
+
+                    // A tier with an invalid regex matches nothing, as when the tiers are matched one at a time.
+                    continue;
+                }
+
+                combined.valid[tier] = true;
+                List<String> others = new ArrayList<>();
+
+                for (String regex : regexes) {
+                    if (!combined.addLiteral(regex, tier)) {
+                        // Such a regex can't be matched as part of one pattern, so the tiers are matched one at a
+                        // time, which the caller does when this returns null.
+                        if (UNCOMBINABLE.matcher(regex).find()) {
+                            return null;
+                        }
+
+                        others.add("(?:" + regex + ")");
+                    }
+                }
+
+                if (!others.isEmpty()) {
+                    if (!alternatives.isEmpty()) alternatives.append('|');
+                    alternatives.append("(?<t").append(tier).append(">(?s:.*?)(?:")
+                            .append(String.join("|", others)).append("))");
+                    combined.otherTiers.add(tier);
+                    combined.firstOtherTier = Math.min(combined.firstOtherTier, tier);
+                }
+            }
+
+            if (!alternatives.isEmpty()) {
+                try {
+                    combined.others = Pattern.compile(alternatives.toString());
+                } catch (PatternSyntaxException e) {
+
+                    // The regexes are each valid but can't be put together; they are matched one at a time instead.
+                    return null;
+                }
+            }
+
+            combined.anywhere.link();
+            return combined;
+        }
+
+        // Adds a regex that is a plain string, perhaps anchored at either end, to the tables; false if it isn't one.
+        private boolean addLiteral(String regex, int tier) {
+            boolean start = regex.startsWith("^");
+            boolean end = regex.endsWith("$") && regex.length() > (start ? 1 : 0);
+            String literal = regex.substring(start ? 1 : 0, regex.length() - (end ? 1 : 0));
+
+            for (int i = 0; i < literal.length(); i++) {
+                if (SPECIAL.indexOf(literal.charAt(i)) >= 0) return false;
+            }
+
+            if (start && end) whole.merge(literal, tier, Math::min);
+            else if (start) prefixes.add(literal, tier);
+            else if (end) suffixes.add(new StringBuilder(literal).reverse().toString(), tier);
+            else anywhere.add(literal, tier);
+            return true;
+        }
+
+        // The tier of each name, or -1 if it is in none. Names that were in a tier before a given one, by the
+        // previous tiers if there were any, are left there.
+        int[] classify(List<String> names, int[] previous, int from) {
+            int[] tiers = new int[names.size()];
+            ThreadLocal<Matcher> matchers = ThreadLocal.withInitial(() -> others == null ? null : others.matcher(""));
+            IntStream range = IntStream.range(0, names.size());
+            if (names.size() >= 10000) range = range.parallel();
+
+            range.forEach(i -> tiers[i] = previous != null && previous[i] >= 0 && previous[i] < from ? previous[i]
+                    : classify(names.get(i), matchers.get()));
+            return tiers;
+        }
+
+        private int classify(String name, Matcher matcher) {
+            int tier = anywhere.find(name);
+            tier = Math.min(tier, prefixes.walk(name, false));
+            tier = Math.min(tier, suffixes.walk(name, true));
+            tier = Math.min(tier, whole.getOrDefault(name, Integer.MAX_VALUE));
+
+            // The combined regex tries the tiers in order, so it only needs to be tried if it has an earlier tier.
+            if (matcher != null && firstOtherTier < tier && matcher.reset(name).lookingAt()) {
+                for (int other : otherTiers) {
+                    if (other >= tier) break;
+
+                    if (matcher.start("t" + other) >= 0) {
+                        tier = other;
+                        break;
+                    }
+                }
+            }
+
+            return tier == Integer.MAX_VALUE ? -1 : tier;
+        }
+    }
+
+    // A trie of strings, each with the first tier it belongs to. Once linked, it is an Aho-Corasick automaton that
+    // finds the first tier of any of its strings in a name. Moves on ASCII characters are kept in arrays, and once
+    // linked, in full, so that reading a name takes one step per character.
+    private static class Trie {
+        private final List<int[]> ascii = new ArrayList<>();
+        private final List<Map<Character, Integer>> others = new ArrayList<>();
+        private final List<Integer> tiers = new ArrayList<>();
+        private int[] fail;
+        private int[] firstTiers;
+
+        Trie() {
+            addNode();
+        }
+
+        private int addNode() {
+            int[] moves = new int[128];
+            Arrays.fill(moves, -1);
+            ascii.add(moves);
+            others.add(new HashMap<>());
+            tiers.add(Integer.MAX_VALUE);
+            return tiers.size() - 1;
+        }
+
+        // The node reached from a node by a character in the trie, or -1.
+        private int child(int node, char c) {
+            if (c < 128) return ascii.get(node)[c];
+            return others.get(node).getOrDefault(c, -1);
+        }
+
+        void add(String string, int tier) {
+            int node = 0;
+
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                int child = child(node, c);
+
+                if (child < 0) {
+                    child = addNode();
+                    if (c < 128) ascii.get(node)[c] = child;
+                    else others.get(node).put(c, child);
+                }
+
+                node = child;
+            }
+
+            tiers.set(node, Math.min(tiers.get(node), tier));
+        }
+
+        // Adds the failure links, fills in the moves on ASCII characters, and gives each node the first tier of any
+        // string that ends there.
+        void link() {
+            int numNodes = tiers.size();
+            fail = new int[numNodes];
+            firstTiers = new int[numNodes];
+            firstTiers[0] = tiers.get(0);
+            Deque<Integer> queue = new ArrayDeque<>();
+            int[] rootMoves = ascii.get(0);
+
+            for (int c = 0; c < 128; c++) {
+                if (rootMoves[c] < 0) rootMoves[c] = 0;
+                else queue.add(rootMoves[c]);
+            }
+
+            queue.addAll(others.get(0).values());
+
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                firstTiers[node] = Math.min(tiers.get(node), firstTiers[fail[node]]);
+                int[] moves = ascii.get(node);
+                int[] failMoves = ascii.get(fail[node]);
+
+                for (int c = 0; c < 128; c++) {
+                    if (moves[c] < 0) {
+                        moves[c] = failMoves[c];
+                    } else {
+                        fail[moves[c]] = failMoves[c];
+                        queue.add(moves[c]);
+                    }
+                }
+
+                for (Map.Entry<Character, Integer> edge : others.get(node).entrySet()) {
+                    fail[edge.getValue()] = next(fail[node], edge.getKey());
+                    queue.add(edge.getValue());
+                }
+            }
+        }
+
+        // The automaton's move from a state on a character.
+        private int next(int state, char c) {
+            if (c < 128) return ascii.get(state)[c];
+
+            while (true) {
+                Integer child = others.get(state).get(c);
+                if (child != null) return child;
+                if (state == 0) return 0;
+                state = fail[state];
+            }
+        }
+
+        // The first tier of any of the strings found anywhere in a name.
+        int find(String name) {
+            int tier = firstTiers[0];
+            int state = 0;
+
+            for (int i = 0; i < name.length() && tier > 0; i++) {
+                state = next(state, name.charAt(i));
+                tier = Math.min(tier, firstTiers[state]);
+            }
+
+            return tier;
+        }
+
+        // The first tier of any of the strings that begin a name, or, backward, that end it. (This uses the trie as
+        // built, without linking it.)
+        int walk(String name, boolean backward) {
+            int tier = tiers.get(0);
+            int node = 0;
+
+            for (int i = 0; i < name.length(); i++) {
+                node = child(node, name.charAt(backward ? name.length() - 1 - i : i));
+                if (node < 0) break;
+                tier = Math.min(tier, tiers.get(node));
+            }
+
+            return tier;
+        }
+    }
+}
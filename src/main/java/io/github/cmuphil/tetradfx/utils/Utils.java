@@ -10,11 +10,10 @@ import javafx.scene.control.TabPane;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.List;
 
 public class Utils {
     public static String nextName(String name, Collection<String> names) {
@@ -120,71 +119,6 @@ public class Utils {
         }
     }
 
-    public static void zip(File dir, File zipFile) {
-        Path sourceDir = dir.toPath(); // Replace with the path to your directory
-
-        try (FileOutputStream fos = new FileOutputStream(zipFile);
-             ZipOutputStream zos = new ZipOutputStream(fos)) {
-
-            Files.walkFileTree(sourceDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE,
-                    new SimpleFileVisitor<>() {
-                        @Override
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                            // Only regular files should be added to the zip
-                            if (attrs.isRegularFile()) {
-                                // Get the relative path to the source directory
-                                Path relativePath = sourceDir.relativize(file);
-                                zos.putNextEntry(new ZipEntry(relativePath.toString()));
-                                byte[] bytes = Files.readAllBytes(file);
-                                zos.write(bytes, 0, bytes.length);
-                                zos.closeEntry();
-                            }
-                            return FileVisitResult.CONTINUE;
-                        }
-                    });
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public static void unzipDirectory(String zipFilePath, String destDirectory) throws IOException {
-        File destDir = new File(destDirectory);
-        if (!destDir.exists()) {
-            destDir.mkdir();
-        }
-        try (ZipInputStream zipIn = new ZipInputStream(new FileInputStream(zipFilePath))) {
-            ZipEntry entry = zipIn.getNextEntry();
-            while (entry != null) {
-                String filePath = destDirectory + File.separator + entry.getName();
-                File newFile = new File(filePath);
-                if (entry.isDirectory()) {
-                    // If the ZipEntry is a directory, create the directory.
-                    newFile.mkdirs();
-                } else {
-                    // For files, ensure parent directory exists before extracting
-                    File parentDir = newFile.getParentFile();
-                    if (!parentDir.exists()) {
-                        parentDir.mkdirs();
-                    }
-                    extractFile(zipIn, filePath);
-                }
-                zipIn.closeEntry();
-                entry = zipIn.getNextEntry();
-            }
-        }
-    }
-
-    private static void extractFile(ZipInputStream zipIn, String filePath) throws IOException {
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(filePath))) {
-            byte[] bytesIn = new byte[4096];
-            int read;
-            while ((read = zipIn.read(bytesIn)) != -1) {
-                bos.write(bytesIn, 0, read);
-            }
-        }
-    }
-
     public static void deleteDirectory(Path dir) throws IOException {
         Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, new FileVisitor<Path>() {
 
@@ -216,8 +150,26 @@ public class Utils {
         });
     }
 
-    public static void saveParameters(File file, Parameters parameters) {
-        jsonFromJava(parameters, file);
+    /**
+     * Reads a tab order file, which lists the names of the tabs of one type in a project, one per line.
+     *
+     * @param file The file.
+     * @return The names, in order, or an empty list if the file doesn't exist or can't be read.
+     */
+    public static List<String> readTabOrder(File file) {
+        List<String> tabOrder = new ArrayList<>();
+
+        try (BufferedReader buf = new BufferedReader(new FileReader(file))) {
+            String line;
+
+            while ((line = buf.readLine()) != null) {
+                tabOrder.add(line);
+            }
+
+            return tabOrder;
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
     }
 
     public static Parameters loadParameters(File file) {
@@ -46,5 +46,9 @@ public class VariableRow {
     public void setStats(String s) {
         stats.set(s);
     }
+
+    public SimpleStringProperty statsProperty() {
+        return stats;
+    }
 }
 